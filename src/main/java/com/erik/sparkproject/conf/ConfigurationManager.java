@@ -46,6 +46,21 @@ public class ConfigurationManager {
 		return 0;
 	}
 	
+	/**
+	 * 获取Double类型的配置项
+	 * @param key
+	 * @return value
+	 */
+	public static Double getDouble(String key) {
+		String value = getProperty(key);
+		try {
+			return Double.valueOf(value);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return 0.0;
+	}
+	
 	/**
 	 * 获取布尔类型的配置项
 	 * @param key
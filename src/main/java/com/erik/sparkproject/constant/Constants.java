@@ -12,10 +12,46 @@ public interface Constants {
 	 */
 	String JDBC_DRIVER = "jdbc.driver";
 	String JDBC_DATASOURCE_SIZE="jdbc.datasource.size";
+	String JDBC_DATASOURCE_TIMEOUT="jdbc.datasource.timeout";
+	String JDBC_DATASOURCE_VALIDATION_TIMEOUT="jdbc.datasource.validation.timeout";
+	String JDBC_BATCH_SIZE="jdbc.batch.size";
+	String JDBC_BATCH_REWRITE="jdbc.batch.rewrite";
+	String JDBC_STATEMENT_CACHE_SIZE="jdbc.statement.cache.size";
+	String JDBC_QUERY_FETCH_SIZE="jdbc.query.fetch.size";
+	String JDBC_BULK_LOAD_DIR="jdbc.bulk.load.dir";
+	String JDBC_BULK_LOAD_RETRIES="jdbc.bulk.load.retries";
 	String JDBC_URL="jdbc.url";
 	String JDBC_USER="jdbc.user";
 	String JDBC_PASSWORD="jdbc.password";
 	String SPARK_LOCAL = "spark.local";
+	String SPARK_SPECULATION = "spark.speculation";
+	String SESSION_VISIT_LENGTH_BOUNDS = "session.visit.length.bounds";
+	String SESSION_STEP_LENGTH_BOUNDS = "session.step.length.bounds";
+	String USER_INFO_BROADCAST_THRESHOLD = "user.info.broadcast.threshold";
+	String SKEW_AGGREGATION_ENABLED = "skew.aggregation.enabled";
+	String SKEW_SAMPLE_FRACTION = "skew.sample.fraction";
+	String SKEW_HOT_KEY_RATIO = "skew.hot.key.ratio";
+	String SKEW_SALT_NUM = "skew.salt.num";
+	String TOP_SESSION_COUNT = "top.session.count";
+	String ASYNC_WRITER_ENABLED = "async.writer.enabled";
+	String ASYNC_WRITER_THREADS = "async.writer.threads";
+	String ASYNC_WRITER_QUEUE_SIZE = "async.writer.queue.size";
+	String SESSION_DETAIL_ENABLED = "session.detail.enabled";
+	String SESSION_DETAIL_SINK = "session.detail.sink";
+	String RESULT_SINK = "result.sink";
+	String RESULT_SINK_PARQUET_PATH = "result.sink.parquet.path";
+	String ACTION_SOURCE = "action.source";
+	String ACTION_PARQUET_PATH = "action.parquet.path";
+	String ACTION_PARQUET_BLOCK_SIZE = "action.parquet.block.size";
+	String ACTION_PARQUET_PAGE_SIZE = "action.parquet.page.size";
+	String ACTION_PARQUET_BUCKETED = "action.parquet.bucketed";
+	String ACTION_PARQUET_BUCKETS = "action.parquet.buckets";
+	String ACTION_CANDIDATE_MAX_SESSIONS = "action.candidate.max.sessions";
+	String SESSION_AGGR_DAILY_ENABLED = "session.aggr.daily.enabled";
+	String SESSION_AGGR_DAILY_PATH = "session.aggr.daily.path";
+	String RESULT_CACHE_ENABLED = "result.cache.enabled";
+	String RESULT_CACHE_TTL_HOURS = "result.cache.ttl.hours";
+	String RESULT_CACHE_MAX_SIZE = "result.cache.max.size";
 	
 	/**
 	 * spark作业相关的常量
@@ -67,5 +103,6 @@ public interface Constants {
 	String PARAM_SEX = "sex";
 	String PARAM_KEYWORDS = "keywords";
 	String PARAM_CATEGORY_IDS = "categoryIds";
+	String PARAM_TOP_CATEGORY_COUNT = "topCategoryCount";
 	
 }
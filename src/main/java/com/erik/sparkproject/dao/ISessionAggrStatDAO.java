@@ -1,5 +1,7 @@
 package com.erik.sparkproject.dao;
 
+import java.util.List;
+
 import com.erik.sparkproject.domain.SessionAggrStat;
 
 /**
@@ -10,5 +12,7 @@ import com.erik.sparkproject.domain.SessionAggrStat;
 public interface ISessionAggrStatDAO {
 	
 	void insert (SessionAggrStat sessionAggrStat);
+	
+	void insertBatch(List<SessionAggrStat> sessionAggrStats);
 
 }
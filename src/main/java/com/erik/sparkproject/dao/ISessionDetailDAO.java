@@ -1,5 +1,8 @@
 package com.erik.sparkproject.dao;
 
+import java.util.Iterator;
+import java.util.List;
+
 import com.erik.sparkproject.domain.SessionDetail;
 
 /**
@@ -14,5 +17,27 @@ public interface ISessionDetailDAO {
 	 * @param sessionDetail
 	 */
 	void insert(SessionDetail sessionDetail);
+	
+	/**
+	 * 批量插入session明细数据
+	 * @param sessionDetails
+	 */
+	void insertBatch(List<SessionDetail> sessionDetails);
+	
+	/**
+	 * 批量插入session明细数据到staging表
+	 * @param sessionDetails
+	 * @param attemptKey 写入数据的task attempt
+	 */
+	void insertStagingBatch(List<SessionDetail> sessionDetails, String attemptKey);
+	
+	/**
+	 * 把一个partition的session明细整体写入staging表
+	 * 遍历一次迭代器，一边生成明细一边写入，不需要把整个partition的明细放在内存中
+	 * @param taskid 任务id
+	 * @param sessionDetails 这个partition的session明细
+	 * @param attemptKey 写入数据的task attempt
+	 */
+	void insertStagingPartition(long taskid, Iterator<SessionDetail> sessionDetails, String attemptKey);
 
 }
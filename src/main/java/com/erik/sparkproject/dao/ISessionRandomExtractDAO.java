@@ -1,5 +1,7 @@
 package com.erik.sparkproject.dao;
 
+import java.util.List;
+
 import com.erik.sparkproject.domain.SessionRandomExtract;
 
 /**
@@ -14,4 +16,14 @@ public interface ISessionRandomExtractDAO {
 	 */
 	void insert(SessionRandomExtract sessionRandomExtract);
 	
+	/**
+	 * 批量插入session随机抽取
+	 */
+	void insertBatch(List<SessionRandomExtract> sessionRandomExtracts);
+	
+	/**
+	 * 批量插入session随机抽取到staging表
+	 */
+	void insertStagingBatch(List<SessionRandomExtract> sessionRandomExtracts, String attemptKey);
+	
 }
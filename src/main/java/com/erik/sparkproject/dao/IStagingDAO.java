@@ -0,0 +1,58 @@
+package com.erik.sparkproject.dao;
+
+import java.util.List;
+
+/**
+ * 结果数据staging表DAO接口
+ *
+ * executor上写入的结果数据先写到<表名>_staging表中，第一列是task attempt的标识，
+ * Spark的action执行成功以后，在Driver端把成功的attempt写入的数据一次性发布到正式表中
+ * 这样task重试、推测执行产生的重复数据都不会进入正式表
+ * @author Erik
+ *
+ */
+public interface IStagingDAO {
+	
+	/**
+	 * staging表不存在的时候创建，创建失败的时候抛出异常
+	 * @param table 正式表的表名
+	 */
+	void createIfNotExists(String table);
+	
+	/**
+	 * 删除staging表中一个任务的数据
+	 * 任务开始执行的时候调用，清理上一次执行这个任务时，
+	 * 在发布以后才结束的attempt（推测执行、失去联系的executor）留下的数据
+	 * @param table 正式表的表名
+	 * @param taskid 任务id
+	 */
+	void clearStaging(String table, long taskid);
+	
+	/**
+	 * 在一个事务中把成功的attempt写入的数据发布到正式表中
+	 * 先删除正式表中这个任务已有的数据，再从staging表中复制，最后清理staging表中这个任务的数据
+	 * @param table 正式表的表名
+	 * @param taskid 任务id
+	 * @param attemptKeys 执行成功的attempt
+	 */
+	void publish(String table, long taskid, List<String> attemptKeys);
+	
+	/**
+	 * 删除正式表中一个任务已有的数据
+	 * 在Driver端直接写正式表的结果（session_aggr_stat、top10_category）写入之前调用，
+	 * 同一个任务重新执行也不会重复
+	 * @param table 正式表的表名
+	 * @param taskid 任务id
+	 */
+	void clear(String table, long taskid);
+	
+	/**
+	 * 把一个任务在正式表中的结果数据复制给另一个任务
+	 * 先删除目标任务已有的数据，复制的数据中任务id替换为目标任务
+	 * @param table 正式表的表名
+	 * @param fromTaskid 原任务id
+	 * @param toTaskid 目标任务id
+	 */
+	void copy(String table, long fromTaskid, long toTaskid);
+
+}
@@ -0,0 +1,51 @@
+package com.erik.sparkproject.dao;
+
+import com.erik.sparkproject.domain.TaskResultCache;
+
+/**
+ * 任务结果缓存DAO接口
+ * @author Erik
+ *
+ */
+public interface ITaskResultCacheDAO {
+	
+	/**
+	 * 缓存表不存在的时候创建
+	 */
+	void createIfNotExists();
+	
+	/**
+	 * 根据缓存key查询
+	 * @param cacheKey 缓存key
+	 * @return 缓存，不存在时返回null
+	 */
+	TaskResultCache findByKey(String cacheKey);
+	
+	/**
+	 * 保存任务的结果缓存，同一个key已经存在的时候覆盖
+	 */
+	void insert(TaskResultCache taskResultCache);
+	
+	/**
+	 * 记录一次命中
+	 * @param cacheKey 缓存key
+	 * @param hitTime 命中时间
+	 */
+	void updateHit(String cacheKey, String hitTime);
+	
+	/**
+	 * 淘汰缓存
+	 * 先删除创建时间早于expireTime的，数量还超过maxSize的时候，删除最久没有命中的
+	 * @param expireTime 过期时间
+	 * @param maxSize 最多保留的个数
+	 * @return 删除的个数，执行失败的时候抛出异常
+	 */
+	int evict(String expireTime, int maxSize);
+	
+	/**
+	 * 缓存的统计信息：缓存个数和命中次数
+	 * @return 统计信息
+	 */
+	long[] getStats();
+
+}
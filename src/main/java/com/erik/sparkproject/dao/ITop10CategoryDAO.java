@@ -1,5 +1,7 @@
 package com.erik.sparkproject.dao;
 
+import java.util.List;
+
 import com.erik.sparkproject.domain.Top10Category;
 
 /**
@@ -9,5 +11,7 @@ import com.erik.sparkproject.domain.Top10Category;
  */
 public interface ITop10CategoryDAO {
 	void insert(Top10Category category);
+	
+	void insertBatch(List<Top10Category> categories);
 
 }
@@ -1,5 +1,7 @@
 package com.erik.sparkproject.dao;
 
+import java.util.List;
+
 import com.erik.sparkproject.domain.Top10Session;
 
 /**
@@ -10,5 +12,9 @@ import com.erik.sparkproject.domain.Top10Session;
 public interface ITop10SessionDAO {
 	
 	void insert(Top10Session top10Session);
+	
+	void insertBatch(List<Top10Session> top10Sessions);
+	
+	void insertStagingBatch(List<Top10Session> top10Sessions, String attemptKey);
 
 }
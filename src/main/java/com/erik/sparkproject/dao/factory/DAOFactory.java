@@ -1,29 +1,68 @@
 package com.erik.sparkproject.dao.factory;
 
+import com.erik.sparkproject.conf.ConfigurationManager;
+import com.erik.sparkproject.constant.Constants;
 import com.erik.sparkproject.dao.ISessionAggrStatDAO;
 import com.erik.sparkproject.dao.ISessionDetailDAO;
 import com.erik.sparkproject.dao.ISessionRandomExtractDAO;
+import com.erik.sparkproject.dao.IStagingDAO;
 import com.erik.sparkproject.dao.ITaskDAO;
+import com.erik.sparkproject.dao.ITaskResultCacheDAO;
 import com.erik.sparkproject.dao.ITop10CategoryDAO;
 import com.erik.sparkproject.dao.ITop10SessionDAO;
+import com.erik.sparkproject.impl.ParquetSessionAggrStatDAOImpl;
+import com.erik.sparkproject.impl.ParquetSessionDetailDAOImpl;
+import com.erik.sparkproject.impl.ParquetSessionRandomExtractDAOImpl;
+import com.erik.sparkproject.impl.ParquetStagingDAOImpl;
+import com.erik.sparkproject.impl.ParquetTop10CategoryDAOImpl;
+import com.erik.sparkproject.impl.ParquetTop10SessionDAOImpl;
 import com.erik.sparkproject.impl.SessinoRandomExtractDAOImpl;
 import com.erik.sparkproject.impl.SessionAggrStatDAOImpl;
+import com.erik.sparkproject.impl.SessionDetailBulkLoadDAOImpl;
 import com.erik.sparkproject.impl.SessionDetailDAOImpl;
+import com.erik.sparkproject.impl.StagingDAOImpl;
 import com.erik.sparkproject.impl.TaskDAOImpl;
+import com.erik.sparkproject.impl.TaskResultCacheDAOImpl;
 import com.erik.sparkproject.impl.Top10CategoryDAOImpl;
 import com.erik.sparkproject.impl.Top10SessionDAOImpl;
 
 /**
  * DAO工厂类
+ * 
+ * DAO的实现类都是无状态的，每个JVM中只需要一个实例，
+ * 不用每个partition、每条数据都创建一个新的DAO对象
+ * 
+ * 结果数据的DAO根据result.sink选择实现：
+ * mysql写入MySQL表，parquet写成按taskid分区的Parquet文件，任务表和结果缓存表始终在MySQL中
  * @author Erik
  *
  */
 public class DAOFactory {
+	
+	private static final boolean PARQUET_SINK = 
+			"parquet".equals(ConfigurationManager.getProperty(Constants.RESULT_SINK));
+	
+	private static final ITaskDAO taskDAO = new TaskDAOImpl();
+	private static final ITaskResultCacheDAO taskResultCacheDAO = new TaskResultCacheDAOImpl();
+	private static final ISessionAggrStatDAO sessionAggrStatDAO = PARQUET_SINK 
+			? new ParquetSessionAggrStatDAOImpl() : new SessionAggrStatDAOImpl();
+	private static final ISessionRandomExtractDAO sessionRandomExtractDAO = PARQUET_SINK 
+			? new ParquetSessionRandomExtractDAOImpl() : new SessinoRandomExtractDAOImpl();
+	private static final boolean SESSION_DETAIL_BATCH_INSERT = !PARQUET_SINK 
+			&& !"bulkload".equals(ConfigurationManager.getProperty(Constants.SESSION_DETAIL_SINK));
+	private static final ISessionDetailDAO sessionDetailDAO = createSessionDetailDAO();
+	private static final ITop10CategoryDAO top10CategoryDAO = PARQUET_SINK 
+			? new ParquetTop10CategoryDAOImpl() : new Top10CategoryDAOImpl();
+	private static final ITop10SessionDAO top10SessionDAO = PARQUET_SINK 
+			? new ParquetTop10SessionDAOImpl() : new Top10SessionDAOImpl();
+	private static final IStagingDAO stagingDAO = PARQUET_SINK 
+			? new ParquetStagingDAOImpl() : new StagingDAOImpl();
+	
 	/**
 	 * 获取任务管理DAO
 	 */
 	public static ITaskDAO getTaskDAO() {
-		return new TaskDAOImpl();
+		return taskDAO;
 		
 	}
 	
@@ -32,23 +71,55 @@ public class DAOFactory {
 	 * @return
 	 */
 	public static ISessionAggrStatDAO getSessionAggrStatDAO() {
-		return new SessionAggrStatDAOImpl();
+		return sessionAggrStatDAO;
 	}
 	
 	public static ISessionRandomExtractDAO getSessionRandomExtractDAO() {
-		return new SessinoRandomExtractDAOImpl();
+		return sessionRandomExtractDAO;
 	}
 	
 	public static ISessionDetailDAO getSessionDetailDAO() {
-		return new SessionDetailDAOImpl();
+		return sessionDetailDAO;
+	}
+	
+	/**
+	 * session明细是否通过批量insert写入
+	 * 批量insert的时候每攒够jdbc.batch.size条写入一次，
+	 * LOAD DATA和Parquet每个partition整体写入一次
+	 */
+	public static boolean isSessionDetailBatchInsert() {
+		return SESSION_DETAIL_BATCH_INSERT;
 	}
 	
 	public static ITop10CategoryDAO getTop10CategoryDAO() {
-		return new Top10CategoryDAOImpl();
+		return top10CategoryDAO;
 	}
 	
 	public static ITop10SessionDAO getTop10SessionDAO() {
-		return new Top10SessionDAOImpl();
+		return top10SessionDAO;
+	}
+	
+	public static IStagingDAO getStagingDAO() {
+		return stagingDAO;
+	}
+	
+	public static ITaskResultCacheDAO getTaskResultCacheDAO() {
+		return taskResultCacheDAO;
+	}
+	
+	/**
+	 * 创建session明细DAO
+	 * 写入MySQL的时候，session.detail.sink配置为bulkload时，使用LOAD DATA批量导入，否则使用批量insert
+	 * @return
+	 */
+	private static ISessionDetailDAO createSessionDetailDAO() {
+		if(PARQUET_SINK) {
+			return new ParquetSessionDetailDAOImpl();
+		}
+		if(!SESSION_DETAIL_BATCH_INSERT) {
+			return new SessionDetailBulkLoadDAOImpl();
+		}
+		return new SessionDetailDAOImpl();
 	}
 	
 
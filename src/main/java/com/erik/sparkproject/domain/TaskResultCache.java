@@ -0,0 +1,50 @@
+package com.erik.sparkproject.domain;
+
+/**
+ * 任务结果缓存
+ * @author Erik
+ *
+ */
+public class TaskResultCache {
+	
+	//任务参数和数据版本的SHA-256
+	private String cacheKey;
+	//结果数据所属的任务
+	private long taskid;
+	private String createTime;
+	private String lastHitTime;
+	private long hitCount;
+	
+	public String getCacheKey() {
+		return cacheKey;
+	}
+	public void setCacheKey(String cacheKey) {
+		this.cacheKey = cacheKey;
+	}
+	public long getTaskid() {
+		return taskid;
+	}
+	public void setTaskid(long taskid) {
+		this.taskid = taskid;
+	}
+	public String getCreateTime() {
+		return createTime;
+	}
+	public void setCreateTime(String createTime) {
+		this.createTime = createTime;
+	}
+	public String getLastHitTime() {
+		return lastHitTime;
+	}
+	public void setLastHitTime(String lastHitTime) {
+		this.lastHitTime = lastHitTime;
+	}
+	public long getHitCount() {
+		return hitCount;
+	}
+	public void setHitCount(long hitCount) {
+		this.hitCount = hitCount;
+	}
+	
+
+}
@@ -0,0 +1,76 @@
+package com.erik.sparkproject.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+
+import com.erik.sparkproject.dao.ISessionAggrStatDAO;
+import com.erik.sparkproject.domain.SessionAggrStat;
+import com.erik.sparkproject.parquet.ParquetHelper;
+
+/**
+ * session聚合统计DAO实现类，写成Parquet文件
+ * @author Erik
+ *
+ */
+public class ParquetSessionAggrStatDAOImpl implements ISessionAggrStatDAO {
+
+	private static final MessageType SCHEMA = MessageTypeParser.parseMessageType(
+			"message session_aggr_stat {"
+			+ " required int64 task_id;"
+			+ " required int64 session_count;"
+			+ " required double visit_length_1s_3s_ratio;"
+			+ " required double visit_length_4s_6s_ratio;"
+			+ " required double visit_length_7s_9s_ratio;"
+			+ " required double visit_length_10s_30s_ratio;"
+			+ " required double visit_length_30s_60s_ratio;"
+			+ " required double visit_length_1m_3m_ratio;"
+			+ " required double visit_length_3m_10m_ratio;"
+			+ " required double visit_length_10m_30m_ratio;"
+			+ " required double visit_length_30m_ratio;"
+			+ " required double step_length_1_3_ratio;"
+			+ " required double step_length_4_6_ratio;"
+			+ " required double step_length_7_9_ratio;"
+			+ " required double step_length_10_30_ratio;"
+			+ " required double step_length_30_60_ratio;"
+			+ " required double step_length_60_ratio;"
+			+ " }");
+	
+	public void insert(SessionAggrStat sessionAggrStat) {
+		insertBatch(Collections.singletonList(sessionAggrStat));
+	}
+	
+	public void insertBatch(List<SessionAggrStat> sessionAggrStats) {
+		if(sessionAggrStats.isEmpty()) {
+			return;
+		}
+		
+		List<Object[]> rows = new ArrayList<Object[]>();
+		for(SessionAggrStat sessionAggrStat : sessionAggrStats) {
+			rows.add(new Object[] {sessionAggrStat.getTaskid(),
+					sessionAggrStat.getSession_count(),
+					sessionAggrStat.getVisit_length_1s_3s_ratio(),
+					sessionAggrStat.getVisit_length_4s_6s_ratio(),
+					sessionAggrStat.getVisit_length_7s_9s_ratio(),
+					sessionAggrStat.getVisit_length_10s_30s_ratio(),
+					sessionAggrStat.getVisit_length_30s_60s_ratio(),
+					sessionAggrStat.getVisit_length_1m_3m_ratio(),
+					sessionAggrStat.getVisit_length_3m_10m_ratio(),
+					sessionAggrStat.getVisit_length_10m_30m_ratio(),
+					sessionAggrStat.getVisit_length_30m_ratio(),
+					sessionAggrStat.getStep_length_1_3_ratio(),
+					sessionAggrStat.getStep_length_4_6_ratio(),
+					sessionAggrStat.getStep_length_7_9_ratio(),
+					sessionAggrStat.getStep_length_10_30_ratio(),
+					sessionAggrStat.getStep_length_30_60_ratio(),
+					sessionAggrStat.getStep_length_60_ratio()});
+		}
+		
+		long taskid = sessionAggrStats.get(0).getTaskid();
+		ParquetHelper.write(ParquetHelper.getTaskPath("session_aggr_stat", taskid), SCHEMA, rows);
+	}
+
+}
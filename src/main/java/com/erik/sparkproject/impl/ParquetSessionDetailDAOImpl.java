@@ -0,0 +1,107 @@
+package com.erik.sparkproject.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+
+import com.erik.sparkproject.dao.ISessionDetailDAO;
+import com.erik.sparkproject.domain.SessionDetail;
+import com.erik.sparkproject.parquet.ParquetHelper;
+
+/**
+ * session明细DAO实现类，写成Parquet文件
+ * @author Erik
+ *
+ */
+public class ParquetSessionDetailDAOImpl implements ISessionDetailDAO {
+
+	private static final MessageType SCHEMA = MessageTypeParser.parseMessageType(
+			"message session_detail {"
+			+ " required int64 task_id;"
+			+ " required int64 user_id;"
+			+ " optional binary session_id (UTF8);"
+			+ " required int64 page_id;"
+			+ " optional binary action_time (UTF8);"
+			+ " optional binary search_keyword (UTF8);"
+			+ " required int64 click_category_id;"
+			+ " required int64 click_product_id;"
+			+ " optional binary order_category_ids (UTF8);"
+			+ " optional binary order_product_ids (UTF8);"
+			+ " optional binary pay_category_ids (UTF8);"
+			+ " optional binary pay_product_ids (UTF8);"
+			+ " }");
+	
+	public void insert(SessionDetail sessionDetail) {
+		insertBatch(Collections.singletonList(sessionDetail));
+	}
+	
+	public void insertBatch(List<SessionDetail> sessionDetails) {
+		if(sessionDetails.isEmpty()) {
+			return;
+		}
+		long taskid = sessionDetails.get(0).getTaskid();
+		ParquetHelper.write(ParquetHelper.getTaskPath("session_detail", taskid), 
+				SCHEMA, getRows(sessionDetails));
+	}
+	
+	public void insertStagingBatch(List<SessionDetail> sessionDetails, String attemptKey) {
+		if(sessionDetails.isEmpty()) {
+			return;
+		}
+		long taskid = sessionDetails.get(0).getTaskid();
+		ParquetHelper.write(ParquetHelper.getStagingPath("session_detail", taskid, attemptKey), 
+				SCHEMA, getRows(sessionDetails));
+	}
+	
+	/**
+	 * 整个partition一边遍历一边写入一个Parquet文件
+	 */
+	public void insertStagingPartition(long taskid, final Iterator<SessionDetail> sessionDetails, 
+			String attemptKey) {
+		ParquetHelper.write(ParquetHelper.getStagingPath("session_detail", taskid, attemptKey), 
+				SCHEMA, new Iterator<Object[]>() {
+
+					public boolean hasNext() {
+						return sessionDetails.hasNext();
+					}
+
+					public Object[] next() {
+						return getRow(sessionDetails.next());
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+					
+				});
+	}
+	
+	private List<Object[]> getRows(List<SessionDetail> sessionDetails) {
+		List<Object[]> rows = new ArrayList<Object[]>();
+		for(SessionDetail sessionDetail : sessionDetails) {
+			rows.add(getRow(sessionDetail));
+		}
+		return rows;
+	}
+	
+	private Object[] getRow(SessionDetail sessionDetail) {
+		return new Object[] {
+				sessionDetail.getTaskid(),
+				sessionDetail.getUserid(),
+				sessionDetail.getSessionid(),
+				sessionDetail.getPageid(),
+				sessionDetail.getActionTime(),
+				sessionDetail.getSearchKeyword(),
+				sessionDetail.getClickCategoryId(),
+				sessionDetail.getClickProductId(),
+				sessionDetail.getOrderCategoryIds(),
+				sessionDetail.getOrderProductIds(),
+				sessionDetail.getPayCategoryIds(),
+				sessionDetail.getPayProductIds()};
+	}
+
+}
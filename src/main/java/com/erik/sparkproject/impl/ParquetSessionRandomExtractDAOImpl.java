@@ -0,0 +1,65 @@
+package com.erik.sparkproject.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+
+import com.erik.sparkproject.dao.ISessionRandomExtractDAO;
+import com.erik.sparkproject.domain.SessionRandomExtract;
+import com.erik.sparkproject.parquet.ParquetHelper;
+
+/**
+ * 随机抽取session DAO实现类，写成Parquet文件
+ * @author Erik
+ *
+ */
+public class ParquetSessionRandomExtractDAOImpl implements ISessionRandomExtractDAO {
+
+	private static final MessageType SCHEMA = MessageTypeParser.parseMessageType(
+			"message session_random_extract {"
+			+ " required int64 task_id;"
+			+ " optional binary session_id (UTF8);"
+			+ " optional binary start_time (UTF8);"
+			+ " optional binary search_keywords (UTF8);"
+			+ " optional binary click_category_ids (UTF8);"
+			+ " }");
+	
+	public void insert(SessionRandomExtract sessionRandomExtract) {
+		insertBatch(Collections.singletonList(sessionRandomExtract));
+	}
+	
+	public void insertBatch(List<SessionRandomExtract> sessionRandomExtracts) {
+		if(sessionRandomExtracts.isEmpty()) {
+			return;
+		}
+		long taskid = sessionRandomExtracts.get(0).getTaskid();
+		ParquetHelper.write(ParquetHelper.getTaskPath("session_random_extract", taskid), 
+				SCHEMA, getRows(sessionRandomExtracts));
+	}
+	
+	public void insertStagingBatch(List<SessionRandomExtract> sessionRandomExtracts, 
+			String attemptKey) {
+		if(sessionRandomExtracts.isEmpty()) {
+			return;
+		}
+		long taskid = sessionRandomExtracts.get(0).getTaskid();
+		ParquetHelper.write(ParquetHelper.getStagingPath("session_random_extract", taskid, attemptKey), 
+				SCHEMA, getRows(sessionRandomExtracts));
+	}
+	
+	private List<Object[]> getRows(List<SessionRandomExtract> sessionRandomExtracts) {
+		List<Object[]> rows = new ArrayList<Object[]>();
+		for(SessionRandomExtract sessionRandomExtract : sessionRandomExtracts) {
+			rows.add(new Object[]{sessionRandomExtract.getTaskid(),
+					sessionRandomExtract.getSessionid(),
+					sessionRandomExtract.getStartTime(),
+					sessionRandomExtract.getSearchKeywords(),
+					sessionRandomExtract.getClickCategoryIds()});
+		}
+		return rows;
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.erik.sparkproject.impl;
+
+import java.util.List;
+
+import com.erik.sparkproject.dao.IStagingDAO;
+import com.erik.sparkproject.parquet.ParquetHelper;
+
+/**
+ * 结果数据staging DAO实现，结果写成Parquet文件的时候使用
+ * staging目录在写入的时候自动创建，发布的时候把成功的attempt写的文件移动到正式目录
+ * @author Erik
+ *
+ */
+public class ParquetStagingDAOImpl implements IStagingDAO {
+
+	public void createIfNotExists(String table) {
+		//staging目录在第一次写入的时候自动创建
+	}
+	
+	public void clearStaging(String table, long taskid) {
+		ParquetHelper.clearStaging(table, taskid);
+	}
+	
+	public void publish(String table, long taskid, List<String> attemptKeys) {
+		ParquetHelper.publish(table, taskid, attemptKeys);
+	}
+	
+	public void clear(String table, long taskid) {
+		ParquetHelper.clear(table, taskid);
+	}
+	
+	public void copy(String table, long fromTaskid, long toTaskid) {
+		ParquetHelper.copy(table, fromTaskid, toTaskid);
+	}
+
+}
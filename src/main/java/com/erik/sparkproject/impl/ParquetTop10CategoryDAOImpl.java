@@ -0,0 +1,53 @@
+package com.erik.sparkproject.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+
+import com.erik.sparkproject.dao.ITop10CategoryDAO;
+import com.erik.sparkproject.domain.Top10Category;
+import com.erik.sparkproject.parquet.ParquetHelper;
+
+/**
+ * top10品类DAO实现类，写成Parquet文件
+ * @author Erik
+ *
+ */
+public class ParquetTop10CategoryDAOImpl implements ITop10CategoryDAO {
+
+	private static final MessageType SCHEMA = MessageTypeParser.parseMessageType(
+			"message top10_category {"
+			+ " required int64 task_id;"
+			+ " required int64 category_id;"
+			+ " required int64 click_count;"
+			+ " required int64 order_count;"
+			+ " required int64 pay_count;"
+			+ " }");
+	
+	public void insert(Top10Category category) {
+		insertBatch(Collections.singletonList(category));
+	}
+	
+	public void insertBatch(List<Top10Category> categories) {
+		if(categories.isEmpty()) {
+			return;
+		}
+		
+		List<Object[]> rows = new ArrayList<Object[]>();
+		for(Top10Category category : categories) {
+			rows.add(new Object[]{
+					category.getTaskid(),
+					category.getCategoryid(),
+					category.getClickCount(),
+					category.getOrderCount(),
+					category.getPayCount()});
+		}
+		
+		long taskid = categories.get(0).getTaskid();
+		ParquetHelper.write(ParquetHelper.getTaskPath("top10_category", taskid), SCHEMA, rows);
+	}
+
+}
@@ -0,0 +1,63 @@
+package com.erik.sparkproject.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+
+import com.erik.sparkproject.dao.ITop10SessionDAO;
+import com.erik.sparkproject.domain.Top10Session;
+import com.erik.sparkproject.parquet.ParquetHelper;
+
+/**
+ * top10活跃session DAO实现类，写成Parquet文件
+ * @author Erik
+ *
+ */
+public class ParquetTop10SessionDAOImpl implements ITop10SessionDAO {
+
+	private static final MessageType SCHEMA = MessageTypeParser.parseMessageType(
+			"message top10_session {"
+			+ " required int64 task_id;"
+			+ " required int64 category_id;"
+			+ " optional binary session_id (UTF8);"
+			+ " required int64 click_count;"
+			+ " }");
+	
+	public void insert(Top10Session top10Session) {
+		insertBatch(Collections.singletonList(top10Session));
+	}
+	
+	public void insertBatch(List<Top10Session> top10Sessions) {
+		if(top10Sessions.isEmpty()) {
+			return;
+		}
+		long taskid = top10Sessions.get(0).getTaskid();
+		ParquetHelper.write(ParquetHelper.getTaskPath("top10_session", taskid), 
+				SCHEMA, getRows(top10Sessions));
+	}
+	
+	public void insertStagingBatch(List<Top10Session> top10Sessions, String attemptKey) {
+		if(top10Sessions.isEmpty()) {
+			return;
+		}
+		long taskid = top10Sessions.get(0).getTaskid();
+		ParquetHelper.write(ParquetHelper.getStagingPath("top10_session", taskid, attemptKey), 
+				SCHEMA, getRows(top10Sessions));
+	}
+	
+	private List<Object[]> getRows(List<Top10Session> top10Sessions) {
+		List<Object[]> rows = new ArrayList<Object[]>();
+		for(Top10Session top10Session : top10Sessions) {
+			rows.add(new Object[]{
+					top10Session.getTaskid(),
+					top10Session.getCategoryid(),
+					top10Session.getSessionid(),
+					top10Session.getClickCount()});
+		}
+		return rows;
+	}
+
+}
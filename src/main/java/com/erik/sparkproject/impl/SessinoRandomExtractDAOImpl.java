@@ -1,5 +1,8 @@
 package com.erik.sparkproject.impl;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.erik.sparkproject.dao.ISessionRandomExtractDAO;
 import com.erik.sparkproject.domain.SessionRandomExtract;
 import com.erik.sparkproject.jdbc.JDBCHelper;
@@ -14,15 +17,43 @@ public class SessinoRandomExtractDAOImpl implements ISessionRandomExtractDAO {
 	//插入session随机抽取
 	public void insert(SessionRandomExtract sessionRandomExtract) {
 		String sql = "insert into session_random_extract values(?,?,?,?,?)";
+		Object[] params = getParams(sessionRandomExtract);
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeUpdate(sql, params);
+	}
+	
+	public void insertBatch(List<SessionRandomExtract> sessionRandomExtracts) {
+		String sql = "insert into session_random_extract values(?,?,?,?,?)";
+		
+		List<Object[]> paramsList = new ArrayList<Object[]>();
+		for(SessionRandomExtract sessionRandomExtract : sessionRandomExtracts) {
+			paramsList.add(getParams(sessionRandomExtract));
+		}
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeBatch(sql, paramsList);
+	}
+	
+	public void insertStagingBatch(List<SessionRandomExtract> sessionRandomExtracts, String attemptKey) {
+		String sql = "insert into session_random_extract_staging values(?,?,?,?,?,?)";
 		
-		Object[] params = new Object[]{sessionRandomExtract.getTaskid(),
+		//staging表的第一列是attempt_key，后面的列和正式表相同
+		List<Object[]> paramsList = new ArrayList<Object[]>();
+		for(SessionRandomExtract sessionRandomExtract : sessionRandomExtracts) {
+			paramsList.add(StagingDAOImpl.toStagingParams(getParams(sessionRandomExtract), attemptKey));
+		}
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeBatch(sql, paramsList);
+	}
+	
+	private Object[] getParams(SessionRandomExtract sessionRandomExtract) {
+		return new Object[]{sessionRandomExtract.getTaskid(),
 				sessionRandomExtract.getSessionid(),
 				sessionRandomExtract.getStartTime(),
 				sessionRandomExtract.getSearchKeywords(),
 				sessionRandomExtract.getClickCategoryIds()};
-		
-		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
-		jdbcHelper.executeUpdate(sql, params);
 	}
 
 }
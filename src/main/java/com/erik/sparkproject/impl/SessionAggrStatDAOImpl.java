@@ -1,5 +1,8 @@
 package com.erik.sparkproject.impl;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.erik.sparkproject.dao.ISessionAggrStatDAO;
 import com.erik.sparkproject.domain.SessionAggrStat;
 import com.erik.sparkproject.jdbc.JDBCHelper;
@@ -17,7 +20,26 @@ public class SessionAggrStatDAOImpl implements ISessionAggrStatDAO {
 		//	return new SessionAggrStatDAOImpl();
 		//}
 		String sql = "insert into session_aggr_stat values(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
-		Object[] params = new Object[] {sessionAggrStat.getTaskid(),
+		Object[] params = getParams(sessionAggrStat);
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeUpdate(sql, params);
+	}
+	
+	public void insertBatch(List<SessionAggrStat> sessionAggrStats) {
+		String sql = "insert into session_aggr_stat values(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+		
+		List<Object[]> paramsList = new ArrayList<Object[]>();
+		for(SessionAggrStat sessionAggrStat : sessionAggrStats) {
+			paramsList.add(getParams(sessionAggrStat));
+		}
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeBatch(sql, paramsList);
+	}
+	
+	private Object[] getParams(SessionAggrStat sessionAggrStat) {
+		return new Object[] {sessionAggrStat.getTaskid(),
 				sessionAggrStat.getSession_count(),
 				sessionAggrStat.getVisit_length_1s_3s_ratio(),
 				sessionAggrStat.getVisit_length_4s_6s_ratio(),
@@ -34,9 +56,6 @@ public class SessionAggrStatDAOImpl implements ISessionAggrStatDAO {
 				sessionAggrStat.getStep_length_10_30_ratio(),
 				sessionAggrStat.getStep_length_30_60_ratio(),
 				sessionAggrStat.getStep_length_60_ratio(),};
-		
-		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
-		jdbcHelper.executeUpdate(sql, params);
 	}
 
 }
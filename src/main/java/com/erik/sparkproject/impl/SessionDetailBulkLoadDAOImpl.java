@@ -0,0 +1,71 @@
+package com.erik.sparkproject.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.erik.sparkproject.domain.SessionDetail;
+import com.erik.sparkproject.jdbc.JDBCHelper;
+
+/**
+ * session明细DAO实现类，使用LOAD DATA批量导入
+ *
+ * session明细的数据量很大，每个partition的数据先写到本地文件中，
+ * 再通过LOAD DATA LOCAL INFILE导入，比批量insert快很多
+ * 写staging表的时候整个partition只写一个文件、执行一条LOAD DATA，不再按jdbc.batch.size分批
+ * 通过配置session.detail.sink=bulkload开启
+ * @author Erik
+ *
+ */
+public class SessionDetailBulkLoadDAOImpl extends SessionDetailDAOImpl {
+
+	@Override
+	public void insert(SessionDetail sessionDetail) {
+		insertBatch(Collections.singletonList(sessionDetail));
+	}
+	
+	@Override
+	public void insertBatch(List<SessionDetail> sessionDetails) {
+		List<Object[]> paramsList = new ArrayList<Object[]>();
+		for(SessionDetail sessionDetail : sessionDetails) {
+			paramsList.add(getParams(sessionDetail));
+		}
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeLoadData("session_detail", paramsList);
+	}
+	
+	@Override
+	public void insertStagingBatch(List<SessionDetail> sessionDetails, String attemptKey) {
+		List<Object[]> paramsList = new ArrayList<Object[]>();
+		for(SessionDetail sessionDetail : sessionDetails) {
+			paramsList.add(getStagingParams(sessionDetail, attemptKey));
+		}
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeLoadData("session_detail_staging", paramsList);
+	}
+	
+	@Override
+	public void insertStagingPartition(long taskid, final Iterator<SessionDetail> sessionDetails, 
+			final String attemptKey) {
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeLoadData("session_detail_staging", new Iterator<Object[]>() {
+
+			public boolean hasNext() {
+				return sessionDetails.hasNext();
+			}
+
+			public Object[] next() {
+				return getStagingParams(sessionDetails.next(), attemptKey);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+			
+		});
+	}
+
+}
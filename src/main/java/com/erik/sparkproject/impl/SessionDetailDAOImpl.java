@@ -1,5 +1,11 @@
 package com.erik.sparkproject.impl;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.erik.sparkproject.conf.ConfigurationManager;
+import com.erik.sparkproject.constant.Constants;
 import com.erik.sparkproject.dao.ISessionDetailDAO;
 import com.erik.sparkproject.domain.SessionDetail;
 import com.erik.sparkproject.jdbc.JDBCHelper;
@@ -13,7 +19,64 @@ public class SessionDetailDAOImpl implements ISessionDetailDAO{
 
 	public void insert(SessionDetail sessionDetail) {
 		String sql = "insert into session_detail value(?,?,?,?,?,?,?,?,?,?,?,?)";
-		Object[] params = new Object[] {
+		Object[] params = getParams(sessionDetail);
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeUpdate(sql, params);
+	}
+	
+	public void insertBatch(List<SessionDetail> sessionDetails) {
+		String sql = "insert into session_detail value(?,?,?,?,?,?,?,?,?,?,?,?)";
+		
+		List<Object[]> paramsList = new ArrayList<Object[]>();
+		for(SessionDetail sessionDetail : sessionDetails) {
+			paramsList.add(getParams(sessionDetail));
+		}
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeBatch(sql, paramsList);
+	}
+	
+	public void insertStagingBatch(List<SessionDetail> sessionDetails, String attemptKey) {
+		String sql = "insert into session_detail_staging values(?,?,?,?,?,?,?,?,?,?,?,?,?)";
+		
+		List<Object[]> paramsList = new ArrayList<Object[]>();
+		for(SessionDetail sessionDetail : sessionDetails) {
+			paramsList.add(getStagingParams(sessionDetail, attemptKey));
+		}
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeBatch(sql, paramsList);
+	}
+	
+	/**
+	 * 批量insert一条SQL带的数据不能太多，每攒够jdbc.batch.size条写入一次
+	 */
+	public void insertStagingPartition(long taskid, Iterator<SessionDetail> sessionDetails, 
+			String attemptKey) {
+		int batchSize = ConfigurationManager.getInteger(Constants.JDBC_BATCH_SIZE);
+		List<SessionDetail> batch = new ArrayList<SessionDetail>(batchSize);
+		while(sessionDetails.hasNext()) {
+			batch.add(sessionDetails.next());
+			if(batch.size() >= batchSize) {
+				insertStagingBatch(batch, attemptKey);
+				batch.clear();
+			}
+		}
+		if(!batch.isEmpty()) {
+			insertStagingBatch(batch, attemptKey);
+		}
+	}
+	
+	/**
+	 * staging表的第一列是attempt_key，后面的列和正式表相同
+	 */
+	protected Object[] getStagingParams(SessionDetail sessionDetail, String attemptKey) {
+		return StagingDAOImpl.toStagingParams(getParams(sessionDetail), attemptKey);
+	}
+	
+	protected Object[] getParams(SessionDetail sessionDetail) {
+		return new Object[] {
 				sessionDetail.getTaskid(),
 				sessionDetail.getUserid(),
 				sessionDetail.getSessionid(),
@@ -26,10 +89,6 @@ public class SessionDetailDAOImpl implements ISessionDetailDAO{
 				sessionDetail.getOrderProductIds(),
 				sessionDetail.getPayCategoryIds(),
 				sessionDetail.getPayProductIds()};
-		
-		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
-		jdbcHelper.executeUpdate(sql, params);
-		
 	}
 
 }
@@ -0,0 +1,161 @@
+package com.erik.sparkproject.impl;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.erik.sparkproject.dao.IStagingDAO;
+import com.erik.sparkproject.jdbc.JDBCHelper;
+
+/**
+ * 结果数据staging表DAO实现
+ *
+ * staging表的结构是attempt_key加上正式表的所有列，例如session_detail_staging：
+ * create table session_detail_staging (index(task_id, attempt_key)) 
+ * select cast(null as char(100)) attempt_key, t.* from session_detail t where 1 = 0
+ * 正式表的第一列都是任务id，发布和清理的时候都按照任务id和attempt_key过滤，所以在这两列上建索引
+ * @author Erik
+ *
+ */
+public class StagingDAOImpl implements IStagingDAO {
+
+	public void createIfNotExists(String table) {
+		String taskidColumn = getColumns(table).get(0);
+		String sql = "create table if not exists " + table + "_staging "
+				+ "(index(" + taskidColumn + ", attempt_key)) "
+				+ "select cast(null as char(100)) attempt_key, t.* from " + table + " t where 1 = 0";
+		
+		//建表失败的话，后面executor写staging表都会失败，这里直接抛出异常
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeUpdateOrThrow(sql, new Object[]{});
+	}
+	
+	public void clearStaging(String table, long taskid) {
+		String taskidColumn = getColumns(table).get(0);
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeUpdateOrThrow("delete from " + table + "_staging where " + taskidColumn + " = ?", 
+				new Object[]{taskid});
+	}
+	
+	public void publish(String table, long taskid, List<String> attemptKeys) {
+		//查询出正式表的所有列名，复制数据的时候不需要staging表的attempt_key
+		List<String> columns = getColumns(table);
+		String columnList = join(columns, 0);
+		String taskidColumn = columns.get(0);
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		
+		List<String> sqls = new ArrayList<String>();
+		List<Object[]> paramsList = new ArrayList<Object[]>();
+		
+		//删除正式表中这个任务已有的数据，同一个任务重新执行也不会重复
+		sqls.add("delete from " + table + " where " + taskidColumn + " = ?");
+		paramsList.add(new Object[]{taskid});
+		
+		//只复制执行成功的attempt写入的数据
+		if(!attemptKeys.isEmpty()) {
+			StringBuilder sql = new StringBuilder("insert into " + table + "(" + columnList + ") "
+					+ "select " + columnList + " from " + table + "_staging "
+					+ "where " + taskidColumn + " = ? and attempt_key in (");
+			Object[] params = new Object[attemptKeys.size() + 1];
+			params[0] = taskid;
+			for(int i = 0; i < attemptKeys.size(); i++) {
+				sql.append(i == 0 ? "?" : ",?");
+				params[i + 1] = attemptKeys.get(i);
+			}
+			sql.append(")");
+			sqls.add(sql.toString());
+			paramsList.add(params);
+		}
+		
+		//清理staging表中这个任务所有attempt的数据，包括失败的和推测执行的
+		sqls.add("delete from " + table + "_staging where " + taskidColumn + " = ?");
+		paramsList.add(new Object[]{taskid});
+		
+		jdbcHelper.executeTransaction(sqls, paramsList);
+	}
+	
+	public void clear(String table, long taskid) {
+		String taskidColumn = getColumns(table).get(0);
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeUpdate("delete from " + table + " where " + taskidColumn + " = ?", 
+				new Object[]{taskid});
+	}
+	
+	/**
+	 * 生成staging表一行数据的参数
+	 * staging表的第一列是attempt_key，后面的列和正式表相同
+	 * @param params 正式表一行数据的参数
+	 * @param attemptKey task attempt
+	 * @return staging表一行数据的参数
+	 */
+	public static Object[] toStagingParams(Object[] params, String attemptKey) {
+		Object[] stagingParams = new Object[params.length + 1];
+		stagingParams[0] = attemptKey;
+		System.arraycopy(params, 0, stagingParams, 1, params.length);
+		return stagingParams;
+	}
+	
+	public void copy(String table, long fromTaskid, long toTaskid) {
+		List<String> columns = getColumns(table);
+		String taskidColumn = columns.get(0);
+		
+		List<String> sqls = new ArrayList<String>();
+		List<Object[]> paramsList = new ArrayList<Object[]>();
+		
+		sqls.add("delete from " + table + " where " + taskidColumn + " = ?");
+		paramsList.add(new Object[]{toTaskid});
+		
+		//第一列任务id替换为目标任务，其他列原样复制
+		sqls.add("insert into " + table + "(" + join(columns, 0) + ") "
+				+ "select ?," + join(columns, 1) + " from " + table 
+				+ " where " + taskidColumn + " = ?");
+		paramsList.add(new Object[]{toTaskid, fromTaskid});
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeTransaction(sqls, paramsList);
+	}
+	
+	/**
+	 * 查询出正式表的所有列名
+	 */
+	private List<String> getColumns(String table) {
+		final List<String> columns = new ArrayList<String>();
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeQuery("select * from " + table + " limit 0", new Object[]{}, 
+				new JDBCHelper.QueryCallback() {
+			
+			public void process(ResultSet rs) throws Exception {
+				ResultSetMetaData metaData = rs.getMetaData();
+				for(int i = 1; i <= metaData.getColumnCount(); i++) {
+					columns.add(metaData.getColumnName(i));
+				}
+			}
+			
+		});
+		
+		if(columns.isEmpty()) {
+			throw new RuntimeException("查询不到表" + table + "的列");
+		}
+		return columns;
+	}
+	
+	/**
+	 * 从第from个列开始，拼接成逗号分隔的列名
+	 */
+	private String join(List<String> columns, int from) {
+		StringBuilder columnList = new StringBuilder();
+		for(int i = from; i < columns.size(); i++) {
+			if(columnList.length() > 0) {
+				columnList.append(",");
+			}
+			columnList.append(columns.get(i));
+		}
+		return columnList.toString();
+	}
+
+}
@@ -1,10 +1,13 @@
 package com.erik.sparkproject.impl;
 
 import java.sql.ResultSet;
+import java.sql.SQLException;
 
 import com.erik.sparkproject.dao.ITaskDAO;
 import com.erik.sparkproject.domain.Task;
 import com.erik.sparkproject.jdbc.JDBCHelper;
+import com.erik.sparkproject.jdbc.QueryIterator;
+import com.erik.sparkproject.jdbc.RowMapper;
 
 /**
  * 任务管理DAO实现类
@@ -13,43 +16,56 @@ import com.erik.sparkproject.jdbc.JDBCHelper;
  */
 public class TaskDAOImpl implements ITaskDAO {
 	
+	//把task表的一行映射成Task
+	private static final RowMapper<Task> TASK_ROW_MAPPER = new RowMapper<Task>() {
+		
+		public Task mapRow(ResultSet rs) throws SQLException {
+			long taskid = rs.getLong(1);
+			String taskName = rs.getString(2);
+			String createTime = rs.getString(3);
+			String startTime = rs.getString(4);
+			String finishTime = rs.getString(5);
+			String taskType = rs.getString(6);
+			String taskStatus = rs.getString(7);
+			String taskParam = rs.getString(8);
+			
+			Task task = new Task();
+			task.setTaskid(taskid);
+			task.setTaskName(taskName);
+			task.setCreateTime(createTime);
+			task.setStartTime(startTime);
+			task.setFinishTime(finishTime);
+			task.setTaskType(taskType);
+			task.setTaskStatus(taskStatus);
+			task.setTaskParam(taskParam);
+			return task;
+		}
+		
+	};
+	
 	/**
 	 * 根据主键查询任务
+	 * 和原来一样，查询失败的时候只打印异常，返回一个空的Task
 	 */
 	public Task findById(long taskid) {
-		final Task task = new Task();
-		
 		String sql = "select * from task where task_id=?";
 		Object[] params = new Object[]{taskid};
 		
 		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
-		jdbcHelper.executeQuery(sql, params, new JDBCHelper.QueryCallback() {
-			
-			public void process(ResultSet rs) throws Exception {
-				if(rs.next()) {
-					long taskid = rs.getLong(1);
-					String taskName = rs.getString(2);
-					String createTime = rs.getString(3);
-					String startTime = rs.getString(4);
-					String finishTime = rs.getString(5);
-					String taskType = rs.getString(6);
-					String taskStatus = rs.getString(7);
-					String taskParam = rs.getString(8);
-					
-					task.setTaskid(taskid);
-					task.setTaskName(taskName);
-					task.setCreateTime(createTime);
-					task.setStartTime(startTime);
-					task.setFinishTime(finishTime);
-					task.setTaskType(taskType);
-					task.setTaskStatus(taskStatus);
-					task.setTaskParam(taskParam);
+		try {
+			QueryIterator<Task> iterator = jdbcHelper.executeStreamingQuery(
+					sql, params, TASK_ROW_MAPPER);
+			try {
+				if(iterator.hasNext()) {
+					return iterator.next();
 				}
-				
+			} finally {
+				iterator.close();
 			}
-		});
-		
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
 		
-		return task;
+		return new Task();
 	}
 }
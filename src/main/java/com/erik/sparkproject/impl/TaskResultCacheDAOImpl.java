@@ -0,0 +1,112 @@
+package com.erik.sparkproject.impl;
+
+import java.sql.ResultSet;
+
+import com.erik.sparkproject.dao.ITaskResultCacheDAO;
+import com.erik.sparkproject.domain.TaskResultCache;
+import com.erik.sparkproject.jdbc.JDBCHelper;
+
+/**
+ * 任务结果缓存DAO实现
+ *
+ * 缓存表task_result_cache和task表一样始终在MySQL中：
+ * cache_key是任务参数和数据版本的SHA-256，task_id是结果数据所属的任务
+ * @author Erik
+ *
+ */
+public class TaskResultCacheDAOImpl implements ITaskResultCacheDAO {
+
+	public void createIfNotExists() {
+		String sql = "create table if not exists task_result_cache("
+				+ "cache_key char(64) primary key, "
+				+ "task_id int not null, "
+				+ "create_time datetime not null, "
+				+ "last_hit_time datetime not null, "
+				+ "hit_count int not null default 0)";
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeUpdate(sql, new Object[]{});
+	}
+	
+	public TaskResultCache findByKey(String cacheKey) {
+		String sql = "select cache_key,task_id,create_time,last_hit_time,hit_count "
+				+ "from task_result_cache where cache_key=?";
+		final TaskResultCache[] result = new TaskResultCache[1];
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeQuery(sql, new Object[]{cacheKey}, new JDBCHelper.QueryCallback() {
+			
+			public void process(ResultSet rs) throws Exception {
+				if(rs.next()) {
+					TaskResultCache taskResultCache = new TaskResultCache();
+					taskResultCache.setCacheKey(rs.getString(1));
+					taskResultCache.setTaskid(rs.getLong(2));
+					taskResultCache.setCreateTime(rs.getString(3));
+					taskResultCache.setLastHitTime(rs.getString(4));
+					taskResultCache.setHitCount(rs.getLong(5));
+					result[0] = taskResultCache;
+				}
+			}
+			
+		});
+		
+		return result[0];
+	}
+	
+	public void insert(TaskResultCache taskResultCache) {
+		String sql = "replace into task_result_cache values(?,?,?,?,?)";
+		Object[] params = new Object[]{
+				taskResultCache.getCacheKey(),
+				taskResultCache.getTaskid(),
+				taskResultCache.getCreateTime(),
+				taskResultCache.getLastHitTime(),
+				taskResultCache.getHitCount()};
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeUpdate(sql, params);
+	}
+	
+	public void updateHit(String cacheKey, String hitTime) {
+		String sql = "update task_result_cache set last_hit_time=?, hit_count=hit_count+1 "
+				+ "where cache_key=?";
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeUpdate(sql, new Object[]{hitTime, cacheKey});
+	}
+	
+	public int evict(String expireTime, int maxSize) {
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		
+		//executeUpdate失败的时候返回0，看起来和没有淘汰任何缓存一样，这里失败要抛出异常
+		int evicted = jdbcHelper.executeUpdateOrThrow(
+				"delete from task_result_cache where create_time<?", new Object[]{expireTime});
+		
+		//MySQL不能在子查询中直接使用limit和要删除的表，这里多套一层派生表
+		evicted += jdbcHelper.executeUpdateOrThrow(
+				"delete from task_result_cache where cache_key not in ("
+				+ "select cache_key from (select cache_key from task_result_cache "
+				+ "order by last_hit_time desc limit ?) t)", new Object[]{maxSize});
+		
+		return evicted;
+	}
+	
+	public long[] getStats() {
+		String sql = "select count(*),ifnull(sum(hit_count),0) from task_result_cache";
+		final long[] stats = new long[2];
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeQuery(sql, new Object[]{}, new JDBCHelper.QueryCallback() {
+			
+			public void process(ResultSet rs) throws Exception {
+				if(rs.next()) {
+					stats[0] = rs.getLong(1);
+					stats[1] = rs.getLong(2);
+				}
+			}
+			
+		});
+		
+		return stats;
+	}
+
+}
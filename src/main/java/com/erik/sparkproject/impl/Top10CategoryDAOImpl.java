@@ -1,5 +1,8 @@
 package com.erik.sparkproject.impl;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.erik.sparkproject.dao.ITop10CategoryDAO;
 import com.erik.sparkproject.domain.Top10Category;
 import com.erik.sparkproject.jdbc.JDBCHelper;
@@ -13,16 +16,31 @@ public class Top10CategoryDAOImpl implements ITop10CategoryDAO{
 
 	public void insert(Top10Category category) {
 		String sql = "insert into top10_category values(?,?,?,?,?)";
-		Object[] params = new Object[]{
+		Object[] params = getParams(category);
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeUpdate(sql, params);
+	}
+	
+	public void insertBatch(List<Top10Category> categories) {
+		String sql = "insert into top10_category values(?,?,?,?,?)";
+		
+		List<Object[]> paramsList = new ArrayList<Object[]>();
+		for(Top10Category category : categories) {
+			paramsList.add(getParams(category));
+		}
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeBatch(sql, paramsList);
+	}
+	
+	private Object[] getParams(Top10Category category) {
+		return new Object[]{
 				category.getTaskid(),
 				category.getCategoryid(),
 				category.getClickCount(),
 				category.getOrderCount(),
 				category.getPayCount()};
-		
-		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
-		jdbcHelper.executeUpdate(sql, params);
-		
 	}
 
 }
@@ -1,5 +1,8 @@
 package com.erik.sparkproject.impl;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.erik.sparkproject.dao.ITop10SessionDAO;
 import com.erik.sparkproject.domain.Top10Session;
 import com.erik.sparkproject.jdbc.JDBCHelper;
@@ -13,13 +16,43 @@ public class Top10SessionDAOImpl implements ITop10SessionDAO {
 
 	public void insert(Top10Session top10Session) {
 		String sql = "insert into top10_session values(?,?,?,?)";
-		Object[] params = new Object[]{
+		Object[] params = getParams(top10Session);
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeUpdate(sql, params);
+	}
+	
+	public void insertBatch(List<Top10Session> top10Sessions) {
+		String sql = "insert into top10_session values(?,?,?,?)";
+		
+		List<Object[]> paramsList = new ArrayList<Object[]>();
+		for(Top10Session top10Session : top10Sessions) {
+			paramsList.add(getParams(top10Session));
+		}
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeBatch(sql, paramsList);
+	}
+	
+	public void insertStagingBatch(List<Top10Session> top10Sessions, String attemptKey) {
+		String sql = "insert into top10_session_staging values(?,?,?,?,?)";
+		
+		//staging表的第一列是attempt_key，后面的列和正式表相同
+		List<Object[]> paramsList = new ArrayList<Object[]>();
+		for(Top10Session top10Session : top10Sessions) {
+			paramsList.add(StagingDAOImpl.toStagingParams(getParams(top10Session), attemptKey));
+		}
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		jdbcHelper.executeBatch(sql, paramsList);
+	}
+	
+	private Object[] getParams(Top10Session top10Session) {
+		return new Object[]{
 				top10Session.getTaskid(),
 				top10Session.getCategoryid(),
 				top10Session.getSessionid(),
 				top10Session.getClickCount()};
-		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
-		jdbcHelper.executeUpdate(sql, params);
 	}
 
 }
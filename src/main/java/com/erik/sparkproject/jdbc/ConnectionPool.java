@@ -0,0 +1,289 @@
+package com.erik.sparkproject.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 数据库连接池
+ *
+ * 原来的连接池是一个LinkedList，获取连接的方法加了synchronized，
+ * 连接用完时持有锁sleep等待，所有写数据库的线程都排队在这一把锁上，
+ * 归还连接又没有加锁，LinkedList在并发下可能被写坏
+ *
+ * 现在的实现：
+ * 1.空闲连接放在公平的ArrayBlockingQueue中，获取和归还都不需要额外加锁，等待的线程按先来后到获取连接
+ * 2.连接按需创建，第一次用到的时候才创建，最多创建maxSize个，没有写数据库的executor不会创建连接
+ * 3.连接都被占用时最多等待timeout毫秒，超时抛出SQLException，不会无限等待
+ * 4.获取连接时检查连接是否还有效（比如被MySQL的wait_timeout断开），无效的连接关闭掉并重新创建
+ * 5.记录获取连接的等待时间、使用中的连接数和峰值，方便判断连接池大小是否合适
+ * 6.每个连接有一个PreparedStatement缓存，连接关闭的时候一起关闭
+ * @author Erik
+ *
+ */
+public class ConnectionPool {
+
+	private final String url;
+	private final String user;
+	private final String password;
+	private final int maxSize;
+	private final long timeout;
+	private final int validationTimeout;
+	private final int statementCacheSize;
+
+	//空闲连接
+	private final ArrayBlockingQueue<Connection> idleConnections;
+	//已经创建的连接数
+	private final AtomicInteger createdCount = new AtomicInteger(0);
+	//每个连接的PreparedStatement缓存
+	private final ConcurrentHashMap<Connection, StatementCache> statementCaches = 
+			new ConcurrentHashMap<Connection, StatementCache>();
+
+	//统计信息
+	private final AtomicLong borrowCount = new AtomicLong(0);
+	private final AtomicLong totalWaitNanos = new AtomicLong(0);
+	private final AtomicLong maxWaitNanos = new AtomicLong(0);
+	private final AtomicLong timeoutCount = new AtomicLong(0);
+	private final AtomicLong reconnectCount = new AtomicLong(0);
+	private final AtomicInteger activeCount = new AtomicInteger(0);
+	private final AtomicInteger peakActiveCount = new AtomicInteger(0);
+	//已经关闭的连接上PreparedStatement缓存的命中、未命中和淘汰次数
+	private final AtomicLong closedStatementHitCount = new AtomicLong(0);
+	private final AtomicLong closedStatementMissCount = new AtomicLong(0);
+	private final AtomicLong closedStatementEvictionCount = new AtomicLong(0);
+
+	/**
+	 * 构造方法
+	 * @param url 数据库url
+	 * @param user 用户名
+	 * @param password 密码
+	 * @param maxSize 最大连接数
+	 * @param timeout 获取连接的超时时间（毫秒）
+	 * @param validationTimeout 检查连接是否有效的超时时间（秒）
+	 * @param statementCacheSize 每个连接缓存的PreparedStatement个数，0表示不缓存
+	 */
+	public ConnectionPool(String url, String user, String password,
+			int maxSize, long timeout, int validationTimeout, int statementCacheSize) {
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.maxSize = Math.max(1, maxSize);
+		this.timeout = timeout;
+		this.validationTimeout = validationTimeout;
+		this.statementCacheSize = statementCacheSize;
+		this.idleConnections = new ArrayBlockingQueue<Connection>(this.maxSize, true);
+	}
+
+	/**
+	 * 获取连接
+	 * @return 数据库连接
+	 * @throws SQLException 创建连接失败或者等待超时
+	 */
+	public Connection borrow() throws SQLException {
+		long start = System.nanoTime();
+
+		Connection conn = idleConnections.poll();
+		if(conn == null) {
+			conn = tryCreate();
+		}
+		if(conn == null) {
+			try {
+				conn = idleConnections.poll(timeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("获取数据库连接时被中断");
+			}
+			if(conn == null) {
+				timeoutCount.incrementAndGet();
+				throw new SQLException("获取数据库连接超时，等待了" + timeout + "ms，连接池大小为" + maxSize);
+			}
+		}
+
+		conn = validate(conn);
+
+		long waitNanos = System.nanoTime() - start;
+		borrowCount.incrementAndGet();
+		totalWaitNanos.addAndGet(waitNanos);
+		updateMax(maxWaitNanos, waitNanos);
+		updatePeak(activeCount.incrementAndGet());
+
+		return conn;
+	}
+
+	/**
+	 * 归还连接
+	 * @param conn 数据库连接
+	 */
+	public void release(Connection conn) {
+		if(conn == null) {
+			return;
+		}
+		activeCount.decrementAndGet();
+		if(!idleConnections.offer(conn)) {
+			discard(conn);
+		}
+	}
+
+	/**
+	 * 从连接的PreparedStatement缓存中获取PreparedStatement
+	 * 开启缓存的时候，返回的PreparedStatement由连接池管理，使用方不要关闭
+	 * @param conn 从连接池获取的连接
+	 * @param sql SQL语句
+	 * @return PreparedStatement
+	 */
+	public PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException {
+		if(statementCacheSize <= 0) {
+			return conn.prepareStatement(sql);
+		}
+		StatementCache cache = statementCaches.get(conn);
+		if(cache == null) {
+			cache = new StatementCache(conn, statementCacheSize);
+			statementCaches.put(conn, cache);
+		}
+		return cache.prepareStatement(sql);
+	}
+	
+	/**
+	 * 是否开启了PreparedStatement缓存
+	 * 没有开启的时候，使用方要自己关闭PreparedStatement
+	 * @return 是否开启
+	 */
+	public boolean isStatementCacheEnabled() {
+		return statementCacheSize > 0;
+	}
+
+	/**
+	 * 关闭连接池中所有空闲的连接
+	 */
+	public void close() {
+		Connection conn = null;
+		while((conn = idleConnections.poll()) != null) {
+			discard(conn);
+		}
+	}
+
+	/**
+	 * 连接池的统计信息
+	 * @return 统计信息
+	 */
+	public String getStats() {
+		long borrows = borrowCount.get();
+		long hits = closedStatementHitCount.get();
+		long misses = closedStatementMissCount.get();
+		long evictions = closedStatementEvictionCount.get();
+		for(StatementCache cache : statementCaches.values()) {
+			hits += cache.getHitCount();
+			misses += cache.getMissCount();
+			evictions += cache.getEvictionCount();
+		}
+		double avgWaitMillis = borrows == 0 ? 0 : totalWaitNanos.get() / 1000000.0 / borrows;
+		return "连接池统计：最大连接数=" + maxSize
+				+ "，已创建连接数=" + createdCount.get()
+				+ "，空闲连接数=" + idleConnections.size()
+				+ "，使用中连接数=" + activeCount.get()
+				+ "，使用中连接数峰值=" + peakActiveCount.get()
+				+ "，获取次数=" + borrows
+				+ "，平均等待=" + String.format("%.3f", avgWaitMillis) + "ms"
+				+ "，最长等待=" + String.format("%.3f", maxWaitNanos.get() / 1000000.0) + "ms"
+				+ "，超时次数=" + timeoutCount.get()
+				+ "，重连次数=" + reconnectCount.get()
+				+ "，PreparedStatement缓存命中=" + hits
+				+ "，未命中=" + misses
+				+ "，淘汰=" + evictions;
+	}
+
+	/**
+	 * 还没有达到最大连接数时，创建一个新的连接
+	 * @return 新的连接，已经达到最大连接数时返回null
+	 */
+	private Connection tryCreate() throws SQLException {
+		while(true) {
+			int count = createdCount.get();
+			if(count >= maxSize) {
+				return null;
+			}
+			if(createdCount.compareAndSet(count, count + 1)) {
+				break;
+			}
+		}
+		try {
+			return DriverManager.getConnection(url, user, password);
+		} catch (SQLException e) {
+			createdCount.decrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * 检查连接是否有效，无效的话关闭掉重新创建
+	 * @param conn 数据库连接
+	 * @return 有效的连接
+	 */
+	private Connection validate(Connection conn) throws SQLException {
+		boolean valid = false;
+		try {
+			valid = conn.isValid(validationTimeout);
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		if(valid) {
+			return conn;
+		}
+
+		reconnectCount.incrementAndGet();
+		closeStatementCache(conn);
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		try {
+			return DriverManager.getConnection(url, user, password);
+		} catch (SQLException e) {
+			//重连失败，这个连接的名额还给连接池
+			createdCount.decrementAndGet();
+			throw e;
+		}
+	}
+
+	private void discard(Connection conn) {
+		createdCount.decrementAndGet();
+		closeStatementCache(conn);
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void closeStatementCache(Connection conn) {
+		StatementCache cache = statementCaches.remove(conn);
+		if(cache != null) {
+			closedStatementHitCount.addAndGet(cache.getHitCount());
+			closedStatementMissCount.addAndGet(cache.getMissCount());
+			closedStatementEvictionCount.addAndGet(cache.getEvictionCount());
+			cache.close();
+		}
+	}
+
+	private static void updateMax(AtomicLong max, long value) {
+		long current = max.get();
+		while(value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	private void updatePeak(int active) {
+		int current = peakActiveCount.get();
+		while(active > current && !peakActiveCount.compareAndSet(current, active)) {
+			current = peakActiveCount.get();
+		}
+	}
+
+}
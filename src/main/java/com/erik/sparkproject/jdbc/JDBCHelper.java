@@ -1,12 +1,19 @@
 package com.erik.sparkproject.jdbc;
 
+import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.LinkedList;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.spark.SparkEnv;
 
 import com.erik.sparkproject.conf.ConfigurationManager;
 import com.erik.sparkproject.constant.Constants;
@@ -39,6 +46,14 @@ public class JDBCHelper {
 	//保证JDBCHelper只有一个实例，实例中只有一份数据库连接池
 	private static JDBCHelper instance = null;
 	
+	//insert into xxx value(?,?,?)或者insert into xxx values(?,?,?)
+	//括号中只能是占位符，带on duplicate key update等子句的SQL不改写
+	private static final Pattern INSERT_VALUES_PATTERN = Pattern.compile(
+			"(?is)\\s*(insert\\s+into\\s+\\S+\\s+values?)\\s*(\\([^()]*\\))\\s*");
+	
+	//MySQL一条SQL中占位符的最大个数
+	private static final int MAX_PLACEHOLDERS = 65535;
+	
 	//获取单例
 		public static JDBCHelper getInstance() {
 			if(instance == null) {
@@ -51,7 +66,7 @@ public class JDBCHelper {
 			return instance;
 		}
 		//数据库连接池
-		private LinkedList<Connection> datasource = new LinkedList<Connection>();
+		private ConnectionPool datasource;
 		
 	/**
 	 * 第三步：实现单例的过程中，创建唯一的数据库连接池
@@ -78,49 +93,121 @@ public class JDBCHelper {
 		//	}
 		//	return 0;
 		//}
-		int datasourcesSize = ConfigurationManager.getInteger(
-				Constants.JDBC_DATASOURCE_SIZE);
+		int datasourcesSize = getDatasourceSize(ConfigurationManager.getInteger(
+				Constants.JDBC_DATASOURCE_SIZE));
+		
+		//然后创建数据库连接池，连接在第一次使用的时候才会创建
+		//要先在my.properties创建jdbc url user password
+		//jdbc.url=jdbc:mysql://localhost:3306/sparkproject
+		//jdbc.user=root
+		//jdbc.password=erik
+		
+		//然后在Constants.java中添加JDBC_URL等信息
+		//String JDBC_URL="jdbc.url";
+		//String JDBC_USER="jdbc.user";
+		//String JDBC_PASSWORD="jdbc.password";
+		//String SPARK_LOCAL = "spark.local";
+		String url = ConfigurationManager.getProperty(Constants.JDBC_URL);
+		String user = ConfigurationManager.getProperty(Constants.JDBC_USER);
+		String password =ConfigurationManager.getProperty(Constants.JDBC_PASSWORD);
+		
+		//获取连接的超时时间（毫秒）和检查连接是否有效的超时时间（秒）
+		int timeout = ConfigurationManager.getInteger(Constants.JDBC_DATASOURCE_TIMEOUT);
+		int validationTimeout = ConfigurationManager.getInteger(
+				Constants.JDBC_DATASOURCE_VALIDATION_TIMEOUT);
+		//每个连接缓存的PreparedStatement个数
+		int statementCacheSize = ConfigurationManager.getInteger(
+				Constants.JDBC_STATEMENT_CACHE_SIZE);
 		
-		//然后创建指定数量的数据库连接，并放入数据库连接池中
-		for(int i = 0; i < datasourcesSize; i++) {
-			//要先在my.properties创建jdbc url user password
-			//jdbc.url=jdbc:mysql://localhost:3306/sparkproject
-			//jdbc.user=root
-			//jdbc.password=erik
+		datasource = new ConnectionPool(url, user, password, 
+				datasourcesSize, timeout, validationTimeout, statementCacheSize);
+		
+		//JVM退出的时候关闭连接池中的连接，不用等MySQL的wait_timeout回收
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
 			
-			//然后在Constants.java中添加JDBC_URL等信息
-			//String JDBC_URL="jdbc.url";
-			//String JDBC_USER="jdbc.user";
-			//String JDBC_PASSWORD="jdbc.password";
-			//String SPARK_LOCAL = "spark.local";
-			String url = ConfigurationManager.getProperty(Constants.JDBC_URL);
-			String user = ConfigurationManager.getProperty(Constants.JDBC_USER);
-			String password =ConfigurationManager.getProperty(Constants.JDBC_PASSWORD);
-			try {
-				Connection conn = DriverManager.getConnection(url, user, password);
-				datasource.push(conn);
-			} catch (SQLException e) {
-				e.printStackTrace();
+			public void run() {
+				datasource.close();
 			}
+			
+		}, "jdbc-helper-shutdown"));
+	}
+	
+	/**
+	 * 计算连接池的大小
+	 * 
+	 * 一个executor中同时写数据库的线程数不会超过它的cpu core数（开启异步写入时再加上写线程数），
+	 * 连接数比这个多也用不上，所以连接池大小取jdbc.datasource.size和它的较小值，
+	 * executor数量增加的时候，MySQL的连接数是可以预估的
+	 * @param configuredSize jdbc.datasource.size
+	 * @return 连接池大小
+	 */
+	private static int getDatasourceSize(int configuredSize) {
+		int cores = Runtime.getRuntime().availableProcessors();
+		//在executor中的时候，按照spark.executor.cores计算，driver和local模式使用机器的cpu core数
+		SparkEnv env = SparkEnv.get();
+		if(env != null && !"driver".equals(env.executorId())) {
+			cores = env.conf().getInt("spark.executor.cores", cores);
+		}
+		
+		int writers = cores;
+		if(ConfigurationManager.getBoolean(Constants.ASYNC_WRITER_ENABLED)) {
+			writers += ConfigurationManager.getInteger(Constants.ASYNC_WRITER_THREADS);
 		}
+		
+		int size = Math.max(1, Math.min(configuredSize, writers));
+		System.out.println("数据库连接池大小：" + size + "，jdbc.datasource.size=" 
+				+ configuredSize + "，cpu core数=" + cores);
+		return size;
 	}
 	
 	/**
 	 * 第四步，提供获取数据库连接的方法
 	 * 有可能，获取的时候连接池已经用光了，暂时获取不到数据库连接
-	 * 所以要编写一个简单的等待机制，等待获取到数据库连接
+	 * 连接池会等待其他线程归还连接，超时以后抛出异常
 	 * 
-	 * synchronized设置多线程并发访问限制
+	 * 不需要synchronized，连接池本身是线程安全的
+	 */
+	public Connection getConnection() throws SQLException {
+		return datasource.borrow();
+	}
+	
+	/**
+	 * 归还数据库连接
+	 * 用完的连接一定要归还，否则连接池中的连接会越来越少
+	 */
+	public void releaseConnection(Connection conn) {
+		datasource.release(conn);
+	}
+	
+	/**
+	 * 获取PreparedStatement
+	 * 同一个连接上同样的SQL会复用缓存的PreparedStatement，不需要每次都重新prepare
+	 */
+	private PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException {
+		return datasource.prepareStatement(conn, sql);
+	}
+	
+	/**
+	 * 用完PreparedStatement以后调用
+	 * 缓存的PreparedStatement由连接池在关闭连接的时候关闭，没有开启缓存的时候直接关闭
 	 */
-	public synchronized Connection getConnection() {
+	private void closeStatement(PreparedStatement pstmt) {
+		if(pstmt == null || datasource.isStatementCacheEnabled()) {
+			return;
+		}
 		try {
-			while (datasource.size() == 0) {
-				Thread.sleep(10);
-			}
-		} catch (InterruptedException e) {
+			pstmt.close();
+		} catch (SQLException e) {
 			e.printStackTrace();
 		}
-		return datasource.poll();
+	}
+	
+	/**
+	 * 连接池的统计信息
+	 * @return 统计信息
+	 */
+	public String getPoolStats() {
+		return datasource.getStats();
 	}
 	
 	/**
@@ -138,27 +225,52 @@ public class JDBCHelper {
 	 */
 	public int executeUpdate(String sql, Object[] params) {
 		int rtn = 0;
+		
+		try {
+			rtn = update(sql, params);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		
+		return rtn;
+	}
+	
+	/**
+	 * 执行增删改SQL语句，失败的时候抛出异常
+	 * executeUpdate失败的时候只打印异常、返回0，调用方分不清是执行失败还是没有影响任何行，
+	 * 建表、清理数据等失败以后不能继续执行的语句使用这个方法
+	 * @param sql
+	 * @param params
+	 * @return 影响的行数
+	 */
+	public int executeUpdateOrThrow(String sql, Object[] params) {
+		try {
+			return update(sql, params);
+		} catch (Exception e) {
+			e.printStackTrace();
+			throw new RuntimeException("执行SQL失败：" + sql, e);
+		}
+	}
+	
+	private int update(String sql, Object[] params) throws Exception {
 		Connection conn = null;
 		PreparedStatement pstmt = null;
 		
 		try {
 			conn = getConnection();
-			pstmt = conn.prepareStatement(sql);
+			pstmt = prepareStatement(conn, sql);
 			
 			for(int i = 0; i < params.length; i++) {
 				pstmt.setObject(i + 1, params[i]);
 			}
 			
-			rtn = pstmt.executeUpdate();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}finally {
+			return pstmt.executeUpdate();
+		} finally {
+			closeStatement(pstmt);
 			if (conn != null){
-				datasource.push(conn);
+				releaseConnection(conn);
 			}
 		}
-		
-		return rtn;
 	}
 	
 	//执行查询SQL语句
@@ -170,7 +282,7 @@ public class JDBCHelper {
 		
 		try {
 			conn = getConnection();
-			pstmt = conn.prepareStatement(sql);
+			pstmt = prepareStatement(conn, sql);
 			
 			for(int i = 0; i < params.length; i++) {
 				pstmt.setObject(i + 1, params[i]);
@@ -182,12 +294,77 @@ public class JDBCHelper {
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+			}
+			closeStatement(pstmt);
 			if (conn != null) {
-				datasource.push(conn);
+				releaseConnection(conn);
 			}
 		}
 		
 		}
+	/**
+	 * 流式执行查询SQL语句
+	 * 
+	 * executeQuery()使用驱动默认的读取方式，MySQL驱动会把整个查询结果都读到内存中，
+	 * 查询结果很大的时候（比如加载历史任务、维度表）会占用大量内存
+	 * 
+	 * 这里按照jdbc.query.fetch.size设置每次从MySQL读取的行数：
+	 * 小于0表示逐行流式读取（MySQL驱动要求fetchSize为Integer.MIN_VALUE），
+	 * 大于0表示每次读取指定的行数（MySQL需要在url中加上useCursorFetch=true），
+	 * 等于0表示使用驱动默认的方式
+	 * 
+	 * 返回的迭代器遍历结束的时候会自动归还连接，中途不再遍历的时候要调用close()
+	 * @param sql
+	 * @param params
+	 * @param rowMapper 把每一行映射成对象
+	 * @return 查询结果的迭代器
+	 */
+	public <T> QueryIterator<T> executeStreamingQuery(String sql, Object[] params, 
+			RowMapper<T> rowMapper) {
+		Connection conn = null;
+		PreparedStatement pstmt = null;
+		
+		try {
+			conn = getConnection();
+			//流式读取的PreparedStatement有单独的设置，不放入缓存，由迭代器关闭
+			pstmt = conn.prepareStatement(sql, 
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			
+			int fetchSize = ConfigurationManager.getInteger(Constants.JDBC_QUERY_FETCH_SIZE);
+			if(fetchSize < 0) {
+				pstmt.setFetchSize(Integer.MIN_VALUE);
+			} else if(fetchSize > 0) {
+				pstmt.setFetchSize(fetchSize);
+			}
+			
+			for(int i = 0; i < params.length; i++) {
+				pstmt.setObject(i + 1, params[i]);
+			}
+			
+			ResultSet rs = pstmt.executeQuery();
+			return new QueryIterator<T>(this, conn, pstmt, rs, rowMapper);
+		} catch (Exception e) {
+			e.printStackTrace();
+			if(pstmt != null) {
+				try {
+					pstmt.close();
+				} catch (SQLException e1) {
+					e1.printStackTrace();
+				}
+			}
+			if (conn != null) {
+				releaseConnection(conn);
+			}
+			throw new RuntimeException("执行查询SQL失败：" + sql, e);
+		}
+	}
+	
 	/**
 	 * 批量执行SQL语句
 	 * 
@@ -202,42 +379,325 @@ public class JDBCHelper {
 	 * 执行的时候，也仅仅编译一次就可以
 	 * 这种批量执行SQL语句的方式，可以大大提升性能
 	 * 
+	 * 数据量很大的时候，按照jdbc.batch.size分成多批执行，每一批提交一次事务，
+	 * 避免一个事务太大，也避免驱动在内存中攒太多的参数
+	 * 
+	 * 开启jdbc.batch.rewrite以后，insert语句会被改写成
+	 * insert into xxx values(...),(...),(...)这样的多行插入，
+	 * 一批数据只需要向MySQL发送一条SQL，一次网络请求
+	 * 
 	 * @param sql
 	 * @param paramsList
-	 * @return每条SQL语句影响的行数
+	 * @return每条SQL语句影响的行数，改写成多行插入的SQL影响的行数为Statement.SUCCESS_NO_INFO
 	 */
-	
 	public int[] executeBatch (String sql, List<Object[]> paramsList) {
-		int[] rtn = null;
+		int[] rtn = new int[paramsList.size()];
+		if(paramsList.isEmpty()) {
+			return rtn;
+		}
+		
+		int batchSize = Math.max(1, ConfigurationManager.getInteger(Constants.JDBC_BATCH_SIZE));
+		boolean rewrite = ConfigurationManager.getBoolean(Constants.JDBC_BATCH_REWRITE);
+		
+		//能改写成多行插入的SQL，拆成"insert into xxx values"和"(?,?,?)"两部分
+		Matcher matcher = INSERT_VALUES_PATTERN.matcher(sql);
+		boolean multiRow = rewrite && matcher.matches();
+		
 		Connection conn = null;
 		PreparedStatement pstmt = null;
+		boolean autoCommit = true;
 		
 		try {
 			conn = getConnection();
-			//第一步：使用Connection对象，取消自动提交
+			//第一步：使用Connection对象，取消自动提交，记下原来的设置，用完以后还原
+			autoCommit = conn.getAutoCommit();
 			conn.setAutoCommit(false);
-			pstmt = conn.prepareStatement(sql);
+			if(!multiRow) {
+				pstmt = prepareStatement(conn, sql);
+			}
 			
-			//第二步：使用PreparedStatement.addBatch()方法加入批量的SQL参数
-			for(Object[] params : paramsList) {
-				for(int i = 0; i < params.length; i++) {
-					pstmt.setObject(i + 1, params[i]);
+			for(int from = 0; from < paramsList.size(); from += batchSize) {
+				int to = Math.min(from + batchSize, paramsList.size());
+				List<Object[]> batchParamsList = paramsList.subList(from, to);
+				long startTime = System.currentTimeMillis();
+				
+				if(multiRow) {
+					executeMultiRowInsert(conn, matcher.group(1), matcher.group(2), batchParamsList);
+					Arrays.fill(rtn, from, to, Statement.SUCCESS_NO_INFO);
+				} else {
+					//第二步：使用PreparedStatement.addBatch()方法加入批量的SQL参数
+					for(Object[] params : batchParamsList) {
+						for(int i = 0; i < params.length; i++) {
+							pstmt.setObject(i + 1, params[i]);
+						}
+						pstmt.addBatch();
+					}
+					
+					//第三步：一批参数都加入以后，使用PreparedStatement.executeBatch（）方法，执行批量SQL语句
+					int[] batchRtn = pstmt.executeBatch();
+					System.arraycopy(batchRtn, 0, rtn, from, batchRtn.length);
 				}
-				pstmt.addBatch();
 				
-			//第三步：使用PreparedStatement.executeBatch（）方法，执行批量SQL语句
-				rtn = pstmt.executeBatch();
+				//最后一步，使用Connecion对象，提交这一批SQL语句
+				conn.commit();
+				
+				System.out.println("批量执行SQL：" + sql + "，第" + (from / batchSize + 1) + "批，" 
+						+ batchParamsList.size() + "条，耗时" 
+						+ (System.currentTimeMillis() - startTime) + "ms");
 			}
-			//最后一步，使用Connecion对象，提交批量的SQL语句
-			conn.commit();
 		} catch (Exception e) {
 			e.printStackTrace();
+			//没有提交的那一批回滚掉
+			if(conn != null) {
+				try {
+					conn.rollback();
+				} catch (SQLException e1) {
+					e1.printStackTrace();
+				}
+			}
+			//批量写入失败要让调用方知道，否则数据丢了也没有人发现
+			throw new RuntimeException("批量执行SQL失败：" + sql, e);
+		} finally {
+			if(pstmt != null) {
+				//缓存的PreparedStatement还会被复用，失败时没有执行的批量参数要清掉
+				try {
+					pstmt.clearBatch();
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+				closeStatement(pstmt);
+			}
+			if (conn != null) {
+				try {
+					conn.setAutoCommit(autoCommit);
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+				releaseConnection(conn);
+			}
 		}
 		
-		
 		return rtn;
 	}
+	
+	/**
+	 * 把一批参数改写成多行插入执行
+	 * MySQL一条SQL最多只能有65535个占位符，超过的话拆成多条SQL
+	 * 
+	 * 改写出来的SQL随批次的行数变化，几乎不会重复使用，
+	 * 这里不放进PreparedStatement缓存，直接创建、用完就关闭，
+	 * 否则会把缓存中经常使用的语句挤出去，还会让大语句一直占着内存
+	 * @param conn 数据库连接
+	 * @param insertPrefix insert into xxx values
+	 * @param valuesTemplate (?,?,?)
+	 * @param paramsList 参数
+	 */
+	private void executeMultiRowInsert(Connection conn, String insertPrefix, 
+			String valuesTemplate, List<Object[]> paramsList) throws SQLException {
+		int paramCount = paramsList.get(0).length;
+		int rowsPerStatement = Math.max(1, MAX_PLACEHOLDERS / Math.max(1, paramCount));
+		
+		for(int from = 0; from < paramsList.size(); from += rowsPerStatement) {
+			int to = Math.min(from + rowsPerStatement, paramsList.size());
+			
+			StringBuilder multiRowSql = new StringBuilder(insertPrefix);
+			for(int row = from; row < to; row++) {
+				if(row > from) {
+					multiRowSql.append(",");
+				}
+				multiRowSql.append(valuesTemplate);
+			}
+			
+			PreparedStatement pstmt = conn.prepareStatement(multiRowSql.toString());
+			try {
+				int index = 1;
+				for(int row = from; row < to; row++) {
+					Object[] params = paramsList.get(row);
+					for(int i = 0; i < params.length; i++) {
+						pstmt.setObject(index++, params[i]);
+					}
+				}
+				pstmt.executeUpdate();
+			} finally {
+				pstmt.close();
+			}
+		}
+	}
+	
+	/**
+	 * 通过LOAD DATA LOCAL INFILE批量导入数据
+	 * 
+	 * 数据量特别大的表（比如session_detail），即使是批量insert也比MySQL的LOAD DATA慢很多，
+	 * 这里先把数据按照LOAD DATA的格式写到本地的临时文件中，再用一条LOAD DATA导入到表中
+	 * 1.临时文件放在jdbc.bulk.load.dir目录下，没有配置的话放在java.io.tmpdir下，导入完成以后删除
+	 * 2.导入失败的时候最多重试jdbc.bulk.load.retries次，
+	 *   LOAD DATA是一条语句，失败的时候不会留下部分数据，可以直接重试
+	 * 3.导入的行数和数据的行数不一致时（比如数据被截断、主键冲突），抛出异常
+	 * 
+	 * 每行数据中字段的顺序要和表中列的顺序一致
+	 * MySQL驱动需要允许LOAD DATA LOCAL（5.1.x默认允许，新的版本要在url中加上allowLoadLocalInfile=true）
+	 * @param table 表名
+	 * @param paramsList 每行数据
+	 * @return 导入的行数
+	 */
+	public int executeLoadData(String table, List<Object[]> paramsList) {
+		return executeLoadData(table, paramsList.iterator());
+	}
+	
+	/**
+	 * 通过LOAD DATA LOCAL INFILE批量导入数据
+	 * 遍历迭代器把数据逐行写到临时文件中，一个partition的数据只需要一个文件、一条LOAD DATA
+	 * @param table 表名
+	 * @param rows 每行数据
+	 * @return 导入的行数
+	 */
+	public int executeLoadData(String table, Iterator<Object[]> rows) {
+		if(!rows.hasNext()) {
+			return 0;
+		}
+		
+		int retries = Math.max(0, ConfigurationManager.getInteger(Constants.JDBC_BULK_LOAD_RETRIES));
+		String dir = ConfigurationManager.getProperty(Constants.JDBC_BULK_LOAD_DIR);
 		
+		File file = null;
+		try {
+			//第一步：把数据写到本地的临时文件中
+			long startTime = System.currentTimeMillis();
+			File spoolDir = (dir == null || dir.trim().length() == 0) ? null : new File(dir.trim());
+			if(spoolDir != null) {
+				spoolDir.mkdirs();
+			}
+			file = File.createTempFile(table + "-", ".tsv", spoolDir);
+			int count = TsvSpoolFile.write(file, rows);
+			long bytes = file.length();
+			long spoolTime = System.currentTimeMillis() - startTime;
+			
+			//第二步：LOAD DATA导入，失败的话重试
+			String sql = "load data local infile '" 
+					+ file.getAbsolutePath().replace("\\", "/").replace("'", "\\'") + "' "
+					+ "into table " + table + " character set utf8 "
+					+ "fields terminated by '\\t' escaped by '\\\\' "
+					+ "lines terminated by '\\n'";
+			
+			for(int attempt = 0; ; attempt++) {
+				startTime = System.currentTimeMillis();
+				try {
+					int rtn = loadData(sql);
+					if(rtn != count) {
+						throw new RuntimeException("LOAD DATA导入表" + table + "的行数不一致，数据" 
+								+ count + "条，导入" + rtn + "条");
+					}
+					
+					System.out.println("LOAD DATA导入表" + table + "：" + rtn + "条，" 
+							+ bytes + "字节，写文件耗时" + spoolTime + "ms，导入耗时" 
+							+ (System.currentTimeMillis() - startTime) + "ms");
+					return rtn;
+				} catch (SQLException e) {
+					if(attempt >= retries) {
+						throw e;
+					}
+					e.printStackTrace();
+					System.out.println("LOAD DATA导入表" + table + "失败，第" + (attempt + 1) + "次重试");
+					try {
+						Thread.sleep(1000L * (attempt + 1));
+					} catch (InterruptedException e1) {
+						Thread.currentThread().interrupt();
+						throw e;
+					}
+				}
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RuntimeException("LOAD DATA导入表" + table + "失败", e);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("写LOAD DATA数据文件失败：" + file, e);
+		} finally {
+			//第三步：删除临时文件
+			if(file != null && file.exists() && !file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+	}
+	
+	/**
+	 * 执行一次LOAD DATA
+	 * @param sql LOAD DATA语句
+	 * @return 导入的行数
+	 */
+	private int loadData(String sql) throws SQLException {
+		Connection conn = null;
+		Statement stmt = null;
+		
+		try {
+			conn = getConnection();
+			stmt = conn.createStatement();
+			return stmt.executeUpdate(sql);
+		} finally {
+			if(stmt != null) {
+				try {
+					stmt.close();
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+			}
+			if (conn != null) {
+				releaseConnection(conn);
+			}
+		}
+	}
+	
+	/**
+	 * 在一个事务中依次执行多条SQL语句
+	 * 全部执行成功才提交，任何一条失败都会回滚，并抛出异常
+	 * @param sqls SQL语句
+	 * @param paramsList 每条SQL语句的参数
+	 */
+	public void executeTransaction(List<String> sqls, List<Object[]> paramsList) {
+		Connection conn = null;
+		boolean autoCommit = true;
+		
+		try {
+			conn = getConnection();
+			autoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+			
+			for(int i = 0; i < sqls.size(); i++) {
+				PreparedStatement pstmt = conn.prepareStatement(sqls.get(i));
+				try {
+					Object[] params = paramsList.get(i);
+					for(int j = 0; j < params.length; j++) {
+						pstmt.setObject(j + 1, params[j]);
+					}
+					pstmt.executeUpdate();
+				} finally {
+					pstmt.close();
+				}
+			}
+			
+			conn.commit();
+		} catch (Exception e) {
+			e.printStackTrace();
+			if(conn != null) {
+				try {
+					conn.rollback();
+				} catch (SQLException e1) {
+					e1.printStackTrace();
+				}
+			}
+			throw new RuntimeException("执行事务失败：" + sqls, e);
+		} finally {
+			if (conn != null) {
+				try {
+					conn.setAutoCommit(autoCommit);
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+				releaseConnection(conn);
+			}
+		}
+	}
+	
 		/**
 		 *内部类：查询回调接口
 		 */
@@ -0,0 +1,103 @@
+package com.erik.sparkproject.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 流式查询结果的迭代器
+ *
+ * 每次next()从ResultSet中读取一行，用RowMapper映射成对象，
+ * 不会把整个查询结果都加载到内存中
+ *
+ * 迭代器在遍历结束的时候会自动关闭，归还数据库连接
+ * 中途不再遍历的时候，一定要调用close()，否则连接不会归还给连接池
+ * 注意：MySQL流式读取的时候，关闭ResultSet会把剩下的行读完再丢弃，
+ * 需要提前结束的大查询，最好在SQL中加上limit
+ * @author Erik
+ *
+ */
+public class QueryIterator<T> implements Iterator<T> {
+
+	private final JDBCHelper jdbcHelper;
+	private final Connection conn;
+	private final PreparedStatement pstmt;
+	private final ResultSet rs;
+	private final RowMapper<T> rowMapper;
+
+	//是否已经读取了下一行，还没有被next()取走
+	private boolean hasPeeked = false;
+	private boolean closed = false;
+
+	QueryIterator(JDBCHelper jdbcHelper, Connection conn, PreparedStatement pstmt,
+			ResultSet rs, RowMapper<T> rowMapper) {
+		this.jdbcHelper = jdbcHelper;
+		this.conn = conn;
+		this.pstmt = pstmt;
+		this.rs = rs;
+		this.rowMapper = rowMapper;
+	}
+
+	public boolean hasNext() {
+		if(closed) {
+			return false;
+		}
+		if(hasPeeked) {
+			return true;
+		}
+		try {
+			if(rs.next()) {
+				hasPeeked = true;
+				return true;
+			}
+		} catch (SQLException e) {
+			close();
+			throw new RuntimeException("读取查询结果失败", e);
+		}
+		//遍历结束，自动关闭
+		close();
+		return false;
+	}
+
+	public T next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		hasPeeked = false;
+		try {
+			return rowMapper.mapRow(rs);
+		} catch (SQLException e) {
+			close();
+			throw new RuntimeException("映射查询结果失败", e);
+		}
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * 关闭查询结果，归还数据库连接，可以重复调用
+	 */
+	public void close() {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		try {
+			rs.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		try {
+			pstmt.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		jdbcHelper.releaseConnection(conn);
+	}
+
+}
@@ -0,0 +1,20 @@
+package com.erik.sparkproject.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 把查询结果的一行映射成一个对象
+ * @author Erik
+ *
+ */
+public interface RowMapper<T> {
+
+	/**
+	 * 映射当前行，不要在这里调用rs.next()
+	 * @param rs 查询结果，已经指向当前行
+	 * @return 映射出来的对象
+	 */
+	T mapRow(ResultSet rs) throws SQLException;
+
+}
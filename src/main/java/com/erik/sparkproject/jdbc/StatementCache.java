@@ -0,0 +1,98 @@
+package com.erik.sparkproject.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 一个数据库连接上的PreparedStatement缓存
+ *
+ * 以SQL语句为key，按照LRU淘汰，超过maxSize时关闭最久没有使用的PreparedStatement
+ * 同样的SQL（比如每条session明细的insert语句）反复执行的时候，
+ * 只需要prepare一次，不用每次都重新创建PreparedStatement，也不会泄露没有关闭的PreparedStatement
+ *
+ * 一个连接同一时间只会被一个线程使用，所以这里不需要加锁
+ * @author Erik
+ *
+ */
+public class StatementCache {
+
+	private final Connection conn;
+	private final LinkedHashMap<String, PreparedStatement> statements;
+
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+
+	public StatementCache(Connection conn, final int maxSize) {
+		this.conn = conn;
+		//accessOrder为true，按照访问顺序排列，最久没有访问的在最前面
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if(size() > maxSize) {
+					evictionCount++;
+					closeQuietly(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+
+		};
+	}
+
+	/**
+	 * 获取SQL语句对应的PreparedStatement，缓存中没有的时候创建
+	 * 返回的PreparedStatement由缓存管理，使用方不要关闭
+	 * @param sql SQL语句
+	 * @return PreparedStatement
+	 */
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		PreparedStatement pstmt = statements.get(sql);
+		if(pstmt != null) {
+			hitCount++;
+			pstmt.clearParameters();
+			return pstmt;
+		}
+		missCount++;
+		pstmt = conn.prepareStatement(sql);
+		statements.put(sql, pstmt);
+		return pstmt;
+	}
+
+	/**
+	 * 关闭缓存中所有的PreparedStatement
+	 */
+	public void close() {
+		for(PreparedStatement pstmt : statements.values()) {
+			closeQuietly(pstmt);
+		}
+		statements.clear();
+	}
+
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	public long getMissCount() {
+		return missCount;
+	}
+
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	private static void closeQuietly(PreparedStatement pstmt) {
+		try {
+			pstmt.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
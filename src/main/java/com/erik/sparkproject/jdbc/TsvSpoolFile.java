@@ -0,0 +1,138 @@
+package com.erik.sparkproject.jdbc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * LOAD DATA使用的本地数据文件
+ *
+ * 按照MySQL LOAD DATA默认的格式写文件：
+ * 字段之间用tab分隔，每行用\n结尾，转义字符是\
+ * 1.null写成\N
+ * 2.字段中的\、tab、换行、回车写成\\、\t、\n、\r
+ *
+ * 数据先拼接到一个StringBuilder中，编码以后放入ByteBuffer，
+ * 缓冲区满了才通过FileChannel写一次文件，不会每个字段都写一次磁盘
+ * @author Erik
+ *
+ */
+public class TsvSpoolFile {
+
+	public static final Charset CHARSET = Charset.forName("UTF-8");
+
+	//缓冲区大小
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * 把数据写到文件中，文件已经存在的话覆盖掉
+	 * @param file 数据文件
+	 * @param rows 每行数据，数组中的每个元素是一个字段
+	 * @return 写入的行数
+	 */
+	public static int write(File file, List<Object[]> rows) throws IOException {
+		return write(file, rows.iterator());
+	}
+	
+	/**
+	 * 遍历迭代器，把数据逐行写到文件中，文件已经存在的话覆盖掉
+	 * 整个partition的数据可以直接写到一个文件中，不需要先放在内存里
+	 * @param file 数据文件
+	 * @param rows 每行数据，数组中的每个元素是一个字段
+	 * @return 写入的行数
+	 */
+	public static int write(File file, Iterator<Object[]> rows) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			channel.truncate(0);
+			
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			StringBuilder line = new StringBuilder();
+			int count = 0;
+			
+			while(rows.hasNext()) {
+				Object[] row = rows.next();
+				line.setLength(0);
+				for(int i = 0; i < row.length; i++) {
+					if(i > 0) {
+						line.append('\t');
+					}
+					escape(row[i], line);
+				}
+				line.append('\n');
+				
+				byte[] data = line.toString().getBytes(CHARSET);
+				count++;
+				
+				//一行数据比缓冲区剩下的空间大，先把缓冲区写到文件中
+				if(data.length > buffer.remaining()) {
+					flush(channel, buffer);
+				}
+				//一行数据比整个缓冲区还大，直接写文件
+				if(data.length > buffer.capacity()) {
+					ByteBuffer large = ByteBuffer.wrap(data);
+					while(large.hasRemaining()) {
+						channel.write(large);
+					}
+				} else {
+					buffer.put(data);
+				}
+			}
+			
+			flush(channel, buffer);
+			return count;
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+	
+	/**
+	 * 按照LOAD DATA的格式转义一个字段
+	 * @param value 字段的值
+	 * @param sb 转义以后的结果追加到这里
+	 */
+	public static void escape(Object value, StringBuilder sb) {
+		if(value == null) {
+			sb.append("\\N");
+			return;
+		}
+		String str = value.toString();
+		for(int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			switch(c) {
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\0':
+				sb.append("\\0");
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+	}
+	
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+}
@@ -0,0 +1,372 @@
+package com.erik.sparkproject.parquet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.column.ParquetProperties.WriterVersion;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroupFactory;
+import org.apache.parquet.format.converter.ParquetMetadataConverter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.apache.parquet.hadoop.example.GroupWriteSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.spark.SparkEnv;
+import org.apache.spark.deploy.SparkHadoopUtil;
+
+import com.erik.sparkproject.conf.ConfigurationManager;
+import com.erik.sparkproject.constant.Constants;
+
+/**
+ * Parquet辅助组件
+ *
+ * 结果数据写成Parquet文件，按照任务id分区，目录结构为：
+ * result.sink.parquet.path/表名/taskid=任务id/part-xxx.snappy.parquet
+ * 每个partition写自己的文件，不需要经过MySQL，Spark SQL可以直接按taskid分区读取
+ *
+ * task中写入的数据先放在staging目录下：
+ * result.sink.parquet.path/表名/_staging/taskid=任务id/attempt=xxx/
+ * 以_开头的目录读取的时候会被忽略，action执行成功以后，
+ * 只把成功的attempt写的文件移动到正式目录，和MySQL的staging表是一样的
+ *
+ * 读写文件使用Spark的Hadoop配置（fs.defaultFS、HDFS的配置等），不是new Configuration()：
+ * Driver端由setConf()传入sc.hadoopConfiguration()，executor端根据SparkConf生成
+ * @author Erik
+ *
+ */
+public class ParquetHelper {
+
+	private static volatile Configuration conf = null;
+	
+	/**
+	 * 设置读写文件使用的Hadoop配置，Driver端传入sc.hadoopConfiguration()
+	 * @param hadoopConf Hadoop配置
+	 */
+	public static void setConf(Configuration hadoopConf) {
+		conf = hadoopConf;
+	}
+	
+	/**
+	 * 读写文件使用的Hadoop配置
+	 * 没有设置的时候（executor端），和SparkContext一样根据SparkConf生成，包括spark.hadoop.*的配置
+	 */
+	private static Configuration getConf() {
+		if(conf == null) {
+			synchronized(ParquetHelper.class) {
+				if(conf == null) {
+					SparkEnv env = SparkEnv.get();
+					conf = env == null ? new Configuration() 
+							: SparkHadoopUtil.get().newConfiguration(env.conf());
+				}
+			}
+		}
+		return conf;
+	}
+
+	/**
+	 * 表的根目录
+	 * @param table 表名
+	 * @return 目录
+	 */
+	public static Path getTablePath(String table) {
+		return new Path(ConfigurationManager.getProperty(Constants.RESULT_SINK_PARQUET_PATH), table);
+	}
+	
+	/**
+	 * 任务的分区目录
+	 * @param table 表名
+	 * @param taskid 任务id
+	 * @return 目录
+	 */
+	public static Path getTaskPath(String table, long taskid) {
+		return new Path(getTablePath(table), "taskid=" + taskid);
+	}
+	
+	/**
+	 * task attempt的staging目录
+	 * @param table 表名
+	 * @param taskid 任务id
+	 * @param attemptKey task attempt
+	 * @return 目录
+	 */
+	public static Path getStagingPath(String table, long taskid, String attemptKey) {
+		return new Path(getStagingTaskPath(table, taskid), "attempt=" + attemptKey);
+	}
+	
+	private static Path getStagingTaskPath(String table, long taskid) {
+		return new Path(new Path(getTablePath(table), "_staging"), "taskid=" + taskid);
+	}
+	
+	/**
+	 * 把一批数据写成目录下的一个新的Parquet文件
+	 * 每行数据中字段的顺序要和schema中的字段一致，null表示字段没有值
+	 * @param dir 目录
+	 * @param schema schema
+	 * @param rows 每行数据
+	 */
+	public static void write(Path dir, MessageType schema, List<Object[]> rows) {
+		write(dir, schema, rows.iterator());
+	}
+	
+	/**
+	 * 遍历迭代器，把数据逐行写成目录下的一个新的Parquet文件
+	 * 一个partition的数据只打开一个ParquetWriter、写一个文件，不会产生大量的小文件
+	 * @param dir 目录
+	 * @param schema schema
+	 * @param rows 每行数据
+	 * @return 写入的行数
+	 */
+	public static long write(Path dir, MessageType schema, Iterator<Object[]> rows) {
+		if(!rows.hasNext()) {
+			return 0;
+		}
+		
+		long startTime = System.currentTimeMillis();
+		Path file = new Path(dir, "part-" + UUID.randomUUID() + ".snappy.parquet");
+		SimpleGroupFactory groupFactory = new SimpleGroupFactory(schema);
+		long count = 0;
+		
+		ParquetWriter<Group> writer = null;
+		try {
+			writer = openWriter(file, schema);
+			while(rows.hasNext()) {
+				writer.write(toGroup(groupFactory, schema, rows.next()));
+				count++;
+			}
+			
+			writer.close();
+			writer = null;
+			
+			System.out.println("写入Parquet文件：" + file + "，" + count + "条，耗时" 
+					+ (System.currentTimeMillis() - startTime) + "ms");
+			return count;
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("写入Parquet文件失败：" + file, e);
+		} finally {
+			closeQuietly(writer);
+		}
+	}
+	
+	private static ParquetWriter<Group> openWriter(Path file, MessageType schema) throws IOException {
+		//GroupWriteSupport的schema放在配置中，每个文件复制一份，不修改共享的配置
+		Configuration writeConf = new Configuration(getConf());
+		GroupWriteSupport.setSchema(schema, writeConf);
+		
+		return new ParquetWriter<Group>(file, new GroupWriteSupport(), 
+				CompressionCodecName.SNAPPY, 
+				ParquetWriter.DEFAULT_BLOCK_SIZE, 
+				ParquetWriter.DEFAULT_PAGE_SIZE, 
+				ParquetWriter.DEFAULT_PAGE_SIZE, 
+				ParquetWriter.DEFAULT_IS_DICTIONARY_ENABLED, 
+				ParquetWriter.DEFAULT_IS_VALIDATING_ENABLED, 
+				WriterVersion.PARQUET_1_0, 
+				writeConf);
+	}
+	
+	private static Group toGroup(SimpleGroupFactory groupFactory, MessageType schema, Object[] row) {
+		Group group = groupFactory.newGroup();
+		for(int i = 0; i < row.length; i++) {
+			if(row[i] == null) {
+				continue;
+			}
+			PrimitiveTypeName type = schema.getType(i).asPrimitiveType().getPrimitiveTypeName();
+			switch(type) {
+			case INT64:
+				group.add(i, ((Number) row[i]).longValue());
+				break;
+			case DOUBLE:
+				group.add(i, ((Number) row[i]).doubleValue());
+				break;
+			default:
+				group.add(i, row[i].toString());
+			}
+		}
+		return group;
+	}
+	
+	private static Object[] toRow(MessageType schema, Group group) {
+		Object[] row = new Object[schema.getFieldCount()];
+		for(int i = 0; i < row.length; i++) {
+			if(group.getFieldRepetitionCount(i) == 0) {
+				continue;
+			}
+			PrimitiveTypeName type = schema.getType(i).asPrimitiveType().getPrimitiveTypeName();
+			switch(type) {
+			case INT64:
+				row[i] = group.getLong(i, 0);
+				break;
+			case DOUBLE:
+				row[i] = group.getDouble(i, 0);
+				break;
+			default:
+				row[i] = group.getString(i, 0);
+			}
+		}
+		return row;
+	}
+	
+	private static void closeQuietly(ParquetWriter<Group> writer) {
+		if(writer != null) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * 把成功的attempt写的文件发布到任务的分区目录
+	 * 先删除分区目录中这个任务已有的文件，再把attempt的文件移动过去，最后清理这个任务的staging目录
+	 * @param table 表名
+	 * @param taskid 任务id
+	 * @param attemptKeys 执行成功的attempt
+	 */
+	public static void publish(String table, long taskid, List<String> attemptKeys) {
+		Path taskPath = getTaskPath(table, taskid);
+		
+		try {
+			FileSystem fs = taskPath.getFileSystem(getConf());
+			
+			fs.delete(taskPath, true);
+			fs.mkdirs(taskPath);
+			
+			for(String attemptKey : attemptKeys) {
+				Path attemptPath = getStagingPath(table, taskid, attemptKey);
+				if(!fs.exists(attemptPath)) {
+					continue;
+				}
+				for(FileStatus status : fs.listStatus(attemptPath)) {
+					Path target = new Path(taskPath, status.getPath().getName());
+					if(!fs.rename(status.getPath(), target)) {
+						throw new IOException("移动文件失败：" + status.getPath() + " -> " + target);
+					}
+				}
+			}
+			
+			//清理这个任务所有attempt的文件，包括失败的和推测执行的
+			fs.delete(getStagingTaskPath(table, taskid), true);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("发布Parquet文件失败：" + taskPath, e);
+		}
+	}
+	
+	/**
+	 * 删除一个任务的分区目录
+	 * @param table 表名
+	 * @param taskid 任务id
+	 */
+	public static void clear(String table, long taskid) {
+		Path taskPath = getTaskPath(table, taskid);
+		try {
+			taskPath.getFileSystem(getConf()).delete(taskPath, true);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("删除Parquet文件失败：" + taskPath, e);
+		}
+	}
+	
+	/**
+	 * 删除一个任务的staging目录
+	 * @param table 表名
+	 * @param taskid 任务id
+	 */
+	public static void clearStaging(String table, long taskid) {
+		Path stagingTaskPath = getStagingTaskPath(table, taskid);
+		try {
+			stagingTaskPath.getFileSystem(getConf()).delete(stagingTaskPath, true);
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("删除Parquet文件失败：" + stagingTaskPath, e);
+		}
+	}
+	
+	/**
+	 * 把一个任务的结果文件复制给另一个任务
+	 * 文件中也保存了task_id列，所以不是直接复制文件，而是逐行读出来，替换task_id以后重新写入
+	 * 所有文件逐行读、逐行写到一个新文件中，不会把整个任务的数据放在内存里
+	 * @param table 表名
+	 * @param fromTaskid 原任务id
+	 * @param toTaskid 目标任务id
+	 */
+	public static void copy(String table, long fromTaskid, long toTaskid) {
+		Path fromPath = getTaskPath(table, fromTaskid);
+		Path toPath = getTaskPath(table, toTaskid);
+		
+		ParquetWriter<Group> writer = null;
+		try {
+			Configuration conf = getConf();
+			FileSystem fs = toPath.getFileSystem(conf);
+			
+			fs.delete(toPath, true);
+			fs.mkdirs(toPath);
+			if(!fs.exists(fromPath)) {
+				return;
+			}
+			
+			List<Path> files = new ArrayList<Path>();
+			for(FileStatus status : fs.listStatus(fromPath)) {
+				String name = status.getPath().getName();
+				if(!status.isDirectory() && !name.startsWith("_") && !name.startsWith(".")) {
+					files.add(status.getPath());
+				}
+			}
+			if(files.isEmpty()) {
+				return;
+			}
+			
+			//同一个表的文件schema都是一样的
+			MessageType schema = ParquetFileReader.readFooter(conf, files.get(0),
+					ParquetMetadataConverter.NO_FILTER)
+					.getFileMetaData().getSchema();
+			int taskidIndex = schema.getFieldIndex("task_id");
+			SimpleGroupFactory groupFactory = new SimpleGroupFactory(schema);
+			
+			long startTime = System.currentTimeMillis();
+			long count = 0;
+			Path file = new Path(toPath, "part-" + UUID.randomUUID() + ".snappy.parquet");
+			writer = openWriter(file, schema);
+			
+			for(Path path : files) {
+				ParquetReader<Group> reader = ParquetReader.builder(
+						new GroupReadSupport(), path).withConf(conf).build();
+				try {
+					Group group = null;
+					while((group = reader.read()) != null) {
+						Object[] row = toRow(schema, group);
+						row[taskidIndex] = toTaskid;
+						writer.write(toGroup(groupFactory, schema, row));
+						count++;
+					}
+				} finally {
+					reader.close();
+				}
+			}
+			
+			writer.close();
+			writer = null;
+			
+			System.out.println("复制Parquet文件：" + fromPath + " -> " + file + "，" + count + "条，耗时" 
+					+ (System.currentTimeMillis() - startTime) + "ms");
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("复制Parquet文件失败：" + fromPath + " -> " + toPath, e);
+		} finally {
+			closeQuietly(writer);
+		}
+	}
+
+}
@@ -0,0 +1,307 @@
+package com.erik.sparkproject.spark.session;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.Partitioner;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.sql.DataFrame;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SQLContext;
+import org.apache.spark.sql.SaveMode;
+import org.apache.spark.sql.functions;
+import org.apache.spark.sql.hive.HiveContext;
+
+import com.erik.sparkproject.conf.ConfigurationManager;
+import com.erik.sparkproject.constant.Constants;
+
+import scala.Tuple2;
+
+/**
+ * 以Parquet格式存储的用户访问行为数据
+ *
+ * 原来的user_visit_action是行式存储的表，只需要几列的时候也要读取整行
+ * 写成按date分区的Parquet文件以后：
+ * 1.日期范围以外的分区目录不会被读取
+ * 2.只读取需要的列的column chunk
+ * 3.写入之前按照date、click_category_id、search_keyword排序，
+ *   每个row group中这几列的最小值、最大值范围很小，
+ *   按照品类、搜索词过滤的时候，可以根据row group的统计信息直接跳过不满足条件的row group
+ * 4.搜索词、品类这种重复值很多的列使用字典编码，
+ *   Parquet 1.7只能整个文件开启字典编码，这里开启字典编码，并调大字典页，避免字典过大时退回普通编码
+ *
+ * 开启action.parquet.bucketed以后，换成按session分桶的布局：
+ * 按照sessionid的hash分成action.parquet.buckets个桶，每个桶在每个日期分区下写一个文件，
+ * 文件中按照sessionid、action_time排序，一个session在一天中的行为都在同一个文件中，并且是连续的
+ * 读取的时候每个文件作为一个partition（不切分），session聚合可以直接按顺序遍历，不需要shuffle
+ * 
+ * 导入Hive表中的数据：ActionParquetStore 开始日期 结束日期
+ * @author Erik
+ *
+ */
+public class ActionParquetStore {
+
+	private static final String SPLIT_MINSIZE = "mapreduce.input.fileinputformat.split.minsize";
+
+	/**
+	 * 从Hive表user_visit_action中导入指定日期范围的数据
+	 * @param args 开始日期 结束日期
+	 */
+	public static void main(String[] args) {
+		SparkConf conf = new SparkConf()
+				.setAppName("ActionParquetStore");
+		JavaSparkContext sc = new JavaSparkContext(conf);
+		SQLContext sqlContext = new HiveContext(sc.sc());
+		
+		DataFrame actionDF = sqlContext.table(UserVisitActionScan.TABLE)
+				.filter(functions.col("date").geq(args[0]).and(functions.col("date").leq(args[1])));
+		write(sqlContext, actionDF, ConfigurationManager.getProperty(Constants.ACTION_PARQUET_PATH));
+		
+		sc.close();
+	}
+	
+	/**
+	 * 把行为数据写成按date分区的Parquet文件
+	 * 只替换数据中包含的日期的分区，其他日期的分区不受影响
+	 * @param sqlContext SQLContext
+	 * @param actionDF 行为数据
+	 * @param path Parquet文件的根目录
+	 */
+	public static void write(SQLContext sqlContext, DataFrame actionDF, String path) {
+		//row group和page的大小、字典编码
+		Configuration hadoopConf = sqlContext.sparkContext().hadoopConfiguration();
+		hadoopConf.setInt("parquet.block.size", 
+				ConfigurationManager.getInteger(Constants.ACTION_PARQUET_BLOCK_SIZE));
+		hadoopConf.setInt("parquet.page.size", 
+				ConfigurationManager.getInteger(Constants.ACTION_PARQUET_PAGE_SIZE));
+		hadoopConf.setBoolean("parquet.enable.dictionary", true);
+		hadoopConf.setInt("parquet.dictionary.page.size", 
+				ConfigurationManager.getInteger(Constants.ACTION_PARQUET_PAGE_SIZE) * 4);
+		sqlContext.setConf("spark.sql.parquet.compression.codec", "snappy");
+		
+		//先删除要导入的日期已有的分区，重复导入同一天的数据不会重复
+		try {
+			Path root = new Path(path);
+			FileSystem fs = root.getFileSystem(hadoopConf);
+			for(Row row : actionDF.select("date").distinct().collect()) {
+				fs.delete(new Path(root, "date=" + row.getString(0)), true);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("删除行为数据分区失败：" + path, e);
+		}
+		
+		long startTime = System.currentTimeMillis();
+		DataFrame sortedDF = null;
+		if(isBucketed()) {
+			sortedDF = sortBySession(sqlContext, actionDF, 
+					ConfigurationManager.getInteger(Constants.ACTION_PARQUET_BUCKETS));
+		} else {
+			sortedDF = actionDF.orderBy("date", "click_category_id", "search_keyword");
+		}
+		sortedDF.write()
+				.mode(SaveMode.Append)
+				.partitionBy("date")
+				.parquet(path);
+		
+		System.out.println("行为数据写入Parquet：" + path + "，耗时" 
+				+ (System.currentTimeMillis() - startTime) + "ms");
+	}
+	
+	/**
+	 * 把Parquet文件注册为user_visit_action表
+	 * date是分区列，会被放在最后一列，UserVisitActionScan按照列名读取，不受影响
+	 * @param sqlContext SQLContext
+	 * @param path Parquet文件的根目录
+	 */
+	public static void register(SQLContext sqlContext, String path) {
+		//把过滤条件下推到Parquet，根据row group的统计信息跳过不需要的数据
+		sqlContext.setConf("spark.sql.parquet.filterPushdown", "true");
+		sqlContext.read().parquet(path).registerTempTable(UserVisitActionScan.TABLE);
+	}
+	
+	/**
+	 * 把行为数据的DataFrame转换成RDD
+	 * 
+	 * 按session分桶的布局，文件不能切分，否则一个session的行为会被分到两个partition中
+	 * split.minsize不能一直设置在SparkContext的hadoopConfiguration中，
+	 * 否则之后user_info、按天聚合结果、Hive表等所有的读取都不会切分文件
+	 * 
+	 * DataFrame转换成RDD的时候，会把当时的hadoopConfiguration交给RDD，
+	 * RDD第一次计算partition的时候根据它切分文件，计算出来的partition会保存在RDD中
+	 * 所以只在转换、计算partition的时候临时设置split.minsize，计算完以后马上恢复
+	 * @param sqlContext SQLContext
+	 * @param actionDF 行为数据
+	 * @return 行为数据RDD，按session分桶的布局下每个文件一个partition
+	 */
+	public static JavaRDD<Row> toJavaRDD(SQLContext sqlContext, DataFrame actionDF) {
+		if(!isBucketed() 
+				|| !"parquet".equals(ConfigurationManager.getProperty(Constants.ACTION_SOURCE))) {
+			return actionDF.javaRDD();
+		}
+		
+		Configuration hadoopConf = sqlContext.sparkContext().hadoopConfiguration();
+		String minSize = hadoopConf.get(SPLIT_MINSIZE);
+		hadoopConf.setLong(SPLIT_MINSIZE, Long.MAX_VALUE);
+		try {
+			JavaRDD<Row> actionRDD = actionDF.javaRDD();
+			actionRDD.partitions();
+			return actionRDD;
+		} finally {
+			if(minSize == null) {
+				hadoopConf.unset(SPLIT_MINSIZE);
+			} else {
+				hadoopConf.set(SPLIT_MINSIZE, minSize);
+			}
+		}
+	}
+	
+	/**
+	 * 一个日期分区的数据版本
+	 * 由分区下数据文件的个数、总大小和最后修改时间组成，重新导入或者补数据以后会发生变化
+	 * @param fs FileSystem
+	 * @param path Parquet文件的根目录
+	 * @param date 日期
+	 * @return 数据版本，分区不存在时为none
+	 */
+	public static String getPartitionVersion(FileSystem fs, String path, String date) 
+			throws IOException {
+		Path partition = new Path(path, "date=" + date);
+		if(!fs.exists(partition)) {
+			return "none";
+		}
+		
+		int fileCount = 0;
+		long totalLength = 0;
+		long lastModified = 0;
+		for(FileStatus status : fs.listStatus(partition)) {
+			String name = status.getPath().getName();
+			if(status.isDirectory() || name.startsWith("_") || name.startsWith(".")) {
+				continue;
+			}
+			fileCount++;
+			totalLength += status.getLen();
+			lastModified = Math.max(lastModified, status.getModificationTime());
+		}
+		return fileCount + "_" + totalLength + "_" + lastModified;
+	}
+	
+	/**
+	 * 行为数据是否按session分桶存储
+	 */
+	public static boolean isBucketed() {
+		return ConfigurationManager.getBoolean(Constants.ACTION_PARQUET_BUCKETED);
+	}
+	
+	/**
+	 * 按照sessionid分桶，桶内按照date、sessionid、action_time排序
+	 * 每个桶是一个partition，写入的时候每个日期分区下每个桶一个文件
+	 * @param sqlContext SQLContext
+	 * @param actionDF 行为数据
+	 * @param buckets 桶数
+	 * @return 排序以后的行为数据
+	 */
+	private static DataFrame sortBySession(SQLContext sqlContext, DataFrame actionDF, int buckets) {
+		List<String> fieldNames = Arrays.asList(actionDF.schema().fieldNames());
+		final int dateIndex = fieldNames.indexOf("date");
+		final int sessionidIndex = fieldNames.indexOf("session_id");
+		final int actionTimeIndex = fieldNames.indexOf("action_time");
+		
+		JavaRDD<Row> sortedRDD = actionDF.javaRDD().mapToPair(
+				new PairFunction<Row, SessionActionKey, Row>() {
+
+					private static final long serialVersionUID = 1L;
+					
+					//SimpleDateFormat不是线程安全的，每个task使用自己的
+					private transient SimpleDateFormat timeFormat;
+
+					public Tuple2<SessionActionKey, Row> call(Row row) throws Exception {
+						if(timeFormat == null) {
+							timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+						}
+						SessionActionKey key = new SessionActionKey(
+								row.getString(dateIndex), 
+								row.getString(sessionidIndex), 
+								timeFormat.parse(row.getString(actionTimeIndex)).getTime());
+						return new Tuple2<SessionActionKey, Row>(key, row);
+					}
+					
+				})
+				.repartitionAndSortWithinPartitions(new SessionBucketPartitioner(buckets))
+				.values();
+		
+		return sqlContext.createDataFrame(sortedRDD, actionDF.schema());
+	}
+	
+	/**
+	 * 排序的key：date、sessionid、action_time
+	 */
+	public static class SessionActionKey implements Comparable<SessionActionKey>, Serializable {
+
+		private static final long serialVersionUID = 1L;
+		
+		private final String date;
+		private final String sessionid;
+		private final long actionTime;
+		
+		public SessionActionKey(String date, String sessionid, long actionTime) {
+			this.date = date;
+			this.sessionid = sessionid;
+			this.actionTime = actionTime;
+		}
+		
+		public int compareTo(SessionActionKey other) {
+			int result = date.compareTo(other.date);
+			if(result != 0) {
+				return result;
+			}
+			result = sessionid.compareTo(other.sessionid);
+			if(result != 0) {
+				return result;
+			}
+			return actionTime < other.actionTime ? -1 : (actionTime == other.actionTime ? 0 : 1);
+		}
+		
+		public String getSessionid() {
+			return sessionid;
+		}
+		
+	}
+	
+	/**
+	 * 按照sessionid的hash分桶
+	 */
+	public static class SessionBucketPartitioner extends Partitioner {
+
+		private static final long serialVersionUID = 1L;
+		
+		private final int buckets;
+		
+		public SessionBucketPartitioner(int buckets) {
+			this.buckets = Math.max(1, buckets);
+		}
+		
+		@Override
+		public int numPartitions() {
+			return buckets;
+		}
+		
+		@Override
+		public int getPartition(Object key) {
+			int hash = ((SessionActionKey) key).getSessionid().hashCode() % buckets;
+			return hash < 0 ? hash + buckets : hash;
+		}
+		
+	}
+
+}
@@ -0,0 +1,86 @@
+package com.erik.sparkproject.spark.session;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.spark.JavaSparkListener;
+import org.apache.spark.executor.DataReadMethod;
+import org.apache.spark.executor.InputMetrics;
+import org.apache.spark.executor.TaskMetrics;
+import org.apache.spark.rdd.RDD;
+import org.apache.spark.scheduler.SparkListenerStageSubmitted;
+import org.apache.spark.scheduler.SparkListenerTaskEnd;
+import org.apache.spark.storage.RDDInfo;
+
+import scala.collection.JavaConversions;
+
+/**
+ * 统计行为数据扫描读取的数据量
+ *
+ * stage提交的时候，判断stage中是否包含行为数据的RDD，
+ * 包含的话，这个stage中每个task从Hadoop读取的字节数和条数都累加起来
+ * 行为数据RDD没有缓存，被多个stage用到的时候，每次扫描都会算进去
+ * @author Erik
+ *
+ */
+public class ActionScanListener extends JavaSparkListener {
+
+	private volatile int rddId = -1;
+	
+	//读取行为数据的stage
+	private final Set<Integer> scanStageIds = Collections.synchronizedSet(new HashSet<Integer>());
+	
+	private final AtomicLong taskCount = new AtomicLong(0);
+	private final AtomicLong bytesRead = new AtomicLong(0);
+	private final AtomicLong recordsRead = new AtomicLong(0);
+	
+	/**
+	 * 统计这个RDD的扫描
+	 * @param rdd 行为数据RDD
+	 */
+	public void watch(RDD<?> rdd) {
+		this.rddId = rdd.id();
+	}
+	
+	@Override
+	public void onStageSubmitted(SparkListenerStageSubmitted stageSubmitted) {
+		for(RDDInfo rddInfo : JavaConversions.seqAsJavaList(stageSubmitted.stageInfo().rddInfos())) {
+			if(rddInfo.id() == rddId) {
+				scanStageIds.add(stageSubmitted.stageInfo().stageId());
+				return;
+			}
+		}
+	}
+	
+	@Override
+	public void onTaskEnd(SparkListenerTaskEnd taskEnd) {
+		if(!scanStageIds.contains(taskEnd.stageId())) {
+			return;
+		}
+		TaskMetrics taskMetrics = taskEnd.taskMetrics();
+		if(taskMetrics == null || taskMetrics.inputMetrics().isEmpty()) {
+			return;
+		}
+		InputMetrics inputMetrics = taskMetrics.inputMetrics().get();
+		if(inputMetrics.readMethod() != DataReadMethod.Hadoop()) {
+			return;
+		}
+		taskCount.incrementAndGet();
+		bytesRead.addAndGet(inputMetrics.bytesRead());
+		recordsRead.addAndGet(inputMetrics.recordsRead());
+	}
+	
+	/**
+	 * 扫描的统计信息
+	 * @return 统计信息
+	 */
+	public String getStats() {
+		return UserVisitActionScan.TABLE + "扫描统计：stage数=" + scanStageIds.size()
+				+ "，task数=" + taskCount.get()
+				+ "，读取字节数=" + bytesRead.get()
+				+ "，读取条数=" + recordsRead.get();
+	}
+
+}
@@ -0,0 +1,204 @@
+package com.erik.sparkproject.spark.session;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.spark.TaskContext;
+import org.apache.spark.util.TaskCompletionListener;
+
+import com.erik.sparkproject.conf.ConfigurationManager;
+import com.erik.sparkproject.constant.Constants;
+
+/**
+ * 异步写结果数据
+ *
+ * 原来DAO写MySQL都是在task线程中同步执行的，task要等MySQL返回以后才能继续计算，
+ * 计算和写数据库是串行的
+ *
+ * 开启async.writer.enabled以后，每个executor进程中有一个有界的队列和若干个写线程，
+ * task只负责把一批数据放入队列，由写线程批量写入MySQL，计算和写数据库可以同时进行
+ * 1.队列满了的时候，task放入数据会阻塞，等待写线程消费，避免数据堆积在内存中
+ * 2.每个task在结束的时候，等待自己放入的数据都写完
+ * 3.写线程写入失败的时候，task结束时会抛出异常，task失败
+ *
+ * 在Driver端（没有TaskContext）或者没有开启的时候，直接在当前线程同步写入
+ * @author Erik
+ *
+ */
+public class AsyncResultWriter {
+
+	/**
+	 * 一次写入操作
+	 */
+	public static interface Flush {
+
+		void flush() throws Exception;
+
+	}
+
+	private static AsyncResultWriter instance = null;
+
+	/**
+	 * 获取单例
+	 * @return 每个JVM中唯一的写线程池
+	 */
+	public static AsyncResultWriter getInstance() {
+		if(instance == null) {
+			synchronized(AsyncResultWriter.class) {
+				if(instance == null) {
+					instance = new AsyncResultWriter();
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * 写入一批数据
+	 * 开启了异步写入并且在task中执行的时候放入队列，否则直接写入
+	 * @param flush 写入操作
+	 */
+	public static void execute(Flush flush) throws Exception {
+		TaskContext context = TaskContext.get();
+		if(context == null || !ConfigurationManager.getBoolean(Constants.ASYNC_WRITER_ENABLED)) {
+			flush.flush();
+			return;
+		}
+		getInstance().submit(context, flush);
+	}
+
+	//待写入的数据
+	private final ArrayBlockingQueue<Request> queue;
+	//每个task对应的写入状态，key是taskAttemptId
+	private final ConcurrentHashMap<Long, TaskHandle> handles =
+			new ConcurrentHashMap<Long, TaskHandle>();
+
+	private AsyncResultWriter() {
+		int queueSize = Math.max(1, ConfigurationManager.getInteger(Constants.ASYNC_WRITER_QUEUE_SIZE));
+		int threadNum = Math.max(1, ConfigurationManager.getInteger(Constants.ASYNC_WRITER_THREADS));
+
+		queue = new ArrayBlockingQueue<Request>(queueSize);
+		for(int i = 0; i < threadNum; i++) {
+			Thread thread = new Thread(new Runnable() {
+
+				public void run() {
+					while(true) {
+						Request request = null;
+						try {
+							request = queue.take();
+						} catch (InterruptedException e) {
+							return;
+						}
+						request.run();
+					}
+				}
+
+			}, "async-result-writer-" + i);
+			//守护线程，不影响JVM退出
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private void submit(TaskContext context, Flush flush) throws Exception {
+		TaskHandle handle = getHandle(context);
+		//之前的写入已经失败了，不用再写了，直接让task失败
+		handle.checkError();
+		handle.increment();
+		try {
+			//队列满了会阻塞在这里，起到背压的作用
+			queue.put(new Request(handle, flush));
+		} catch (InterruptedException e) {
+			handle.decrement(e);
+			throw e;
+		}
+	}
+
+	private TaskHandle getHandle(TaskContext context) {
+		final long taskAttemptId = context.taskAttemptId();
+		TaskHandle handle = handles.get(taskAttemptId);
+		if(handle == null) {
+			handle = new TaskHandle();
+			handles.put(taskAttemptId, handle);
+
+			//task结束的时候等待这个task的数据全部写完，写入失败的话抛出异常让task失败
+			final TaskHandle finalHandle = handle;
+			context.addTaskCompletionListener(new TaskCompletionListener() {
+
+				public void onTaskCompletion(TaskContext context) {
+					handles.remove(taskAttemptId);
+					finalHandle.await();
+				}
+
+			});
+		}
+		return handle;
+	}
+
+	/**
+	 * 队列中的一个写入请求
+	 */
+	private static class Request {
+
+		private final TaskHandle handle;
+		private final Flush flush;
+
+		Request(TaskHandle handle, Flush flush) {
+			this.handle = handle;
+			this.flush = flush;
+		}
+
+		void run() {
+			Throwable error = null;
+			try {
+				flush.flush();
+			} catch (Throwable e) {
+				e.printStackTrace();
+				error = e;
+			}
+			handle.decrement(error);
+		}
+
+	}
+
+	/**
+	 * 一个task的写入状态：还没有写完的批次数，以及第一个写入错误
+	 */
+	private static class TaskHandle {
+
+		private int pending = 0;
+		private Throwable error = null;
+
+		synchronized void increment() {
+			pending++;
+		}
+
+		synchronized void decrement(Throwable e) {
+			pending--;
+			if(e != null && error == null) {
+				error = e;
+			}
+			notifyAll();
+		}
+
+		synchronized void checkError() {
+			if(error != null) {
+				throw new RuntimeException("异步写入结果数据失败", error);
+			}
+		}
+
+		synchronized void await() {
+			while(pending > 0) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("等待异步写入结果数据时被中断", e);
+				}
+			}
+			checkError();
+		}
+
+	}
+
+}
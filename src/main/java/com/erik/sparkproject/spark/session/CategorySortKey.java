@@ -83,24 +83,29 @@ public class CategorySortKey implements Ordered<CategorySortKey>, Serializable{
 		return false;
 	}
 
+	//次数的差值是long类型，强转成int可能溢出，导致比较结果的正负号错误
+	//所以直接比较大小，不能返回差值
 	public int compare(CategorySortKey other) {
-		if(clickCount - other.getClickCount() != 0) {
-			return (int)(clickCount - other.getClickCount());
-		}else if(orderCount - other.getOrderCount() != 0) {
-			return (int)(orderCount - other.getOrderCount());
-		}else if(payCount - other.getPayCount() != 0){
-			return (int)(payCount - other.getPayCount());
+		int result = compareCount(clickCount, other.getClickCount());
+		if(result != 0) {
+			return result;
 		}
-		return 0;
+		result = compareCount(orderCount, other.getOrderCount());
+		if(result != 0) {
+			return result;
+		}
+		return compareCount(payCount, other.getPayCount());
 	}
 
 	public int compareTo(CategorySortKey other) {
-		if(clickCount - other.getClickCount() != 0) {
-			return (int)(clickCount - other.getClickCount());
-		}else if(orderCount - other.getOrderCount() != 0) {
-			return (int)(orderCount - other.getOrderCount());
-		}else if(payCount - other.getPayCount() != 0){
-			return (int)(payCount - other.getPayCount());
+		return compare(other);
+	}
+	
+	private static int compareCount(long count1, long count2) {
+		if(count1 < count2) {
+			return -1;
+		}else if(count1 > count2) {
+			return 1;
 		}
 		return 0;
 	}
@@ -0,0 +1,38 @@
+package com.erik.sparkproject.spark.session;
+
+import java.io.Serializable;
+import java.util.Comparator;
+
+import scala.Tuple2;
+
+/**
+ * 热门品类topN的比较器
+ *
+ * 配合takeOrdered()使用，每个partition维护一个大小为N的有界堆，
+ * 最后在Driver端合并各partition的结果，不需要对所有品类进行全局排序
+ *
+ * 按照点击、下单、支付次数降序排列，次数都相同时按品类id升序，保证结果是确定的
+ * 比较器会被发送到各个executor，所以必须实现Serializable接口
+ * @author Erik
+ *
+ */
+public class CategoryTopComparator implements Comparator<Tuple2<CategorySortKey, Long>>, Serializable {
+
+	private static final long serialVersionUID = 2915847706301748417L;
+
+	public int compare(Tuple2<CategorySortKey, Long> o1, Tuple2<CategorySortKey, Long> o2) {
+		int result = o2._1.compareTo(o1._1);
+		if(result != 0) {
+			return result;
+		}
+		long categoryid1 = o1._2;
+		long categoryid2 = o2._2;
+		if(categoryid1 < categoryid2) {
+			return -1;
+		}else if(categoryid1 > categoryid2) {
+			return 1;
+		}
+		return 0;
+	}
+
+}
@@ -0,0 +1,381 @@
+package com.erik.sparkproject.spark.session;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.Partitioner;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.sql.DataFrame;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.SQLContext;
+import org.apache.spark.sql.SaveMode;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+
+import com.erik.sparkproject.conf.ConfigurationManager;
+import com.erik.sparkproject.constant.Constants;
+
+import scala.Tuple2;
+
+/**
+ * 按天保存的session聚合中间结果
+ *
+ * 分析人员经常对重叠的日期范围反复创建任务，比如每天都看最近30天，
+ * 原来每个任务都要重新读取、聚合30天的全部行为数据，其中29天前一个任务已经聚合过了
+ *
+ * 开启session.aggr.daily.enabled以后：
+ * 1.每天的行为数据按session聚合成SessionAggrCombiner，以Parquet格式保存在
+ *   session.aggr.daily.path/date=日期 目录下，每个session每天只有一行
+ * 2.同时记录聚合时这一天行为数据的版本（文件个数、大小、修改时间），
+ *   保存在 _version/date=日期 文件中
+ * 3.新任务只重新聚合没有保存过的日期，以及行为数据版本发生变化（补数据、重新导入）的日期，
+ *   其他日期直接读取保存的中间结果
+ * 4.所有日期的中间结果union起来，再按session合并一次，跨天的session在每天各有一条中间结果，
+ *   合并以后和直接聚合整个日期范围的结果相同
+ *
+ * 行为数据的版本根据Parquet文件计算，所以只在action.source为parquet时生效
+ *
+ * 重新聚合的结果先写到_tmp下的临时目录，写完以后每天的目录再rename到正式目录，最后写版本文件，
+ * 写到一半失败的时候不会留下不完整的中间结果
+ * 没有锁：两个任务同时重新聚合同一天的时候，两边都会完整地聚合一遍，后rename的覆盖先rename的，
+ * 结果都是正确的，但是先完成的任务如果还在读取这一天的目录，文件可能会被另一个任务替换掉而读取失败，
+ * 这种情况下重新提交任务即可
+ * @author Erik
+ *
+ */
+public class DailySessionAggrStore {
+
+	private static final StructType SCHEMA = DataTypes.createStructType(new StructField[] {
+			DataTypes.createStructField("session_id", DataTypes.StringType, true),
+			DataTypes.createStructField("user_id", DataTypes.LongType, true),
+			DataTypes.createStructField("start_time", DataTypes.LongType, true),
+			DataTypes.createStructField("end_time", DataTypes.LongType, true),
+			DataTypes.createStructField("step_length", DataTypes.IntegerType, true),
+			DataTypes.createStructField("search_keywords",
+					DataTypes.createArrayType(DataTypes.StringType), true),
+			DataTypes.createStructField("click_category_ids",
+					DataTypes.createArrayType(DataTypes.LongType), true),
+			DataTypes.createStructField("date", DataTypes.StringType, true)});
+
+	/**
+	 * 是否开启按天保存session聚合中间结果
+	 */
+	public static boolean isEnabled() {
+		return ConfigurationManager.getBoolean(Constants.SESSION_AGGR_DAILY_ENABLED);
+	}
+
+	/**
+	 * 获取日期范围内按session聚合的中间结果
+	 * 缺少或者已经过期的日期先重新聚合并保存，然后合并所有日期的中间结果
+	 * @param sqlContext SQLContext
+	 * @param startDate 开始日期
+	 * @param endDate 结束日期
+	 * @return <sessionid,中间结果>
+	 */
+	public static JavaPairRDD<String, SessionAggrCombiner> load(
+			SQLContext sqlContext, String startDate, String endDate) {
+		String path = ConfigurationManager.getProperty(Constants.SESSION_AGGR_DAILY_PATH);
+		String actionPath = ConfigurationManager.getProperty(Constants.ACTION_PARQUET_PATH);
+		List<String> dates = getDates(startDate, endDate);
+
+		List<String> staleDates = new ArrayList<String>();
+		List<String> staleVersions = new ArrayList<String>();
+		List<String> dayPaths = new ArrayList<String>();
+		FileSystem fs = null;
+		try {
+			Path root = new Path(path);
+			fs = root.getFileSystem(sqlContext.sparkContext().hadoopConfiguration());
+			for(String date : dates) {
+				//先记录行为数据当前的版本，聚合过程中数据又发生变化的话，下一次任务会重新聚合
+				String version = ActionParquetStore.getPartitionVersion(fs, actionPath, date);
+				if(!version.equals(readVersion(fs, getVersionPath(path, date)))) {
+					staleDates.add(date);
+					staleVersions.add(version);
+				}
+			}
+
+			if(!staleDates.isEmpty()) {
+				materialize(sqlContext, fs, path, staleDates);
+				for(int i = 0; i < staleDates.size(); i++) {
+					writeVersion(fs, getVersionPath(path, staleDates.get(i)), staleVersions.get(i));
+				}
+			}
+
+			//没有行为数据的日期不会有中间结果的目录
+			for(String date : dates) {
+				Path dayPath = new Path(root, "date=" + date);
+				if(fs.exists(dayPath)) {
+					dayPaths.add(dayPath.toString());
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			throw new RuntimeException("读取session按天聚合结果失败：" + path, e);
+		}
+
+		System.out.println("session按天聚合：共" + dates.size() + "天，复用"
+				+ (dates.size() - staleDates.size()) + "天，重新聚合"
+				+ staleDates.size() + "天" + staleDates);
+
+		if(dayPaths.isEmpty()) {
+			return JavaPairRDD.fromJavaRDD(JavaSparkContext.fromSparkContext(sqlContext.sparkContext())
+					.<Tuple2<String, SessionAggrCombiner>>emptyRDD());
+		}
+
+		JavaPairRDD<String, SessionAggrCombiner> sessionid2CombinerRDD = sqlContext.read()
+				.parquet(dayPaths.toArray(new String[dayPaths.size()]))
+				.select("session_id", "user_id", "start_time", "end_time", "step_length",
+						"search_keywords", "click_category_ids")
+				.javaRDD()
+				.mapToPair(new PairFunction<Row, String, SessionAggrCombiner>() {
+
+					private static final long serialVersionUID = 1L;
+
+					public Tuple2<String, SessionAggrCombiner> call(Row row) throws Exception {
+						SessionAggrCombiner combiner = new SessionAggrCombiner(
+								row.getLong(1), row.getLong(2), row.getLong(3), row.getInt(4),
+								row.<String>getList(5), row.<Long>getList(6));
+						return new Tuple2<String, SessionAggrCombiner>(row.getString(0), combiner);
+					}
+
+				});
+
+		//只有一天的时候每个session只有一条中间结果，不需要再合并
+		if(dayPaths.size() == 1) {
+			return sessionid2CombinerRDD;
+		}
+
+		return sessionid2CombinerRDD.reduceByKey(
+				new Function2<SessionAggrCombiner, SessionAggrCombiner, SessionAggrCombiner>() {
+
+					private static final long serialVersionUID = 1L;
+
+					public SessionAggrCombiner call(SessionAggrCombiner combiner1,
+							SessionAggrCombiner combiner2) throws Exception {
+						return combiner1.merge(combiner2);
+					}
+
+				});
+	}
+
+	/**
+	 * 重新聚合指定日期的行为数据，写到每天的目录中
+	 * @param sqlContext SQLContext
+	 * @param fs FileSystem
+	 * @param path 中间结果的根目录
+	 * @param staleDates 需要重新聚合的日期，按日期升序
+	 */
+	private static void materialize(SQLContext sqlContext, FileSystem fs,
+			String path, final List<String> staleDates) throws IOException {
+		long startTime = System.currentTimeMillis();
+
+		//这里读取全部的行为数据，不能使用任务的候选session过滤，否则保存的中间结果是不完整的
+		final HashSet<String> staleDateSet = new HashSet<String>(staleDates);
+		JavaRDD<Row> actionRDD = new UserVisitActionScan(sqlContext)
+				.dateRange(staleDates.get(0), staleDates.get(staleDates.size() - 1))
+				.withSessionAggr()
+				.withDate()
+				.build()
+				.filter(new Function<Row, Boolean>() {
+
+					private static final long serialVersionUID = 1L;
+
+					public Boolean call(Row row) throws Exception {
+						return staleDateSet.contains(row.getString(0));
+					}
+
+				});
+
+		//按<date,sessionid>聚合，跨天的session每天一条中间结果
+		JavaPairRDD<Tuple2<String, String>, SessionAggrCombiner> combinerRDD = SaltedAggregator.combineByKey(
+				actionRDD.mapToPair(new PairFunction<Row, Tuple2<String, String>, Row>() {
+
+					private static final long serialVersionUID = 1L;
+
+					public Tuple2<Tuple2<String, String>, Row> call(Row row) throws Exception {
+						return new Tuple2<Tuple2<String, String>, Row>(
+								new Tuple2<String, String>(row.getString(0), row.getString(2)), row);
+					}
+
+				}),
+				new Function<Row, SessionAggrCombiner>() {
+
+					private static final long serialVersionUID = 1L;
+
+					public SessionAggrCombiner call(Row row) throws Exception {
+						return new SessionAggrCombiner().add(row);
+					}
+
+				},
+				new Function2<SessionAggrCombiner, Row, SessionAggrCombiner>() {
+
+					private static final long serialVersionUID = 1L;
+
+					public SessionAggrCombiner call(SessionAggrCombiner combiner, Row row)
+							throws Exception {
+						return combiner.add(row);
+					}
+
+				},
+				new Function2<SessionAggrCombiner, SessionAggrCombiner, SessionAggrCombiner>() {
+
+					private static final long serialVersionUID = 1L;
+
+					public SessionAggrCombiner call(SessionAggrCombiner combiner1,
+							SessionAggrCombiner combiner2) throws Exception {
+						return combiner1.merge(combiner2);
+					}
+
+				},
+				"daily session");
+
+		//每天的中间结果按session分到buckets个partition中，一天由多个task并行写入，
+		//每天的文件个数也只有buckets个，不会每个partition在每天的目录下都写一个小文件
+		int buckets = Math.max(1, combinerRDD.partitions().size() / staleDates.size());
+		JavaRDD<Row> rowRDD = combinerRDD
+				.partitionBy(new DateBucketPartitioner(staleDates, buckets))
+				.map(new Function<Tuple2<Tuple2<String, String>, SessionAggrCombiner>, Row>() {
+
+					private static final long serialVersionUID = 1L;
+
+					public Row call(Tuple2<Tuple2<String, String>, SessionAggrCombiner> tuple)
+							throws Exception {
+						SessionAggrCombiner combiner = tuple._2;
+						return RowFactory.create(tuple._1._2, combiner.getUserid(),
+								combiner.getStartTime(), combiner.getEndTime(), combiner.getStepLength(),
+								new ArrayList<String>(combiner.getSearchKeywords()),
+								new ArrayList<Long>(combiner.getClickCategoryIds()),
+								tuple._1._1);
+					}
+
+				});
+
+		//先写到临时目录，写完以后每天的目录rename到正式目录
+		Path tmpPath = new Path(path, "_tmp/" + UUID.randomUUID());
+		try {
+			DataFrame aggrDF = sqlContext.createDataFrame(rowRDD, SCHEMA);
+			aggrDF.write()
+					.mode(SaveMode.Overwrite)
+					.partitionBy("date")
+					.parquet(tmpPath.toString());
+
+			for(String date : staleDates) {
+				Path dayPath = new Path(path, "date=" + date);
+				Path tmpDayPath = new Path(tmpPath, "date=" + date);
+				fs.delete(dayPath, true);
+				//没有行为数据的日期没有目录
+				if(fs.exists(tmpDayPath) && !fs.rename(tmpDayPath, dayPath)) {
+					throw new IOException("移动目录失败：" + tmpDayPath + " -> " + dayPath);
+				}
+			}
+		} finally {
+			fs.delete(tmpPath, true);
+		}
+
+		System.out.println("session按天聚合结果写入：" + path + "，耗时"
+				+ (System.currentTimeMillis() - startTime) + "ms");
+	}
+
+	/**
+	 * 开始日期到结束日期之间的每一天
+	 */
+	static List<String> getDates(String startDate, String endDate) {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		List<String> dates = new ArrayList<String>();
+		try {
+			Calendar calendar = Calendar.getInstance();
+			calendar.setTime(dateFormat.parse(startDate));
+			String date = dateFormat.format(calendar.getTime());
+			while(date.compareTo(endDate) <= 0) {
+				dates.add(date);
+				calendar.add(Calendar.DAY_OF_YEAR, 1);
+				date = dateFormat.format(calendar.getTime());
+			}
+		} catch (ParseException e) {
+			e.printStackTrace();
+			throw new RuntimeException("日期格式错误：" + startDate, e);
+		}
+		return dates;
+	}
+
+	private static Path getVersionPath(String path, String date) {
+		return new Path(path, "_version/date=" + date);
+	}
+
+	private static String readVersion(FileSystem fs, Path versionPath) throws IOException {
+		if(!fs.exists(versionPath)) {
+			return null;
+		}
+		BufferedReader reader = new BufferedReader(
+				new InputStreamReader(fs.open(versionPath), "UTF-8"));
+		try {
+			return reader.readLine();
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static void writeVersion(FileSystem fs, Path versionPath, String version)
+			throws IOException {
+		OutputStream out = fs.create(versionPath, true);
+		try {
+			out.write(version.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * 按<日期,sessionid>分区，每个日期buckets个partition，同一天的session按hash分到这些partition中
+	 */
+	private static class DateBucketPartitioner extends Partitioner {
+
+		private static final long serialVersionUID = 1L;
+
+		//日期 -> 第几个日期，每条数据查找一次，使用HashMap
+		private final HashMap<String, Integer> dateIndexes = new HashMap<String, Integer>();
+		private final int buckets;
+
+		DateBucketPartitioner(List<String> dates, int buckets) {
+			for(int i = 0; i < dates.size(); i++) {
+				dateIndexes.put(dates.get(i), i);
+			}
+			this.buckets = buckets;
+		}
+
+		@Override
+		public int numPartitions() {
+			return dateIndexes.size() * buckets;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public int getPartition(Object key) {
+			Tuple2<String, String> dateSession = (Tuple2<String, String>) key;
+			int bucket = dateSession._2 == null ? 0 
+					: (dateSession._2.hashCode() & Integer.MAX_VALUE) % buckets;
+			return dateIndexes.get(dateSession._1) * buckets + bucket;
+		}
+
+	}
+
+}
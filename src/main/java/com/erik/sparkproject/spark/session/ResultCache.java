@@ -0,0 +1,263 @@
+package com.erik.sparkproject.spark.session;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.sql.SQLContext;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.erik.sparkproject.conf.ConfigurationManager;
+import com.erik.sparkproject.constant.Constants;
+import com.erik.sparkproject.dao.IStagingDAO;
+import com.erik.sparkproject.dao.ITaskResultCacheDAO;
+import com.erik.sparkproject.dao.factory.DAOFactory;
+import com.erik.sparkproject.domain.TaskResultCache;
+import com.erik.sparkproject.util.DateUtils;
+import com.erik.sparkproject.util.ParamUtils;
+
+/**
+ * 任务结果缓存
+ *
+ * 分析人员经常用和之前某个任务完全相同的参数重新提交任务，整个Spark作业又要重新执行一遍
+ *
+ * 开启result.cache.enabled以后：
+ * 1.把任务参数规范化：key按字母排序，多选参数拆开、去重、排序，空参数去掉，
+ *   这样参数的顺序、多选值的顺序不同的任务也能命中
+ * 2.规范化的参数加上影响结果的配置、行为数据的版本（日期范围内每个分区的文件个数、大小、修改时间）
+ *   计算SHA-256，作为缓存key，修改了这些配置以后不会复用之前的结果
+ * 3.命中的时候把之前任务的session_aggr_stat、top10_*等结果复制给当前任务，不再执行Spark作业
+ * 4.没有命中的时候正常执行，执行成功以后把当前任务登记为这个key的结果
+ * 5.超过result.cache.ttl.hours的缓存过期，个数超过result.cache.max.size的时候淘汰最久没有命中的
+ *
+ * 行为数据不是Parquet格式的时候无法计算数据版本，日期范围不包含今天的任务才缓存，只依靠过期时间失效
+ * @author Erik
+ *
+ */
+public class ResultCache {
+
+	//缓存的结果表，命中的时候都要复制
+	private static final String[] TABLES = new String[]{
+			"session_aggr_stat",
+			"session_random_extract",
+			"session_detail",
+			"top10_category",
+			"top10_session"};
+
+	//影响结果的配置，一起计算在缓存key中：
+	//结果写在哪里、是否写session明细、每个品类取多少个session、访问时长和步长的区间
+	//取多少个品类是任务参数topCategoryCount，已经包含在任务参数中
+	private static final String[] RESULT_CONFIG_KEYS = new String[]{
+			Constants.RESULT_SINK,
+			Constants.SESSION_DETAIL_ENABLED,
+			Constants.TOP_SESSION_COUNT,
+			Constants.SESSION_VISIT_LENGTH_BOUNDS,
+			Constants.SESSION_STEP_LENGTH_BOUNDS};
+
+	/**
+	 * 是否开启任务结果缓存
+	 */
+	public static boolean isEnabled() {
+		return ConfigurationManager.getBoolean(Constants.RESULT_CACHE_ENABLED);
+	}
+
+	/**
+	 * 计算任务的缓存key
+	 * @param sqlContext SQLContext
+	 * @param taskParam 任务参数
+	 * @return 缓存key，任务不能缓存的时候返回null
+	 */
+	public static String getCacheKey(SQLContext sqlContext, JSONObject taskParam) {
+		String dataVersion = getDataVersion(sqlContext, taskParam);
+		if(dataVersion == null) {
+			return null;
+		}
+		StringBuilder config = new StringBuilder();
+		for(String key : RESULT_CONFIG_KEYS) {
+			config.append(key).append("=").append(ConfigurationManager.getProperty(key)).append("\n");
+		}
+		return sha256(normalize(taskParam) + "\n" + config + "\n" + dataVersion);
+	}
+
+	/**
+	 * 查找缓存，命中的时候把缓存的结果复制给当前任务
+	 * @param cacheKey 缓存key
+	 * @param taskid 当前任务id
+	 * @return 是否命中
+	 */
+	public static boolean reuse(String cacheKey, long taskid) {
+		ITaskResultCacheDAO taskResultCacheDAO = DAOFactory.getTaskResultCacheDAO();
+		taskResultCacheDAO.createIfNotExists();
+		evict(taskResultCacheDAO);
+
+		TaskResultCache taskResultCache = taskResultCacheDAO.findByKey(cacheKey);
+		//同一个任务重新执行的时候，说明之前的结果有问题，重新计算
+		boolean hit = taskResultCache != null && taskResultCache.getTaskid() != taskid;
+		if(hit) {
+			IStagingDAO stagingDAO = DAOFactory.getStagingDAO();
+			for(String table : TABLES) {
+				stagingDAO.copy(table, taskResultCache.getTaskid(), taskid);
+			}
+			taskResultCacheDAO.updateHit(cacheKey, DateUtils.formatTime(new Date()));
+			System.out.println("结果缓存命中：复用任务" + taskResultCache.getTaskid() + "的结果");
+		} else {
+			System.out.println("结果缓存未命中：" + cacheKey);
+		}
+
+		System.out.println(getStats(taskResultCacheDAO));
+		return hit;
+	}
+
+	/**
+	 * 任务执行成功以后，登记为缓存key对应的结果
+	 * @param cacheKey 缓存key
+	 * @param taskid 任务id
+	 */
+	public static void save(String cacheKey, long taskid) {
+		String now = DateUtils.formatTime(new Date());
+
+		TaskResultCache taskResultCache = new TaskResultCache();
+		taskResultCache.setCacheKey(cacheKey);
+		taskResultCache.setTaskid(taskid);
+		taskResultCache.setCreateTime(now);
+		taskResultCache.setLastHitTime(now);
+		taskResultCache.setHitCount(0);
+
+		DAOFactory.getTaskResultCacheDAO().insert(taskResultCache);
+	}
+
+	/**
+	 * 规范化任务参数
+	 * 参数的值都是JSON数组，多选的值在数组元素中以逗号分隔
+	 * @param taskParam 任务参数
+	 * @return 规范化的参数，每行一个参数
+	 */
+	static String normalize(JSONObject taskParam) {
+		TreeMap<String, TreeSet<String>> params = new TreeMap<String, TreeSet<String>>();
+		for(Map.Entry<String, Object> entry : taskParam.entrySet()) {
+			TreeSet<String> values = new TreeSet<String>();
+			if(entry.getValue() instanceof JSONArray) {
+				for(Object element : (JSONArray) entry.getValue()) {
+					addValues(values, element);
+				}
+			} else {
+				addValues(values, entry.getValue());
+			}
+			if(!values.isEmpty()) {
+				params.put(entry.getKey(), values);
+			}
+		}
+
+		StringBuilder normalized = new StringBuilder();
+		for(Map.Entry<String, TreeSet<String>> param : params.entrySet()) {
+			normalized.append(param.getKey()).append("=");
+			boolean first = true;
+			for(String value : param.getValue()) {
+				if(!first) {
+					normalized.append(",");
+				}
+				normalized.append(value);
+				first = false;
+			}
+			normalized.append("\n");
+		}
+		return normalized.toString();
+	}
+
+	private static void addValues(TreeSet<String> values, Object element) {
+		if(element == null) {
+			return;
+		}
+		for(String value : element.toString().split(",")) {
+			if(value.trim().length() > 0) {
+				values.add(value.trim());
+			}
+		}
+	}
+
+	/**
+	 * 日期范围内行为数据的版本
+	 * @return 数据版本，不能确定数据是否变化的时候返回null
+	 */
+	private static String getDataVersion(SQLContext sqlContext, JSONObject taskParam) {
+		String startDate = ParamUtils.getParam(taskParam, Constants.PARAM_START_DATE);
+		String endDate = ParamUtils.getParam(taskParam, Constants.PARAM_END_DATE);
+		if(startDate == null || endDate == null) {
+			return null;
+		}
+
+		if(!"parquet".equals(ConfigurationManager.getProperty(Constants.ACTION_SOURCE))) {
+			//今天的数据还在不断写入
+			if(endDate.compareTo(DateUtils.getTodayDate()) >= 0) {
+				return null;
+			}
+			return "table:" + startDate + "~" + endDate;
+		}
+
+		String actionPath = ConfigurationManager.getProperty(Constants.ACTION_PARQUET_PATH);
+		StringBuilder version = new StringBuilder();
+		try {
+			FileSystem fs = new Path(actionPath).getFileSystem(
+					sqlContext.sparkContext().hadoopConfiguration());
+			for(String date : DailySessionAggrStore.getDates(startDate, endDate)) {
+				version.append(date).append(":")
+						.append(ActionParquetStore.getPartitionVersion(fs, actionPath, date))
+						.append("\n");
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		return version.toString();
+	}
+
+	private static void evict(ITaskResultCacheDAO taskResultCacheDAO) {
+		long ttlMillis = ConfigurationManager.getInteger(Constants.RESULT_CACHE_TTL_HOURS) * 3600L * 1000L;
+		String expireTime = DateUtils.formatTime(new Date(System.currentTimeMillis() - ttlMillis));
+		//淘汰失败不影响任务执行，只是缓存暂时会多一些
+		try {
+			int evicted = taskResultCacheDAO.evict(expireTime,
+					ConfigurationManager.getInteger(Constants.RESULT_CACHE_MAX_SIZE));
+			if(evicted > 0) {
+				System.out.println("结果缓存淘汰" + evicted + "条");
+			}
+		} catch (RuntimeException e) {
+			System.out.println("结果缓存淘汰失败：" + e.getMessage());
+		}
+	}
+
+	/**
+	 * 缓存的命中率
+	 * 每条缓存都是一次未命中以后登记的，所以命中率为 命中次数/(命中次数+缓存个数)，
+	 * 已经淘汰的缓存不计算在内
+	 */
+	private static String getStats(ITaskResultCacheDAO taskResultCacheDAO) {
+		long[] stats = taskResultCacheDAO.getStats();
+		long total = stats[0] + stats[1];
+		double hitRate = total == 0 ? 0 : (double) stats[1] / total;
+		return "结果缓存统计：缓存个数=" + stats[0]
+				+ "，命中次数=" + stats[1]
+				+ "，命中率=" + String.format("%.2f", hitRate * 100) + "%";
+	}
+
+	private static String sha256(String text) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			StringBuilder hex = new StringBuilder();
+			for(byte b : digest.digest(text.getBytes("UTF-8"))) {
+				hex.append(String.format("%02x", b & 0xff));
+			}
+			return hex.toString();
+		} catch (Exception e) {
+			e.printStackTrace();
+			throw new RuntimeException("计算缓存key失败", e);
+		}
+	}
+
+}
@@ -0,0 +1,207 @@
+package com.erik.sparkproject.spark.session;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.spark.TaskContext;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.broadcast.Broadcast;
+
+import com.erik.sparkproject.conf.ConfigurationManager;
+import com.erik.sparkproject.constant.Constants;
+
+import scala.Tuple2;
+
+/**
+ * 数据倾斜情况下的两阶段聚合
+ *
+ * 少数几个key的数据量特别大时（比如爬虫session、特别热门的品类），
+ * 聚合时这几个key所在的task会比其他task慢很多，整个作业的耗时都被这一个task拖住
+ *
+ * 解决方案：
+ * 1.先对key进行采样，统计出采样数据中占比超过阈值的热点key
+ * 2.把数据拆成热点key和非热点key两部分，非热点key直接combineByKey，只有一次shuffle
+ * 3.热点key的第一阶段，加上随机前缀（盐），把一个热点key打散到多个task中进行局部聚合
+ * 4.热点key的第二阶段，去掉随机前缀，再进行一次全局聚合，此时每个热点key最多只有盐的个数条记录
+ * 5.两部分的聚合结果union起来，它们的key没有重复
+ *
+ * 拆分的时候两次filter会把上游RDD计算两遍，但是只有读取和map，
+ * 比所有数据都经过两次shuffle的代价小得多
+ *
+ * 通过配置skew.aggregation.enabled开启，没有开启时就是普通的combineByKey
+ * @author Erik
+ *
+ */
+public class SaltedAggregator {
+
+	/**
+	 * 按key聚合，与JavaPairRDD.combineByKey的语义相同
+	 * @param rdd 需要聚合的RDD
+	 * @param createCombiner 创建聚合中间结果
+	 * @param mergeValue 将值累加到中间结果
+	 * @param mergeCombiners 合并中间结果
+	 * @param name 聚合的名称，打印热点key时使用
+	 * @return 聚合结果
+	 */
+	public static <K, V, C> JavaPairRDD<K, C> combineByKey(
+			JavaPairRDD<K, V> rdd,
+			Function<V, C> createCombiner,
+			Function2<C, V, C> mergeValue,
+			final Function2<C, C, C> mergeCombiners,
+			String name) {
+		if(!ConfigurationManager.getBoolean(Constants.SKEW_AGGREGATION_ENABLED)) {
+			return rdd.combineByKey(createCombiner, mergeValue, mergeCombiners);
+		}
+
+		HashSet<K> hotKeys = sampleHotKeys(rdd);
+		if(hotKeys.isEmpty()) {
+			return rdd.combineByKey(createCombiner, mergeValue, mergeCombiners);
+		}
+
+		//热点key可能有很多（比如session id），只打印个数
+		System.out.println(name + "聚合发现" + hotKeys.size() + "个热点key，进行加盐聚合");
+
+		final int saltNum = ConfigurationManager.getInteger(Constants.SKEW_SALT_NUM);
+		final Broadcast<HashSet<K>> hotKeysBroadcast =
+				JavaSparkContext.fromSparkContext(rdd.context()).broadcast(hotKeys);
+
+		//非热点key：普通的combineByKey
+		JavaPairRDD<K, C> coldRDD = rdd.filter(new Function<Tuple2<K, V>, Boolean>() {
+
+			private static final long serialVersionUID = 1L;
+
+			public Boolean call(Tuple2<K, V> tuple) throws Exception {
+				return !hotKeysBroadcast.value().contains(tuple._1);
+			}
+
+		}).combineByKey(createCombiner, mergeValue, mergeCombiners);
+
+		//热点key第一阶段：加上随机前缀，进行局部聚合
+		//随机数以partition编号为种子，partition因为失败重算或者推测执行再计算一次的时候，
+		//每条数据分到的前缀和第一次完全相同，不会因为shuffle输出不一致而丢失或者重复数据
+		JavaPairRDD<Tuple2<Integer, K>, V> saltedRDD = rdd.filter(new Function<Tuple2<K, V>, Boolean>() {
+
+			private static final long serialVersionUID = 1L;
+
+			public Boolean call(Tuple2<K, V> tuple) throws Exception {
+				return hotKeysBroadcast.value().contains(tuple._1);
+			}
+
+		}).mapToPair(new PairFunction<Tuple2<K, V>, Tuple2<Integer, K>, V>() {
+
+			private static final long serialVersionUID = 1L;
+
+			private transient Random random;
+
+			public Tuple2<Tuple2<Integer, K>, V> call(Tuple2<K, V> tuple) throws Exception {
+				if(random == null) {
+					random = new Random(TaskContext.get().partitionId());
+				}
+				return new Tuple2<Tuple2<Integer, K>, V>(
+						new Tuple2<Integer, K>(random.nextInt(saltNum), tuple._1), tuple._2);
+			}
+
+		});
+
+		JavaPairRDD<Tuple2<Integer, K>, C> partialRDD = saltedRDD.combineByKey(
+				createCombiner, mergeValue, mergeCombiners);
+
+		//热点key第二阶段：去掉随机前缀，进行全局聚合
+		JavaPairRDD<K, C> unsaltedRDD = partialRDD.mapToPair(
+				new PairFunction<Tuple2<Tuple2<Integer, K>, C>, K, C>() {
+
+					private static final long serialVersionUID = 1L;
+
+					public Tuple2<K, C> call(Tuple2<Tuple2<Integer, K>, C> tuple) throws Exception {
+						return new Tuple2<K, C>(tuple._1._2, tuple._2);
+					}
+
+				});
+
+		//和非热点key使用同一个partitioner，union的时候保留partitioner，partition个数也不会翻倍
+		return coldRDD.union(unsaltedRDD.reduceByKey(coldRDD.partitioner().get(), mergeCombiners));
+	}
+
+	/**
+	 * 按key聚合，与JavaPairRDD.reduceByKey的语义相同
+	 * @param rdd 需要聚合的RDD
+	 * @param func 聚合函数
+	 * @param name 聚合的名称，打印热点key时使用
+	 * @return 聚合结果
+	 */
+	public static <K, V> JavaPairRDD<K, V> reduceByKey(
+			JavaPairRDD<K, V> rdd,
+			Function2<V, V, V> func,
+			String name) {
+		return combineByKey(rdd, new Function<V, V>() {
+
+			private static final long serialVersionUID = 1L;
+
+			public V call(V v) throws Exception {
+				return v;
+			}
+
+		}, func, func, name);
+	}
+
+	/**
+	 * 对key进行采样，找出热点key
+	 * 采样数据中占比不低于skew.hot.key.ratio的key就是热点key
+	 * @param rdd 需要聚合的RDD
+	 * @return 热点key
+	 */
+	private static <K, V> HashSet<K> sampleHotKeys(JavaPairRDD<K, V> rdd) {
+		double fraction = ConfigurationManager.getDouble(Constants.SKEW_SAMPLE_FRACTION);
+		double hotKeyRatio = ConfigurationManager.getDouble(Constants.SKEW_HOT_KEY_RATIO);
+
+		//采样出来的key只有原数据的一小部分，缓存起来，计数和统计各key次数时只需要计算一次原RDD
+		JavaRDD<K> sampledKeyRDD = rdd.keys().sample(false, fraction).cache();
+		long sampledCount = sampledKeyRDD.count();
+
+		HashSet<K> hotKeys = new HashSet<K>();
+		if(sampledCount > 0) {
+			final long hotKeyThreshold = Math.max(1L, (long) Math.ceil(sampledCount * hotKeyRatio));
+
+			List<Tuple2<K, Long>> hotKeyCounts = sampledKeyRDD.mapToPair(
+					new PairFunction<K, K, Long>() {
+
+						private static final long serialVersionUID = 1L;
+
+						public Tuple2<K, Long> call(K key) throws Exception {
+							return new Tuple2<K, Long>(key, 1L);
+						}
+
+					}).reduceByKey(new Function2<Long, Long, Long>() {
+
+						private static final long serialVersionUID = 1L;
+
+						public Long call(Long v1, Long v2) throws Exception {
+							return v1 + v2;
+						}
+
+					}).filter(new Function<Tuple2<K, Long>, Boolean>() {
+
+						private static final long serialVersionUID = 1L;
+
+						public Boolean call(Tuple2<K, Long> tuple) throws Exception {
+							return tuple._2 >= hotKeyThreshold;
+						}
+
+					}).collect();
+
+			for(Tuple2<K, Long> hotKeyCount : hotKeyCounts) {
+				hotKeys.add(hotKeyCount._1);
+			}
+		}
+
+		sampledKeyRDD.unpersist();
+		return hotKeys;
+	}
+
+}
@@ -0,0 +1,149 @@
+package com.erik.sparkproject.spark.session;
+
+import java.io.Serializable;
+
+/**
+ * session粒度的聚合数据
+ *
+ * 原来的实现是用key=value|key=value的连接串来表示session聚合数据的，
+ * 后面过滤、随机抽取、join的时候，每个字段都要重新split一遍连接串
+ * 在千万级session的情况下，拼接和解析字符串本身就成了最大的CPU开销，同时也增大了shuffle的数据量
+ *
+ * 这里改成一个使用基本类型字段的可序列化对象，在整个作业中流转，
+ * 并在SparkConf中注册到Kryo，进一步减小序列化以后的体积
+ * @author Erik
+ *
+ */
+public class SessionAggr implements Serializable {
+
+	private static final long serialVersionUID = 4253419838071276045L;
+
+	private String sessionid;
+	private long userid;
+	private String[] searchKeywords;
+	private long[] clickCategoryIds;
+	//session访问时长（秒）
+	private long visitLength;
+	//session访问步长
+	private int stepLength;
+	//session开始时间（毫秒）
+	private long startTime;
+
+	//以下为join用户信息之后才有的字段
+	private int age;
+	private String professional;
+	private String city;
+	private String sex;
+
+	public SessionAggr() {
+
+	}
+
+	/**
+	 * 获取逗号拼接的搜索词，写入MySQL时使用
+	 * @return 搜索词
+	 */
+	public String getSearchKeywordsString() {
+		return join(searchKeywords);
+	}
+
+	/**
+	 * 获取逗号拼接的点击品类id，写入MySQL时使用
+	 * @return 点击品类id
+	 */
+	public String getClickCategoryIdsString() {
+		if(clickCategoryIds == null) {
+			return "";
+		}
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < clickCategoryIds.length; i++) {
+			if(i > 0) {
+				builder.append(",");
+			}
+			builder.append(clickCategoryIds[i]);
+		}
+		return builder.toString();
+	}
+
+	private static String join(String[] values) {
+		if(values == null) {
+			return "";
+		}
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < values.length; i++) {
+			if(i > 0) {
+				builder.append(",");
+			}
+			builder.append(values[i]);
+		}
+		return builder.toString();
+	}
+
+	public String getSessionid() {
+		return sessionid;
+	}
+	public void setSessionid(String sessionid) {
+		this.sessionid = sessionid;
+	}
+	public long getUserid() {
+		return userid;
+	}
+	public void setUserid(long userid) {
+		this.userid = userid;
+	}
+	public String[] getSearchKeywords() {
+		return searchKeywords;
+	}
+	public void setSearchKeywords(String[] searchKeywords) {
+		this.searchKeywords = searchKeywords;
+	}
+	public long[] getClickCategoryIds() {
+		return clickCategoryIds;
+	}
+	public void setClickCategoryIds(long[] clickCategoryIds) {
+		this.clickCategoryIds = clickCategoryIds;
+	}
+	public long getVisitLength() {
+		return visitLength;
+	}
+	public void setVisitLength(long visitLength) {
+		this.visitLength = visitLength;
+	}
+	public int getStepLength() {
+		return stepLength;
+	}
+	public void setStepLength(int stepLength) {
+		this.stepLength = stepLength;
+	}
+	public long getStartTime() {
+		return startTime;
+	}
+	public void setStartTime(long startTime) {
+		this.startTime = startTime;
+	}
+	public int getAge() {
+		return age;
+	}
+	public void setAge(int age) {
+		this.age = age;
+	}
+	public String getProfessional() {
+		return professional;
+	}
+	public void setProfessional(String professional) {
+		this.professional = professional;
+	}
+	public String getCity() {
+		return city;
+	}
+	public void setCity(String city) {
+		this.city = city;
+	}
+	public String getSex() {
+		return sex;
+	}
+	public void setSex(String sex) {
+		this.sex = sex;
+	}
+
+}
@@ -0,0 +1,150 @@
+package com.erik.sparkproject.spark.session;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+
+import org.apache.spark.sql.Row;
+
+import com.erik.sparkproject.util.DateUtils;
+import com.erik.sparkproject.util.StringUtils;
+
+/**
+ * session聚合的中间结果
+ *
+ * 原来是先groupByKey，把一个session的所有行为都拉到一起，再遍历Iterable<Row>进行聚合
+ * 对于爬虫之类的session，一个session可能有上万条行为，全部放在内存中很容易导致executor OOM
+ *
+ * 现在使用combineByKey，每来一条行为就直接累加到这个可变的中间结果中，
+ * 在map端就完成了局部聚合，shuffle的时候每个partition的每个session只有一条很小的记录
+ * @author Erik
+ *
+ */
+public class SessionAggrCombiner implements Serializable {
+
+	private static final long serialVersionUID = -3265804328372160315L;
+
+	private long userid;
+	//session的起始和结束时间（毫秒）
+	private long startTime = Long.MAX_VALUE;
+	private long endTime = Long.MIN_VALUE;
+	//session的访问步长
+	private int stepLength;
+	private LinkedHashSet<String> searchKeywords = new LinkedHashSet<String>();
+	private LinkedHashSet<Long> clickCategoryIds = new LinkedHashSet<Long>();
+
+	public SessionAggrCombiner() {
+
+	}
+
+	/**
+	 * 从保存的中间结果恢复
+	 */
+	public SessionAggrCombiner(long userid, long startTime, long endTime, int stepLength,
+			Collection<String> searchKeywords, Collection<Long> clickCategoryIds) {
+		this.userid = userid;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.stepLength = stepLength;
+		this.searchKeywords.addAll(searchKeywords);
+		this.clickCategoryIds.addAll(clickCategoryIds);
+	}
+
+	/**
+	 * 累加一条行为数据
+	 * @param row 行为数据
+	 * @return this
+	 */
+	public SessionAggrCombiner add(Row row) {
+		userid = row.getLong(1);
+
+		//并不是每一行访问行为都有searchKeyword和clickCategoryId两个字段的
+		//只有搜索行为有searchKeyword字段，只有点击品类的行为有clickCategoryId字段
+		String searchKeyword = row.getString(5);
+		if(StringUtils.isNotEmpty(searchKeyword)) {
+			searchKeywords.add(searchKeyword);
+		}
+		if(!row.isNullAt(6)) {
+			clickCategoryIds.add(row.getLong(6));
+		}
+
+		long actionTime = DateUtils.parseTime(row.getString(4)).getTime();
+		if(actionTime < startTime) {
+			startTime = actionTime;
+		}
+		if(actionTime > endTime) {
+			endTime = actionTime;
+		}
+
+		stepLength++;
+		return this;
+	}
+
+	/**
+	 * 合并另一个partition中同一个session的中间结果
+	 * @param other 中间结果
+	 * @return this
+	 */
+	public SessionAggrCombiner merge(SessionAggrCombiner other) {
+		userid = other.userid;
+		if(other.startTime < startTime) {
+			startTime = other.startTime;
+		}
+		if(other.endTime > endTime) {
+			endTime = other.endTime;
+		}
+		stepLength += other.stepLength;
+		searchKeywords.addAll(other.searchKeywords);
+		clickCategoryIds.addAll(other.clickCategoryIds);
+		return this;
+	}
+
+	/**
+	 * 生成最终的session聚合数据
+	 * @param sessionid sessionid
+	 * @return session聚合数据
+	 */
+	public SessionAggr toSessionAggr(String sessionid) {
+		long[] categoryIds = new long[clickCategoryIds.size()];
+		int i = 0;
+		for(long clickCategoryId : clickCategoryIds) {
+			categoryIds[i++] = clickCategoryId;
+		}
+
+		SessionAggr aggr = new SessionAggr();
+		aggr.setSessionid(sessionid);
+		aggr.setUserid(userid);
+		aggr.setSearchKeywords(searchKeywords.toArray(new String[searchKeywords.size()]));
+		aggr.setClickCategoryIds(categoryIds);
+		//计算session访问时长（秒）
+		aggr.setVisitLength((endTime - startTime) / 1000);
+		aggr.setStepLength(stepLength);
+		aggr.setStartTime(startTime);
+		return aggr;
+	}
+
+	public long getUserid() {
+		return userid;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public long getEndTime() {
+		return endTime;
+	}
+
+	public int getStepLength() {
+		return stepLength;
+	}
+
+	public LinkedHashSet<String> getSearchKeywords() {
+		return searchKeywords;
+	}
+
+	public LinkedHashSet<Long> getClickCategoryIds() {
+		return clickCategoryIds;
+	}
+
+}
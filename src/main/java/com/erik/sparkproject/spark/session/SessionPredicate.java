@@ -0,0 +1,31 @@
+package com.erik.sparkproject.spark.session;
+
+import java.io.Serializable;
+
+/**
+ * session过滤条件
+ *
+ * 任务参数在Driver端编译成由SessionPredicate组成的不可变的条件树，广播到各个executor
+ * 过滤时直接使用session的类型化字段进行判断，不需要再解析任何字符串
+ *
+ * 如果要增加新的筛选条件，实现这个接口，并在SessionPredicates.compile()中加入即可
+ * @author Erik
+ *
+ */
+public interface SessionPredicate extends Serializable {
+
+	/**
+	 * 判断session是否符合条件
+	 * @param session session聚合数据
+	 * @return 是否符合条件
+	 */
+	boolean test(SessionAggr session);
+
+	/**
+	 * 估计的通过率（0~1）
+	 * 多个条件组合的时候，通过率越低的条件越先判断，尽早短路
+	 * @return 通过率
+	 */
+	double selectivity();
+
+}
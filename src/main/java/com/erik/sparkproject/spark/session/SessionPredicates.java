@@ -0,0 +1,330 @@
+package com.erik.sparkproject.spark.session;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+
+import com.alibaba.fastjson.JSONObject;
+import com.erik.sparkproject.constant.Constants;
+import com.erik.sparkproject.util.LongHashSet;
+import com.erik.sparkproject.util.ParamUtils;
+
+/**
+ * session过滤条件的编译和实现
+ *
+ * 原来的实现，每过滤一个session，ValidUtils都要重新从参数连接串中解析一遍参数，再split逗号分隔的列表
+ * 现在在Driver端把任务参数一次性编译成条件树：
+ * 年龄用int范围，职业、城市、搜索词用HashSet，点击品类用LongHashSet
+ * 过滤的时候只做比较和hash查找
+ * @author Erik
+ *
+ */
+public class SessionPredicates {
+
+	/**
+	 * 没有任何筛选条件时使用，所有session都通过
+	 */
+	public static final SessionPredicate ALWAYS_TRUE = new SessionPredicate() {
+
+		private static final long serialVersionUID = 1L;
+
+		public boolean test(SessionAggr session) {
+			return true;
+		}
+
+		public double selectivity() {
+			return 1.0;
+		}
+
+	};
+
+	/**
+	 * 将任务参数编译成过滤条件
+	 * 没有指定的参数不生成条件
+	 * @param taskParam 任务参数
+	 * @return 过滤条件
+	 */
+	public static SessionPredicate compile(JSONObject taskParam) {
+		List<SessionPredicate> predicates = new ArrayList<SessionPredicate>();
+
+		//按照年龄范围进行过滤（startAge、endAge），起始和结束年龄都指定了才过滤
+		String startAge = ParamUtils.getParam(taskParam, Constants.PARAM_START_AGE);
+		String endAge = ParamUtils.getParam(taskParam, Constants.PARAM_END_AGE);
+		if(startAge != null && endAge != null) {
+			predicates.add(new AgeBetween(Integer.valueOf(startAge.trim()),
+					Integer.valueOf(endAge.trim())));
+		}
+
+		//按照职业范围进行过滤（professionals）
+		HashSet<String> professionals = toStringSet(
+				ParamUtils.getParam(taskParam, Constants.PARAM_PROFESSIONALS));
+		if(professionals != null) {
+			predicates.add(new ProfessionalIn(professionals));
+		}
+
+		//按照城市范围进行过滤（cities）
+		HashSet<String> cities = toStringSet(
+				ParamUtils.getParam(taskParam, Constants.PARAM_CITIES));
+		if(cities != null) {
+			predicates.add(new CityIn(cities));
+		}
+
+		//按照性别过滤
+		String sex = ParamUtils.getParam(taskParam, Constants.PARAM_SEX);
+		if(sex != null && !"".equals(sex.trim())) {
+			predicates.add(new SexEqual(sex.trim()));
+		}
+
+		//按照搜索词过滤，session搜索过任何一个关键词即可
+		HashSet<String> keywords = toStringSet(
+				ParamUtils.getParam(taskParam, Constants.PARAM_KEYWORDS));
+		if(keywords != null) {
+			predicates.add(new SearchKeywordsAny(keywords));
+		}
+
+		//按照点击品类id过滤，session点击过任何一个品类即可
+		LongHashSet categoryIds = toLongSet(
+				ParamUtils.getParam(taskParam, Constants.PARAM_CATEGORY_IDS));
+		if(categoryIds != null) {
+			predicates.add(new ClickCategoryIdsAny(categoryIds));
+		}
+
+		if(predicates.isEmpty()) {
+			return ALWAYS_TRUE;
+		}
+		if(predicates.size() == 1) {
+			return predicates.get(0);
+		}
+		return new And(predicates.toArray(new SessionPredicate[predicates.size()]));
+	}
+
+	private static HashSet<String> toStringSet(String param) {
+		if(param == null) {
+			return null;
+		}
+		HashSet<String> set = new HashSet<String>();
+		for(String value : param.split(",")) {
+			if(!"".equals(value.trim())) {
+				set.add(value.trim());
+			}
+		}
+		return set.isEmpty() ? null : set;
+	}
+
+	private static LongHashSet toLongSet(String param) {
+		if(param == null) {
+			return null;
+		}
+		LongHashSet set = new LongHashSet();
+		for(String value : param.split(",")) {
+			if(!"".equals(value.trim())) {
+				set.add(Long.valueOf(value.trim()));
+			}
+		}
+		return set.isEmpty() ? null : set;
+	}
+
+	/**
+	 * 多个条件同时满足
+	 * 构造时按照通过率从低到高排序，过滤时第一个不满足的条件就直接返回
+	 */
+	public static class And implements SessionPredicate {
+
+		private static final long serialVersionUID = 1L;
+
+		private final SessionPredicate[] predicates;
+
+		public And(SessionPredicate[] predicates) {
+			this.predicates = predicates.clone();
+			Arrays.sort(this.predicates, new Comparator<SessionPredicate>() {
+
+				public int compare(SessionPredicate p1, SessionPredicate p2) {
+					return Double.compare(p1.selectivity(), p2.selectivity());
+				}
+
+			});
+		}
+
+		public boolean test(SessionAggr session) {
+			for(SessionPredicate predicate : predicates) {
+				if(!predicate.test(session)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public double selectivity() {
+			double selectivity = 1.0;
+			for(SessionPredicate predicate : predicates) {
+				selectivity *= predicate.selectivity();
+			}
+			return selectivity;
+		}
+
+	}
+
+	/**
+	 * 年龄范围
+	 */
+	public static class AgeBetween implements SessionPredicate {
+
+		private static final long serialVersionUID = 1L;
+
+		//年龄的大致取值范围，用于估计通过率
+		private static final double AGE_SPAN = 100.0;
+
+		private final int startAge;
+		private final int endAge;
+
+		public AgeBetween(int startAge, int endAge) {
+			this.startAge = startAge;
+			this.endAge = endAge;
+		}
+
+		public boolean test(SessionAggr session) {
+			return session.getAge() >= startAge && session.getAge() <= endAge;
+		}
+
+		public double selectivity() {
+			return Math.max(0.0, Math.min(1.0, (endAge - startAge + 1) / AGE_SPAN));
+		}
+
+	}
+
+	/**
+	 * 职业在指定的范围内
+	 */
+	public static class ProfessionalIn implements SessionPredicate {
+
+		private static final long serialVersionUID = 1L;
+
+		private final HashSet<String> professionals;
+
+		public ProfessionalIn(HashSet<String> professionals) {
+			this.professionals = professionals;
+		}
+
+		public boolean test(SessionAggr session) {
+			return professionals.contains(session.getProfessional());
+		}
+
+		public double selectivity() {
+			return Math.min(1.0, professionals.size() * 0.01);
+		}
+
+	}
+
+	/**
+	 * 城市在指定的范围内
+	 */
+	public static class CityIn implements SessionPredicate {
+
+		private static final long serialVersionUID = 1L;
+
+		private final HashSet<String> cities;
+
+		public CityIn(HashSet<String> cities) {
+			this.cities = cities;
+		}
+
+		public boolean test(SessionAggr session) {
+			return cities.contains(session.getCity());
+		}
+
+		public double selectivity() {
+			return Math.min(1.0, cities.size() * 0.01);
+		}
+
+	}
+
+	/**
+	 * 性别相同
+	 */
+	public static class SexEqual implements SessionPredicate {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String sex;
+
+		public SexEqual(String sex) {
+			this.sex = sex;
+		}
+
+		public boolean test(SessionAggr session) {
+			return sex.equals(session.getSex());
+		}
+
+		public double selectivity() {
+			return 0.5;
+		}
+
+	}
+
+	/**
+	 * 搜索过任何一个指定的关键词
+	 */
+	public static class SearchKeywordsAny implements SessionPredicate {
+
+		private static final long serialVersionUID = 1L;
+
+		private final HashSet<String> keywords;
+
+		public SearchKeywordsAny(HashSet<String> keywords) {
+			this.keywords = keywords;
+		}
+
+		public boolean test(SessionAggr session) {
+			String[] searchKeywords = session.getSearchKeywords();
+			if(searchKeywords == null) {
+				return false;
+			}
+			for(String searchKeyword : searchKeywords) {
+				if(keywords.contains(searchKeyword)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public double selectivity() {
+			return Math.min(1.0, keywords.size() * 0.05);
+		}
+
+	}
+
+	/**
+	 * 点击过任何一个指定的品类
+	 */
+	public static class ClickCategoryIdsAny implements SessionPredicate {
+
+		private static final long serialVersionUID = 1L;
+
+		private final LongHashSet categoryIds;
+
+		public ClickCategoryIdsAny(LongHashSet categoryIds) {
+			this.categoryIds = categoryIds;
+		}
+
+		public boolean test(SessionAggr session) {
+			long[] clickCategoryIds = session.getClickCategoryIds();
+			if(clickCategoryIds == null) {
+				return false;
+			}
+			for(long clickCategoryId : clickCategoryIds) {
+				if(categoryIds.contains(clickCategoryId)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public double selectivity() {
+			return Math.min(1.0, categoryIds.size() * 0.02);
+		}
+
+	}
+
+}
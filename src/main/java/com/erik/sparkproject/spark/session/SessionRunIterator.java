@@ -0,0 +1,60 @@
+package com.erik.sparkproject.spark.session;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.spark.sql.Row;
+
+import scala.Tuple2;
+
+/**
+ * 按session连续排列的行为数据的聚合
+ *
+ * 行为数据按session分桶、桶内按session和时间排序存储的时候，
+ * 一个partition中同一个session的行为是连续的一段，
+ * 依次读取行为，sessionid变化的时候就输出上一个session的聚合结果，
+ * 同一时间只有一个session的中间结果在内存中，不需要shuffle，也不需要把session的行为都放在一起
+ * @author Erik
+ *
+ */
+public class SessionRunIterator implements Iterator<Tuple2<String, SessionAggrCombiner>> {
+
+	private final Iterator<Row> rows;
+	//已经读取、还没有聚合的下一个session的第一条行为
+	private Row pending;
+
+	public SessionRunIterator(Iterator<Row> rows) {
+		this.rows = rows;
+		this.pending = rows.hasNext() ? rows.next() : null;
+	}
+
+	public boolean hasNext() {
+		return pending != null;
+	}
+
+	public Tuple2<String, SessionAggrCombiner> next() {
+		if(pending == null) {
+			throw new NoSuchElementException();
+		}
+
+		String sessionid = pending.getString(2);
+		SessionAggrCombiner combiner = new SessionAggrCombiner().add(pending);
+		pending = null;
+
+		while(rows.hasNext()) {
+			Row row = rows.next();
+			if(!sessionid.equals(row.getString(2))) {
+				pending = row;
+				break;
+			}
+			combiner.add(row);
+		}
+
+		return new Tuple2<String, SessionAggrCombiner>(sessionid, combiner);
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+}
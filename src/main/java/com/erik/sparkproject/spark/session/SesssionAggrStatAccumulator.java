@@ -1,98 +1,140 @@
 package com.erik.sparkproject.spark.session;
 
-import org.apache.spark.AccumulatorParam;
+import org.apache.spark.AccumulableParam;
 
+import com.erik.sparkproject.conf.ConfigurationManager;
 import com.erik.sparkproject.constant.Constants;
-import com.erik.sparkproject.util.StringUtils;
 
 /**
  * session聚合统计Accumulator
- * 使用自己定义的一些数据格式，比如String，甚至说，我们可以自己定义model，自己定义的类（必须可序列化）
- * 然后可以基于这种特殊的数据格式实现复杂的分布式计算逻辑
- * 各个task分布式在运行，可以根据自己的需求，task给Accumulator传入不同的值
- * 根据不同的值，去做复杂的逻辑
- * 
- * Spark Core里很使用的高端技术
+ *
+ * 原来的实现使用key=value|key=value的连接串保存16个计数，
+ * 每累加一次，都要split两次连接串，再重新拼接一个新的连接串，
+ * 而且addInPlace和addAccumulator直接返回null，合并各个task的结果时数据就丢了
+ *
+ * 现在改用long[]保存计数，数组的下标就是对应的范围区间：
+ * [0]           session总数
+ * [1] ~ [9]     访问时长区间：1s_3s、4s_6s、7s_9s、10s_30s、30s_60s、1m_3m、3m_10m、10m_30m、30m
+ * [10] ~ [15]   访问步长区间：1_3、4_6、7_9、10_30、30_60、60
+ *
+ * 每个session通过过滤以后，直接把session本身累加进来，
+ * 在数组中找到对应的区间下标加1，不需要创建任何字符串
+ *
+ * 区间的边界（每个区间的下限）从配置文件中读取，区间个数需要与session_aggr_stat表的字段对应
  * @author Erik
  *
  */
-public class SesssionAggrStatAccumulator implements AccumulatorParam<String> {
+public class SesssionAggrStatAccumulator implements AccumulableParam<long[], SessionAggr> {
 
 	private static final long serialVersionUID = -2113961376143864034L;
 
-	//zero方法，主要用于数据初始化
-	//这里就返回一个值，就是初始化中，所有范围区间的数值都是0
-	//各个范围区间的统计数量的拼接，还是采用key=value|key=value的连接串格式
-	//在Constants.java中添加
-	//String SESSION_COUNT = "session_count";
-	//String TIME_PERIOD_1s_3s = "1s_3s";
-	//String TIME_PERIOD_4s_6s = "4s_6s";
-	//String TIME_PERIOD_7s_9s = "7s_9s";
-	//String TIME_PERIOD_10s_30s = "10s_30s";
-	//String TIME_PERIOD_30s_60s = "30s_60s";
-	//String TIME_PERIOD_1m_3m = "1m_3m";
-	//String TIME_PERIOD_3m_10m = "3m_10m";
-	//String TIME_PERIOD_10m_30m = "10m_30m";
-	//String TIME_PERIOD_30m = "30m";
-	//String STEP_PERIOD_1_3 = "1_3";
-	//String STEP_PERIOD_4_6 = "4_6";
-	//String STEP_PERIOD_7_9 = "7_9";
-	//String STEP_PERIOD_10_30 = "10_30";
-	//String STEP_PERIOD_30_60 = "30_60"; 
-	//String STEP_PERIOD_60 = "60";
-	public String zero(String v) {
-		return Constants.SESSION_COUNT + "=0|"
-				+ Constants.TIME_PERIOD_1s_3s + "=0|"
-				+ Constants.TIME_PERIOD_4s_6s + "=0|"
-				+ Constants.TIME_PERIOD_7s_9s + "=0|"
-				+ Constants.TIME_PERIOD_10s_30s + "=0|"
-				+ Constants.TIME_PERIOD_30s_60s + "=0|"
-				+ Constants.TIME_PERIOD_1m_3m + "=0|"
-				+ Constants.TIME_PERIOD_3m_10m + "=0|"
-				+ Constants.TIME_PERIOD_10m_30m + "=0|"
-				+ Constants.TIME_PERIOD_30m + "=0|"
-				+ Constants.STEP_PERIOD_1_3 + "=0|"
-				+ Constants.STEP_PERIOD_4_6 + "=0|"
-				+ Constants.STEP_PERIOD_7_9 + "=0|"
-				+ Constants.STEP_PERIOD_10_30 + "=0|"
-				+ Constants.STEP_PERIOD_30_60 + "=0|"
-				+ Constants.STEP_PERIOD_60 + "=0";
+	public static final int SESSION_COUNT_INDEX = 0;
+	public static final int VISIT_LENGTH_OFFSET = 1;
+	public static final int VISIT_LENGTH_BUCKETS = 9;
+	public static final int STEP_LENGTH_OFFSET = VISIT_LENGTH_OFFSET + VISIT_LENGTH_BUCKETS;
+	public static final int STEP_LENGTH_BUCKETS = 6;
+	public static final int SIZE = STEP_LENGTH_OFFSET + STEP_LENGTH_BUCKETS;
+
+	//默认的区间下限，与原来的区间划分保持一致
+	private static final long[] DEFAULT_VISIT_LENGTH_BOUNDS =
+			new long[]{1, 4, 7, 10, 31, 61, 181, 601, 1801};
+	private static final long[] DEFAULT_STEP_LENGTH_BOUNDS =
+			new long[]{1, 4, 7, 10, 31, 61};
+
+	private final long[] visitLengthBounds;
+	private final long[] stepLengthBounds;
+
+	/**
+	 * 在Driver端创建，从配置文件中读取区间边界
+	 * 区间边界随着AccumulableParam一起序列化到各个executor上
+	 */
+	public SesssionAggrStatAccumulator() {
+		this.visitLengthBounds = getBounds(Constants.SESSION_VISIT_LENGTH_BOUNDS,
+				DEFAULT_VISIT_LENGTH_BOUNDS);
+		this.stepLengthBounds = getBounds(Constants.SESSION_STEP_LENGTH_BOUNDS,
+				DEFAULT_STEP_LENGTH_BOUNDS);
 	}
 
-	//addInPlace和addAccumulator可以理解为是一样的
-	//这两个方法，主要实现，v1可能就是我们初始化的那个连接串
-	//v2就是在遍历session的时候，判断出某个session对应的区间，然后用Constants.TIME_PERIOD_1S_3S
-	//所以，我们要做的事情就是在v1中，找到对应的v2对应的value，累加1，然后再更新到连接串里面去
-	public String addInPlace(String v1, String v2) {
-		return null;
+	//zero方法，主要用于数据初始化，所有范围区间的数值都是0
+	public long[] zero(long[] initialValue) {
+		return new long[SIZE];
 	}
 
-	public String addAccumulator(String v1, String v2) {
-		return null;
+	//每个task中，每通过一个session就调用一次
+	//直接在数组上进行累加，返回的还是同一个数组
+	public long[] addAccumulator(long[] counts, SessionAggr session) {
+		counts[SESSION_COUNT_INDEX]++;
+
+		int visitLengthBucket = bucketOf(visitLengthBounds, session.getVisitLength());
+		if(visitLengthBucket >= 0) {
+			counts[VISIT_LENGTH_OFFSET + visitLengthBucket]++;
+		}
+
+		int stepLengthBucket = bucketOf(stepLengthBounds, session.getStepLength());
+		if(stepLengthBucket >= 0) {
+			counts[STEP_LENGTH_OFFSET + stepLengthBucket]++;
+		}
+
+		return counts;
+	}
+
+	//合并两个task的累加结果
+	public long[] addInPlace(long[] counts1, long[] counts2) {
+		for(int i = 0; i < SIZE; i++) {
+			counts1[i] += counts2[i];
+		}
+		return counts1;
+	}
+
+	/**
+	 * 计算值所在的区间下标
+	 * 区间最多只有9个，直接从后往前比较即可
+	 * @param bounds 区间下限
+	 * @param value 值
+	 * @return 区间下标，小于第一个区间下限的值返回-1，不进行计数
+	 */
+	private static int bucketOf(long[] bounds, long value) {
+		for(int i = bounds.length - 1; i >= 0; i--) {
+			if(value >= bounds[i]) {
+				return i;
+			}
+		}
+		return -1;
 	}
 
 	/**
-	 * session统计计算逻辑
-	 * @param v1连接串
-	 * @param v2 范围区间
-	 * @return更新以后的连接串
+	 * 从配置文件中读取区间下限，格式为逗号分隔的升序数字
+	 * 没有配置或者配置的个数不对时，使用默认的区间
+	 * @param key 配置项
+	 * @param defaultBounds 默认区间下限
+	 * @return 区间下限
 	 */
-	private String add(String v1, String v2) {
-		//校验：v1为空的时候，直接返回v2
-		if(StringUtils.isEmpty(v1)) {
-			return v2;
+	private static long[] getBounds(String key, long[] defaultBounds) {
+		String value = ConfigurationManager.getProperty(key);
+		if(value == null || "".equals(value.trim())) {
+			return defaultBounds;
 		}
-		
-		//使用StringUtils工具类，从v1中提取v2对应的值，并累加1
-		String oldValue = StringUtils.getFieldFromConcatString(v1, "\\|", v2);
-		if(oldValue != null) {
-			//将范围区间原有的值累加1
-			int newValue = Integer.valueOf(oldValue) + 1;
-			
-			//使用StringUtils工具类，将v1中，v2对应的值设置成心的累加胡的值
-			return StringUtils.setFieldInConcatString(v1, "\\|", v2, String.valueOf(newValue));
+
+		String[] valueSplited = value.split(",");
+		if(valueSplited.length != defaultBounds.length) {
+			System.out.println(key + "配置的区间个数必须为" + defaultBounds.length
+					+ "，使用默认区间");
+			return defaultBounds;
+		}
+
+		try {
+			long[] bounds = new long[valueSplited.length];
+			for(int i = 0; i < valueSplited.length; i++) {
+				bounds[i] = Long.valueOf(valueSplited[i].trim());
+				if(i > 0 && bounds[i] <= bounds[i - 1]) {
+					System.out.println(key + "配置的区间必须升序，使用默认区间");
+					return defaultBounds;
+				}
+			}
+			return bounds;
+		} catch (NumberFormatException e) {
+			e.printStackTrace();
 		}
-	
-		return v1;
+		return defaultBounds;
 	}
 }
@@ -0,0 +1,149 @@
+package com.erik.sparkproject.spark.session;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import scala.Tuple2;
+
+/**
+ * 有界的session点击次数小顶堆，用于分组取topN
+ *
+ * 最多只保留N个(sessionid,点击次数)，堆顶是当前最小的那个，
+ * 新的session只有比堆顶大的时候才会替换掉堆顶
+ * 配合aggregateByKey使用，在map端就把每个品类的session裁剪到N个，
+ * 不管一个品类被多少个session点击过，每个品类占用的内存都是固定的
+ *
+ * 点击次数相同时，sessionid较小的排在前面，保证结果是确定的
+ * @author Erik
+ *
+ */
+public class TopNSessionHeap implements Serializable {
+
+	private static final long serialVersionUID = -3520977129064183095L;
+
+	private String[] sessionids;
+	private long[] counts;
+	private int size;
+
+	public TopNSessionHeap() {
+
+	}
+
+	public TopNSessionHeap(int capacity) {
+		this.sessionids = new String[capacity];
+		this.counts = new long[capacity];
+	}
+
+	/**
+	 * 加入一个session
+	 * @param sessionid sessionid
+	 * @param count 点击次数
+	 * @return 当前堆
+	 */
+	public TopNSessionHeap add(String sessionid, long count) {
+		if(size < sessionids.length) {
+			sessionids[size] = sessionid;
+			counts[size] = count;
+			siftUp(size);
+			size++;
+		} else if(size > 0 && worse(0, sessionid, count)) {
+			sessionids[0] = sessionid;
+			counts[0] = count;
+			siftDown(0);
+		}
+		return this;
+	}
+
+	/**
+	 * 合并另一个堆
+	 * @param other 另一个堆
+	 * @return 当前堆
+	 */
+	public TopNSessionHeap merge(TopNSessionHeap other) {
+		for(int i = 0; i < other.size; i++) {
+			add(other.sessionids[i], other.counts[i]);
+		}
+		return this;
+	}
+
+	/**
+	 * 按照点击次数降序返回堆中所有的session
+	 * @return <sessionid,点击次数>
+	 */
+	public List<Tuple2<String, Long>> toSortedList() {
+		TopNSessionHeap copy = new TopNSessionHeap(sessionids.length);
+		copy.merge(this);
+
+		//依次弹出堆顶，得到的是升序，最后再反转
+		List<Tuple2<String, Long>> list = new ArrayList<Tuple2<String, Long>>(copy.size);
+		while(copy.size > 0) {
+			list.add(new Tuple2<String, Long>(copy.sessionids[0], copy.counts[0]));
+			copy.size--;
+			copy.sessionids[0] = copy.sessionids[copy.size];
+			copy.counts[0] = copy.counts[copy.size];
+			copy.sessionids[copy.size] = null;
+			copy.siftDown(0);
+		}
+		Collections.reverse(list);
+		return list;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private void siftUp(int index) {
+		while(index > 0) {
+			int parent = (index - 1) / 2;
+			if(!lessThan(index, parent)) {
+				break;
+			}
+			swap(index, parent);
+			index = parent;
+		}
+	}
+
+	private void siftDown(int index) {
+		while(true) {
+			int smallest = index;
+			int left = index * 2 + 1;
+			int right = left + 1;
+			if(left < size && lessThan(left, smallest)) {
+				smallest = left;
+			}
+			if(right < size && lessThan(right, smallest)) {
+				smallest = right;
+			}
+			if(smallest == index) {
+				break;
+			}
+			swap(index, smallest);
+			index = smallest;
+		}
+	}
+
+	//i位的session是否排在j位的session后面
+	private boolean lessThan(int i, int j) {
+		return worse(i, sessionids[j], counts[j]);
+	}
+
+	//index位的session是否排在(sessionid,count)后面
+	private boolean worse(int index, String sessionid, long count) {
+		if(counts[index] != count) {
+			return counts[index] < count;
+		}
+		return sessionids[index].compareTo(sessionid) > 0;
+	}
+
+	private void swap(int i, int j) {
+		String sessionid = sessionids[i];
+		sessionids[i] = sessionids[j];
+		sessionids[j] = sessionid;
+		long count = counts[i];
+		counts[i] = counts[j];
+		counts[j] = count;
+	}
+
+}
@@ -0,0 +1,63 @@
+package com.erik.sparkproject.spark.session;
+
+import java.io.Serializable;
+
+import org.apache.spark.sql.Row;
+
+/**
+ * session聚合需要的用户信息
+ *
+ * 只保留过滤时用到的字段，user_info表较小时，
+ * 整张表以<userid,UserInfo>的形式广播到各个executor上，在map端完成join
+ * @author Erik
+ *
+ */
+public class UserInfo implements Serializable {
+
+	private static final long serialVersionUID = 7934125861730458139L;
+
+	private int age;
+	private String professional;
+	private String city;
+	private String sex;
+
+	public UserInfo() {
+
+	}
+
+	/**
+	 * 从user_info表的一行数据中提取用户信息
+	 * @param row user_info表的行
+	 */
+	public UserInfo(Row row) {
+		this.age = row.getInt(3);
+		this.professional = row.getString(4);
+		this.city = row.getString(5);
+		this.sex = row.getString(6);
+	}
+
+	/**
+	 * 将用户信息补全到session聚合数据中
+	 * @param aggrInfo session聚合数据
+	 */
+	public void fill(SessionAggr aggrInfo) {
+		aggrInfo.setAge(age);
+		aggrInfo.setProfessional(professional);
+		aggrInfo.setCity(city);
+		aggrInfo.setSex(sex);
+	}
+
+	public int getAge() {
+		return age;
+	}
+	public String getProfessional() {
+		return professional;
+	}
+	public String getCity() {
+		return city;
+	}
+	public String getSex() {
+		return sex;
+	}
+
+}
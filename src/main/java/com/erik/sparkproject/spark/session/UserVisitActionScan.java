@@ -0,0 +1,309 @@
+package com.erik.sparkproject.spark.session;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.DataFrame;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SQLContext;
+import org.apache.spark.sql.functions;
+import org.apache.spark.sql.hive.HiveContext;
+
+import com.erik.sparkproject.conf.ConfigurationManager;
+import com.erik.sparkproject.constant.Constants;
+
+import scala.Tuple2;
+
+/**
+ * user_visit_action表的扫描
+ *
+ * 原来是select * from user_visit_action，再拼接日期条件，
+ * 每次都读取全部12列，字符串拼接的SQL还少了空格（user_visit_actionwhere）
+ *
+ * 现在的实现：
+ * 1.根据开启的分析功能计算出需要的列，只读取需要的列，
+ *   不需要的列用null占位，行数据中每一列的位置和原来一样，后面使用row.getXxx(i)的代码不需要修改
+ * 2.日期范围通过DataFrame的filter作为条件，不拼接字符串，
+ *   user_visit_action是按照date分区的Hive表时，只会读取日期范围内的分区
+ * 3.打印读取的分区数，读取的字节数由ActionScanListener统计
+ * 4.指定了搜索词、点击品类的时候，可以先只读取session_id、search_keyword、click_category_id三列，
+ *   按照搜索词、品类过滤（Parquet存储时过滤条件会下推，跳过不满足条件的row group），
+ *   找出可能通过筛选条件的session，行为数据中只保留这些session的数据，后面的聚合、join的数据量都会小很多
+ * @author Erik
+ *
+ */
+public class UserVisitActionScan {
+
+	public static final String TABLE = "user_visit_action";
+	
+	//user_visit_action表的列和类型，行数据中列的顺序和这里一致
+	private static final String[] COLUMNS = new String[]{
+			"date", "user_id", "session_id", "page_id", "action_time", "search_keyword", 
+			"click_category_id", "click_product_id", "order_category_ids", "order_product_ids", 
+			"pay_category_ids", "pay_product_ids"};
+	private static final String[] TYPES = new String[]{
+			"string", "bigint", "string", "bigint", "string", "string", 
+			"bigint", "bigint", "string", "string", 
+			"string", "string"};
+	
+	private final SQLContext sqlContext;
+	private final boolean[] required = new boolean[COLUMNS.length];
+	private String startDate;
+	private String endDate;
+	//筛选参数中的搜索词和点击品类，用于找出候选session
+	private HashSet<String> keywords = new HashSet<String>();
+	private HashSet<Long> categoryIds = new HashSet<Long>();
+	
+	public UserVisitActionScan(SQLContext sqlContext) {
+		this.sqlContext = sqlContext;
+		//session_id是按session聚合的key，始终需要
+		require(2);
+	}
+	
+	/**
+	 * 日期范围，包含开始日期和结束日期
+	 */
+	public UserVisitActionScan dateRange(String startDate, String endDate) {
+		this.startDate = startDate;
+		this.endDate = endDate;
+		return this;
+	}
+	
+	/**
+	 * session聚合：user_id、action_time、search_keyword、click_category_id
+	 */
+	public UserVisitActionScan withSessionAggr() {
+		return require(1, 4, 5, 6);
+	}
+	
+	/**
+	 * top10品类和top10活跃session：点击、下单、支付的品类
+	 */
+	public UserVisitActionScan withCategoryTop() {
+		return require(6, 8, 10);
+	}
+	
+	/**
+	 * session明细：除了date以外的所有列
+	 */
+	public UserVisitActionScan withSessionDetail() {
+		return require(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11);
+	}
+	
+	/**
+	 * 只保留可能通过搜索词、点击品类筛选条件的session
+	 * session要搜索过任何一个搜索词，并且点击过任何一个品类（只指定了一个参数的时候只看这一个）
+	 * @param keywords 逗号分隔的搜索词，可以为null
+	 * @param categoryIds 逗号分隔的品类id，可以为null
+	 */
+	public UserVisitActionScan withCandidateFilter(String keywords, String categoryIds) {
+		if(keywords != null) {
+			for(String keyword : keywords.split(",")) {
+				if(!"".equals(keyword.trim())) {
+					this.keywords.add(keyword.trim());
+				}
+			}
+		}
+		if(categoryIds != null) {
+			for(String categoryId : categoryIds.split(",")) {
+				if(!"".equals(categoryId.trim())) {
+					this.categoryIds.add(Long.valueOf(categoryId.trim()));
+				}
+			}
+		}
+		return this;
+	}
+	
+	/**
+	 * 读取date列，按天聚合的时候使用
+	 */
+	public UserVisitActionScan withDate() {
+		return require(0);
+	}
+	
+	private UserVisitActionScan require(int... columns) {
+		for(int column : columns) {
+			required[column] = true;
+		}
+		return this;
+	}
+	
+	/**
+	 * 需要读取的列
+	 * @return 列名
+	 */
+	public List<String> getRequiredColumns() {
+		List<String> columns = new ArrayList<String>();
+		for(int i = 0; i < COLUMNS.length; i++) {
+			if(required[i]) {
+				columns.add(COLUMNS[i]);
+			}
+		}
+		return columns;
+	}
+	
+	/**
+	 * 生成行为数据RDD
+	 * @return 行为数据RDD
+	 */
+	public JavaRDD<Row> build() {
+		Column date = functions.col("date");
+		DataFrame actionDF = sqlContext.table(TABLE)
+				.filter(date.geq(startDate).and(date.leq(endDate)));
+		
+		Column[] columns = new Column[COLUMNS.length];
+		for(int i = 0; i < COLUMNS.length; i++) {
+			if(required[i]) {
+				columns[i] = functions.col(COLUMNS[i]);
+			} else {
+				columns[i] = functions.lit(null).cast(TYPES[i]).as(COLUMNS[i]);
+			}
+		}
+		
+		JavaRDD<Row> actionRDD = ActionParquetStore.toJavaRDD(sqlContext, actionDF.select(columns));
+		
+		System.out.println(TABLE + "扫描：日期范围" + startDate + "~" + endDate 
+				+ "，读取的列" + getRequiredColumns() 
+				+ "，Hive分区数=" + countHivePartitions()
+				+ "，RDD分区数=" + actionRDD.partitions().size());
+		
+		HashSet<String> candidateSessionids = findCandidateSessions(actionDF, keywords, categoryIds);
+		if(candidateSessionids != null) {
+			actionRDD = filterSessions(actionRDD, JavaSparkContext.fromSparkContext(
+					sqlContext.sparkContext()).broadcast(candidateSessionids));
+		}
+		
+		return actionRDD;
+	}
+	
+	/**
+	 * 只保留候选session的行为数据
+	 * 静态方法中创建算子函数，不会把UserVisitActionScan序列化到task中
+	 */
+	private static JavaRDD<Row> filterSessions(JavaRDD<Row> actionRDD, 
+			final Broadcast<HashSet<String>> candidateSessionidsBroadcast) {
+		return actionRDD.filter(new Function<Row, Boolean>() {
+
+			private static final long serialVersionUID = 1L;
+
+			public Boolean call(Row row) throws Exception {
+				return candidateSessionidsBroadcast.value().contains(row.getString(2));
+			}
+			
+		});
+	}
+	
+	/**
+	 * 找出搜索过指定搜索词、点击过指定品类的session
+	 * @param actionDF 日期范围内的行为数据
+	 * @param keywords 搜索词
+	 * @param categoryIds 点击品类
+	 * @return 候选session，没有指定搜索词和品类，或者候选session太多的时候返回null
+	 */
+	private static HashSet<String> findCandidateSessions(DataFrame actionDF, 
+			final HashSet<String> keywords, final HashSet<Long> categoryIds) {
+		if(keywords.isEmpty() && categoryIds.isEmpty()) {
+			return null;
+		}
+		
+		//用多个等值条件的or，Parquet可以根据row group的统计信息和字典过滤
+		Column condition = null;
+		for(String keyword : keywords) {
+			Column equal = functions.col("search_keyword").equalTo(keyword);
+			condition = condition == null ? equal : condition.or(equal);
+		}
+		for(Long categoryId : categoryIds) {
+			Column equal = functions.col("click_category_id").equalTo(categoryId);
+			condition = condition == null ? equal : condition.or(equal);
+		}
+		
+		//每个session搜索过指定的搜索词记为1，点击过指定的品类记为2，两个都需要的时候要等于3
+		final int requiredMask = (keywords.isEmpty() ? 0 : 1) | (categoryIds.isEmpty() ? 0 : 2);
+		
+		int maxSessions = ConfigurationManager.getInteger(Constants.ACTION_CANDIDATE_MAX_SESSIONS);
+		List<String> sessionids = actionDF.filter(condition)
+				.select("session_id", "search_keyword", "click_category_id")
+				.javaRDD()
+				.mapToPair(new PairFunction<Row, String, Integer>() {
+
+					private static final long serialVersionUID = 1L;
+
+					public Tuple2<String, Integer> call(Row row) throws Exception {
+						int mask = 0;
+						if(!row.isNullAt(1) && keywords.contains(row.getString(1))) {
+							mask |= 1;
+						}
+						if(!row.isNullAt(2) && categoryIds.contains(row.getLong(2))) {
+							mask |= 2;
+						}
+						return new Tuple2<String, Integer>(row.getString(0), mask);
+					}
+					
+				})
+				.reduceByKey(new Function2<Integer, Integer, Integer>() {
+
+					private static final long serialVersionUID = 1L;
+
+					public Integer call(Integer v1, Integer v2) throws Exception {
+						return v1 | v2;
+					}
+					
+				})
+				.filter(new Function<Tuple2<String, Integer>, Boolean>() {
+
+					private static final long serialVersionUID = 1L;
+
+					public Boolean call(Tuple2<String, Integer> tuple) throws Exception {
+						return tuple._2 == requiredMask;
+					}
+					
+				})
+				.keys()
+				.take(maxSessions + 1);
+		
+		//候选session太多的时候广播的代价太大，不再过滤，由后面的筛选条件过滤
+		if(sessionids.size() > maxSessions) {
+			System.out.println(TABLE + "候选session超过" + maxSessions + "个，不按候选session过滤");
+			return null;
+		}
+		
+		System.out.println(TABLE + "按搜索词" + keywords + "、品类" + categoryIds 
+				+ "找出候选session" + sessionids.size() + "个");
+		return new HashSet<String>(sessionids);
+	}
+	
+	/**
+	 * 统计日期范围内的Hive分区数
+	 * @return 分区数，不是Hive分区表的时候返回-1
+	 */
+	private int countHivePartitions() {
+		if(!(sqlContext instanceof HiveContext)) {
+			return -1;
+		}
+		
+		try {
+			int count = 0;
+			for(Row row : sqlContext.sql("show partitions " + TABLE).collect()) {
+				//分区的格式为date=2017-01-01
+				String partition = row.getString(0);
+				String partitionDate = partition.substring(partition.indexOf('=') + 1);
+				if(partitionDate.compareTo(startDate) >= 0 && partitionDate.compareTo(endDate) <= 0) {
+					count++;
+				}
+			}
+			return count;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return -1;
+		}
+	}
+
+}
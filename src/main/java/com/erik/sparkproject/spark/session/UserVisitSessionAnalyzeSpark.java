@@ -1,6 +1,8 @@
 package com.erik.sparkproject.spark.session;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -8,21 +10,24 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
-import org.apache.spark.Accumulator;
+import org.apache.spark.Accumulable;
 import org.apache.spark.SparkConf;
 import org.apache.spark.SparkContext;
+import org.apache.spark.TaskContext;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.FlatMapFunction;
 import org.apache.spark.api.java.function.Function;
 import org.apache.spark.api.java.function.Function2;
 import org.apache.spark.api.java.function.PairFlatMapFunction;
 import org.apache.spark.api.java.function.PairFunction;
 import org.apache.spark.api.java.function.VoidFunction;
-import org.apache.spark.sql.DataFrame;
+import org.apache.spark.broadcast.Broadcast;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SQLContext;
 import org.apache.spark.sql.hive.HiveContext;
+import org.apache.spark.storage.StorageLevel;
 import com.alibaba.fastjson.JSONObject;
 
 import com.erik.sparkproject.conf.ConfigurationManager;
@@ -30,6 +35,7 @@ import com.erik.sparkproject.constant.Constants;
 import com.erik.sparkproject.dao.ISessionAggrStatDAO;
 import com.erik.sparkproject.dao.ISessionDetailDAO;
 import com.erik.sparkproject.dao.ISessionRandomExtractDAO;
+import com.erik.sparkproject.dao.IStagingDAO;
 import com.erik.sparkproject.dao.ITaskDAO;
 import com.erik.sparkproject.dao.ITop10CategoryDAO;
 import com.erik.sparkproject.dao.ITop10SessionDAO;
@@ -40,9 +46,10 @@ import com.erik.sparkproject.domain.SessionRandomExtract;
 import com.erik.sparkproject.domain.Task;
 import com.erik.sparkproject.domain.Top10Category;
 import com.erik.sparkproject.domain.Top10Session;
+import com.erik.sparkproject.jdbc.JDBCHelper;
+import com.erik.sparkproject.parquet.ParquetHelper;
 import com.erik.sparkproject.test.MockData;
 import com.erik.sparkproject.util.*;
-import com.google.common.base.Optional;
 
 import scala.Tuple2;
 
@@ -74,6 +81,13 @@ import scala.Tuple2;
  *
  */
 public class UserVisitSessionAnalyzeSpark {
+	
+	//executor上写入的结果表
+	private static final String TABLE_SESSION_RANDOM_EXTRACT = "session_random_extract";
+	private static final String TABLE_SESSION_DETAIL = "session_detail";
+	private static final String TABLE_TOP10_SESSION = "top10_session";
+	private static final String TABLE_SESSION_AGGR_STAT = "session_aggr_stat";
+	private static final String TABLE_TOP10_CATEGORY = "top10_category";
 
 	public static void main(String[] args) {
 		args = new String[]{"2"};
@@ -84,11 +98,28 @@ public class UserVisitSessionAnalyzeSpark {
 		//保存Constants.java配置
 		SparkConf conf = new SparkConf()
 				.setAppName(Constants.SPARK_APP_NAME)
-				.setMaster("local");
+				.setMaster("local")
+				.set("spark.serializer", "org.apache.spark.serializer.KryoSerializer")
+				//结果数据先写staging表，action成功以后再发布，可以开启推测执行
+				.set("spark.speculation", String.valueOf(
+						ConfigurationManager.getBoolean(Constants.SPARK_SPECULATION)));
+		
+		//session聚合数据、品类排序key等会在shuffle中大量传输的自定义类，注册到Kryo
+		//注册以后序列化时只写类的编号，而不是完整的类名
+		conf.registerKryoClasses(new Class<?>[]{
+				SessionAggr.class,
+				SessionAggrCombiner.class,
+				UserInfo.class,
+				LongHashMap.class,
+				CategorySortKey.class,
+				TopNSessionHeap.class});
 		
 		JavaSparkContext sc = new JavaSparkContext(conf);
 		SQLContext sqlContext = getSQLContext(sc.sc());
 		
+		//结果写成Parquet文件的时候，Driver端使用Spark的Hadoop配置
+		ParquetHelper.setConf(sc.hadoopConfiguration());
+		
 		//生成模拟测试数据
 		mockData(sc, sqlContext);
 		
@@ -102,9 +133,33 @@ public class UserVisitSessionAnalyzeSpark {
 		System.out.println(taskid);
 		System.out.println(taskParam);
 		
+		//同样的任务参数、同样的行为数据，之前的任务已经计算过的话，直接复制之前任务的结果
+		String resultCacheKey = null;
+		if(ResultCache.isEnabled()) {
+			resultCacheKey = ResultCache.getCacheKey(sqlContext, taskParam);
+			if(resultCacheKey != null && ResultCache.reuse(resultCacheKey, task.getTaskid())) {
+				sc.close();
+				return;
+			}
+		}
+		
+		//executor上写入的结果数据先写到staging表中
+		//上一次执行这个任务时，发布以后才结束的attempt会在staging表中留下数据，开始之前先清理掉，
+		//attempt的标识在不同的Spark应用中可能重复，不清理的话可能被这一次发布出去
+		IStagingDAO stagingDAO = DAOFactory.getStagingDAO();
+		for(String table : new String[]{TABLE_SESSION_RANDOM_EXTRACT, TABLE_SESSION_DETAIL, TABLE_TOP10_SESSION}) {
+			stagingDAO.createIfNotExists(table);
+			stagingDAO.clearStaging(table, task.getTaskid());
+		}
+		
+		//统计行为数据扫描读取的数据量
+		ActionScanListener actionScanListener = new ActionScanListener();
+		sc.sc().addSparkListener(actionScanListener);
+		
 		//如果要进行session粒度的数据聚合，
 		//首先要从user_visit_action表中，查询出来指定日期范围内的数据
 		JavaRDD<Row> actionRDD = getActionRDDByDateRange(sqlContext, taskParam);
+		actionScanListener.watch(actionRDD.rdd());
 		JavaPairRDD<String, Row> sessionid2actionRDD = getSessionid2ActionRDD(actionRDD);
 		
 		//聚合
@@ -113,8 +168,8 @@ public class UserVisitSessionAnalyzeSpark {
 		//然后就可以获取到session粒度的数据，同时数据里面还包含了session对应的user信息
 		//到这里为止，获取的数据是<sessionid,(sessionid,searchKeywords,
 		//clickCategoryIds,age,professional,city,sex)>
-		JavaPairRDD<String, String> sessionid2AggrInfoRDD = 
-				aggregateBySession(sqlContext, actionRDD);
+		JavaPairRDD<String, SessionAggr> sessionid2AggrInfoRDD = 
+				aggregateBySession(sc, sqlContext, actionRDD, taskParam);
 		
 		
 		//接着，就要针对session粒度的聚合数据，按照使用者指定的筛选参数进行数据过滤
@@ -122,12 +177,13 @@ public class UserVisitSessionAnalyzeSpark {
 		//匿名内部类（算子函数），访问外部对象，是要给外部对象使用final修饰的
 		
 		//重构，同时进行过滤和统计
-		Accumulator<String> sessionAggrStatAccumulator = sc.accumulator(
-				"", new SesssionAggrStatAccumulator());
+		SesssionAggrStatAccumulator sessionAggrStatParam = new SesssionAggrStatAccumulator();
+		Accumulable<long[], SessionAggr> sessionAggrStatAccumulator = sc.accumulable(
+				sessionAggrStatParam.zero(null), sessionAggrStatParam);
 		
 		
-		JavaPairRDD<String, String> filteredSessionid2AggrInfoRDD = filterSessionAndAggrStat(
-				sessionid2AggrInfoRDD, taskParam, sessionAggrStatAccumulator);
+		JavaPairRDD<String, SessionAggr> filteredSessionid2AggrInfoRDD = filterSessionAndAggrStat(
+				sc, sessionid2AggrInfoRDD, taskParam, sessionAggrStatAccumulator);
 		
 		//生成公共RDD：通过筛选条件的session的访问明细数据
 		JavaPairRDD<String, Row> sessionid2detailRDD = getSessionid2detailRDD(
@@ -146,8 +202,14 @@ public class UserVisitSessionAnalyzeSpark {
 		 * 所以，我们在这里，将随机抽取功能的实现代码放在session聚合统计功能的最终计算和写库之前
 		 * 因为随机抽取功能中，有一个countByKey算子，是action操作，会触发job
 		 * 
+		 * 现在filterSessionAndAggrStat中已经用单独的foreach action完成了统计，
+		 * Accumulator的值只包含每个session一次
+		 * 
 		 */
-		randomExtractSession(task.getTaskid(),filteredSessionid2AggrInfoRDD, sessionid2actionRDD);
+		//随机抽取的session和top10活跃session的明细都写入session_detail表，全部写完以后一起发布
+		List<String> sessionDetailAttemptKeys = new ArrayList<String>();
+		sessionDetailAttemptKeys.addAll(randomExtractSession(
+				task.getTaskid(),filteredSessionid2AggrInfoRDD, sessionid2actionRDD));
 		
 		//计算出各个范围的session占比，并写入MySQL
 		calculateAndPersistAggrStat(sessionAggrStatAccumulator.value(), task.getTaskid());
@@ -199,11 +261,27 @@ public class UserVisitSessionAnalyzeSpark {
 		 */
 		
 		//获取top10热门品类
-		List<Tuple2<CategorySortKey, String>> top10CategoryList = 
-				getTop10Category(task.getTaskid(), sessionid2detailRDD);
+		List<Tuple2<CategorySortKey, Long>> top10CategoryList = 
+				getTop10Category(task.getTaskid(), taskParam, sessionid2detailRDD);
 		
 		//获取top10活跃session
-		getTop10Session(sc, task.getTaskid(), top10CategoryList, sessionid2detailRDD);
+		sessionDetailAttemptKeys.addAll(getTop10Session(
+				sc, task.getTaskid(), top10CategoryList, sessionid2detailRDD));
+		
+		stagingDAO.publish(TABLE_SESSION_DETAIL, task.getTaskid(), sessionDetailAttemptKeys);
+		
+		filteredSessionid2AggrInfoRDD.unpersist();
+		
+		//所有结果都写完以后，登记到结果缓存中
+		if(resultCacheKey != null) {
+			ResultCache.save(resultCacheKey, task.getTaskid());
+		}
+		
+		//打印行为数据扫描读取的数据量
+		System.out.println(actionScanListener.getStats());
+		
+		//打印Driver端连接池的使用情况
+		System.out.println(JDBCHelper.getInstance().getPoolStats());
 		
 		//关闭spark上下文
 		sc.close();
@@ -253,6 +331,24 @@ public class UserVisitSessionAnalyzeSpark {
 		if(local) {
 			MockData.mock(sc, sqlContext);
 		}
+		
+		//行为数据以Parquet格式存储的时候，把Parquet文件注册为user_visit_action表
+		//本地模式下先把模拟数据写成Parquet
+		if(isParquetActionSource()) {
+			String path = ConfigurationManager.getProperty(Constants.ACTION_PARQUET_PATH);
+			if(local) {
+				ActionParquetStore.write(sqlContext, 
+						sqlContext.table(UserVisitActionScan.TABLE), path);
+			}
+			ActionParquetStore.register(sqlContext, path);
+		}
+	}
+	
+	/**
+	 * 行为数据是否以Parquet格式存储
+	 */
+	private static boolean isParquetActionSource() {
+		return "parquet".equals(ConfigurationManager.getProperty(Constants.ACTION_SOURCE));
 	}
 	
 	/**
@@ -270,14 +366,22 @@ public class UserVisitSessionAnalyzeSpark {
 		String startDate = ParamUtils.getParam(taskParam, Constants.PARAM_START_DATE);
 		String endDate = ParamUtils.getParam(taskParam, Constants.PARAM_END_DATE);
 		
-		String sql = "select * "
-				+ "from user_visit_action"
-				+ "where date>='" + startDate + "'"
-				+ "and date<='" + endDate + "'";
-		
-		DataFrame actionDF = sqlContext.sql(sql);
+		//只读取开启的分析功能需要的列，日期范围作为分区裁剪的条件
+		UserVisitActionScan actionScan = new UserVisitActionScan(sqlContext)
+				.dateRange(startDate, endDate)
+				.withSessionAggr()
+				.withCategoryTop();
+		if(ConfigurationManager.getBoolean(Constants.SESSION_DETAIL_ENABLED)) {
+			actionScan.withSessionDetail();
+		}
+		//Parquet存储的时候过滤条件可以下推，先按搜索词、品类找出候选session
+		if(isParquetActionSource()) {
+			actionScan.withCandidateFilter(
+					ParamUtils.getParam(taskParam, Constants.PARAM_KEYWORDS), 
+					ParamUtils.getParam(taskParam, Constants.PARAM_CATEGORY_IDS));
+		}
 		
-		return actionDF.javaRDD();
+		return actionScan.build();
 	}
 	
 	/**
@@ -302,10 +406,102 @@ public class UserVisitSessionAnalyzeSpark {
 	/**
 	 * 对行为数据按sesssion粒度进行聚合
 	 * @param actionRDD 行为数据RDD
+	 * @param taskParam 任务参数
 	 * @return session粒度聚合数据
 	 */
-	private static JavaPairRDD<String, String> aggregateBySession(
-			SQLContext sqlContext, JavaRDD<Row> actionRDD) {
+	private static JavaPairRDD<String, SessionAggr> aggregateBySession(
+			JavaSparkContext sc, SQLContext sqlContext, JavaRDD<Row> actionRDD, 
+			JSONObject taskParam) {
+		JavaPairRDD<String, SessionAggrCombiner> sessionid2CombinerRDD = null;
+		if(isParquetActionSource() && DailySessionAggrStore.isEnabled()) {
+			//复用之前任务按天保存的中间结果，只聚合缺少或者数据有变化的日期
+			sessionid2CombinerRDD = DailySessionAggrStore.load(sqlContext,
+					ParamUtils.getParam(taskParam, Constants.PARAM_START_DATE),
+					ParamUtils.getParam(taskParam, Constants.PARAM_END_DATE));
+		} else if(isParquetActionSource() && ActionParquetStore.isBucketed()) {
+			sessionid2CombinerRDD = combineSortedSessions(actionRDD, taskParam);
+		} else {
+			sessionid2CombinerRDD = combineBySession(actionRDD);
+		}
+		
+		//查询所有用户数据
+		String sql = "select * from user_info";
+		JavaRDD<Row> userInfoRDD = sqlContext.sql(sql).javaRDD();
+		
+		//用户数据相对于行为数据要小得多，如果用户数量没有超过阈值，
+		//就把用户数据收集到Driver端广播出去，在map端完成join，省掉一次shuffle
+		//先用count(*)计数，只需要把一个数字返回Driver，
+		//没有超过阈值的时候才把用户数据收集到Driver端，超过阈值时不会白白拉取大量数据
+		int broadcastThreshold = ConfigurationManager.getInteger(
+				Constants.USER_INFO_BROADCAST_THRESHOLD);
+		if(broadcastThreshold > 0) {
+			long userCount = sqlContext.sql("select count(*) from user_info").first().getLong(0);
+			if(userCount <= broadcastThreshold) {
+				return joinUserInfoByBroadcast(sc, sessionid2CombinerRDD, userInfoRDD.collect());
+			}
+			System.out.println("用户数据" + userCount + "条，超过广播阈值" + broadcastThreshold 
+					+ "，使用shuffle join");
+		}
+		
+		//用户数据超过了阈值，回退到shuffle join
+		return joinUserInfoByShuffle(sessionid2CombinerRDD, userInfoRDD);
+	}
+	
+	/**
+	 * 按session分桶、排序存储的行为数据，直接按顺序遍历每个partition进行聚合，不需要shuffle
+	 * 一个session在一天中的行为在同一个文件中，日期范围跨多天的时候，
+	 * 跨天的session在不同的partition中各有一个中间结果，再按session合并一次，
+	 * 这时shuffle的只是每个session每天一条中间结果，而不是全部行为数据
+	 * @param actionRDD 行为数据RDD
+	 * @param taskParam 任务参数
+	 * @return <sessionid,中间结果>
+	 */
+	private static JavaPairRDD<String, SessionAggrCombiner> combineSortedSessions(
+			JavaRDD<Row> actionRDD, JSONObject taskParam) {
+		JavaPairRDD<String, SessionAggrCombiner> sessionid2CombinerRDD = actionRDD.mapPartitionsToPair(
+				new PairFlatMapFunction<Iterator<Row>, String, SessionAggrCombiner>() {
+
+					private static final long serialVersionUID = 1L;
+
+					public Iterable<Tuple2<String, SessionAggrCombiner>> call(
+							final Iterator<Row> iterator) throws Exception {
+						return new Iterable<Tuple2<String, SessionAggrCombiner>>() {
+							
+							public Iterator<Tuple2<String, SessionAggrCombiner>> iterator() {
+								return new SessionRunIterator(iterator);
+							}
+							
+						};
+					}
+					
+				});
+		
+		String startDate = ParamUtils.getParam(taskParam, Constants.PARAM_START_DATE);
+		String endDate = ParamUtils.getParam(taskParam, Constants.PARAM_END_DATE);
+		if(startDate != null && startDate.equals(endDate)) {
+			return sessionid2CombinerRDD;
+		}
+		
+		return sessionid2CombinerRDD.reduceByKey(
+				new Function2<SessionAggrCombiner, SessionAggrCombiner, SessionAggrCombiner>() {
+
+					private static final long serialVersionUID = 1L;
+
+					public SessionAggrCombiner call(SessionAggrCombiner combiner1,
+							SessionAggrCombiner combiner2) throws Exception {
+						return combiner1.merge(combiner2);
+					}
+					
+				});
+	}
+	
+	/**
+	 * 按session聚合行为数据
+	 * @param actionRDD 行为数据RDD
+	 * @return <sessionid,中间结果>
+	 */
+	private static JavaPairRDD<String, SessionAggrCombiner> combineBySession(
+			JavaRDD<Row> actionRDD) {
 		//现在actionRDD中的元素是Row，一个Row就是一行用户访问行为记录，比如一次点击或者搜索
 		//现在需要将这个Row映射成<sessionid,Row>的格式
 		JavaPairRDD<String, Row> sessionid2ActionRDD = actionRDD.mapToPair(
@@ -328,188 +524,148 @@ public class UserVisitSessionAnalyzeSpark {
 			
 				});
 		
-		//对行为数据按照session粒度进行分组
-		JavaPairRDD<String, Iterable<Row>> sessionid2ActionsRDD = 
-				sessionid2ActionRDD.groupByKey();
-		
-		//对每一个session分组进行聚合，将session中所有的搜索词和点击品类都聚合起来
-		//到此为止，获取的数据格式如下：<userid,partAggrInfo(sessionid,searchKeywords,clickCategoryIds)>
-		JavaPairRDD<Long, String> userid2PartAggrInfoRDD = sessionid2ActionsRDD.mapToPair(
-				new PairFunction<Tuple2<String, Iterable<Row>>, Long, String>() {
-				
-					private static final long serialVersionUID = 1L;
-				
-					public Tuple2<Long, String> call(Tuple2<String, Iterable<Row>> tuple)
-							throws Exception {
-						String sessionid = tuple._1;
-						Iterator<Row> iterator = tuple._2.iterator();
+		//对行为数据按照session粒度进行聚合
+		//不再使用groupByKey把一个session的所有行为都拉到一起，而是使用combineByKey
+		//在map端就把同一个session的行为累加到SessionAggrCombiner中
+		//shuffle的时候，每个partition的每个session只传输一条中间结果
+		//爬虫之类的超大session会导致数据倾斜，开启倾斜处理以后会对热点session加盐进行两阶段聚合
+		JavaPairRDD<String, SessionAggrCombiner> sessionid2CombinerRDD = 
+				SaltedAggregator.combineByKey(sessionid2ActionRDD,
 						
-						StringBuffer searchKeywordsBuffer = new StringBuffer("");
-						StringBuffer clickCategoryIdsBuffer = new StringBuffer("");
-						
-						Long userid = null;
-						
-						//session的起始和结束时间
-						Date startTime = null;
-						Date endTime = null;
-						//session的访问步长
-						int stepLength = 0;
-						
-						//遍历session所有的访问行为
-						while(iterator.hasNext()) {
-							//提取每个 访问行为的搜索词字段和点击品类字段
-							Row row = iterator.next();
-							if(userid == null) {
-								userid = row.getLong(1);
-							}
-							String searchKeyword = row.getString(5);
-							Long clickCategoryId = row.getLong(6);
-							
-							//实际上这里要对数据说明一下
-							//并不是每一行访问行为都有searchKeyword和clickCategoryId两个字段的
-							//其实，只有搜索行为是有searchKeyword字段的
-							//只有点击品类的行为是有clickCaregoryId字段的
-							//所以，任何一行行为数据，都不可能两个字段都有，所以数据是可能出现null值的
-							
-							//所以是否将搜索词点击品类id拼接到字符串中去
-							//首先要满足不能是null值
-							//其次，之前的字符串中还没有搜索词或者点击品类id
-							
-							if(StringUtils.isNotEmpty(searchKeyword)) {
-								if(!searchKeywordsBuffer.toString().contains(searchKeyword)) {
-									searchKeywordsBuffer.append(searchKeyword + ",");
-								}
-							}
-							if(clickCategoryId != null) {
-								if(!clickCategoryIdsBuffer.toString().contains(
-										String.valueOf(clickCategoryId))) {
-									clickCategoryIdsBuffer.append(clickCategoryId + ",");
-								}
+						//session的第一条行为，创建中间结果
+						new Function<Row, SessionAggrCombiner>() {
+
+							private static final long serialVersionUID = 1L;
+
+							public SessionAggrCombiner call(Row row) throws Exception {
+								return new SessionAggrCombiner().add(row);
 							}
 							
-							//计算session开始和结束时间
-							Date actionTime = DateUtils.parseTime(row.getString(4));
-							if(startTime == null) {
-								startTime = actionTime;
-							}
-							if(endTime == null) {
-								endTime = actionTime;
+						},
+						
+						//同一个partition中，session的后续行为直接累加
+						new Function2<SessionAggrCombiner, Row, SessionAggrCombiner>() {
+
+							private static final long serialVersionUID = 1L;
+
+							public SessionAggrCombiner call(SessionAggrCombiner combiner, Row row)
+									throws Exception {
+								return combiner.add(row);
 							}
 							
-							if(actionTime.before(startTime)) {
-								startTime = actionTime;
-							}
-							if(actionTime.after(endTime)) {
-								endTime = actionTime;
+						},
+						
+						//合并不同partition中同一个session的中间结果
+						new Function2<SessionAggrCombiner, SessionAggrCombiner, SessionAggrCombiner>() {
+
+							private static final long serialVersionUID = 1L;
+
+							public SessionAggrCombiner call(SessionAggrCombiner combiner1,
+									SessionAggrCombiner combiner2) throws Exception {
+								return combiner1.merge(combiner2);
 							}
 							
-							//计算session访问步长
-							stepLength ++;
+						},
+						"session");
+		
+		return sessionid2CombinerRDD;
+	}
+	
+	/**
+	 * 广播用户数据，在map端将session聚合数据与用户信息进行join
+	 * @param sc
+	 * @param sessionid2CombinerRDD session聚合中间结果
+	 * @param userInfoRows 用户数据
+	 * @return <sessionid,fullAggrInfo>
+	 */
+	private static JavaPairRDD<String, SessionAggr> joinUserInfoByBroadcast(
+			JavaSparkContext sc,
+			JavaPairRDD<String, SessionAggrCombiner> sessionid2CombinerRDD,
+			List<Row> userInfoRows) {
+		//将用户数据转换成<userid,UserInfo>格式的LongHashMap再广播
+		LongHashMap<UserInfo> userInfoMap = new LongHashMap<UserInfo>(userInfoRows.size());
+		for(Row row : userInfoRows) {
+			userInfoMap.put(row.getLong(0), new UserInfo(row));
+		}
+		final Broadcast<LongHashMap<UserInfo>> userInfoBroadcast = sc.broadcast(userInfoMap);
+		
+		//生成最终的session聚合数据，同时直接补全用户字段
+		//与join的语义保持一致，找不到用户信息的session直接丢弃
+		return sessionid2CombinerRDD.flatMapToPair(
+				new PairFlatMapFunction<Tuple2<String, SessionAggrCombiner>, String, SessionAggr>() {
+
+					private static final long serialVersionUID = 1L;
+
+					public Iterable<Tuple2<String, SessionAggr>> call(
+							Tuple2<String, SessionAggrCombiner> tuple) throws Exception {
+						UserInfo userInfo = userInfoBroadcast.value().get(tuple._2.getUserid());
+						if(userInfo == null) {
+							return Collections.emptyList();
 						}
 						
-						//计算session开始和结束时间
-						//现在DateUtils.java中添加方法
-						//public static Date parseTime(String time) {
-						//	try {
-						//		return TIME_FORMAT.parse(time);
-						//	} catch (ParseException e) {
-						//		e.printStackTrace();
-						//	}
-						//	return null;
-						//}
-						
+						SessionAggr aggrInfo = tuple._2.toSessionAggr(tuple._1);
+						userInfo.fill(aggrInfo);
+						return Collections.singletonList(
+								new Tuple2<String, SessionAggr>(tuple._1, aggrInfo));
+					}
 					
-						
-						//StringUtils引入的包是import com.erik.sparkproject.util.trimComma;
-						String searchKeywords = StringUtils.trimComma(searchKeywordsBuffer.toString());
-						String clickCategoryIds = StringUtils.trimComma(clickCategoryIdsBuffer.toString());
-						
-						//计算session访问时长（秒）
-						long visitLength = (endTime.getTime() - startTime.getTime()) / 1000;
-						
-						//返回的数据即是<sessionid, partAggrInfo>
-						//但是，这一步聚合后，其实还需要将每一行数据，根对应的用户信息进行聚合
-						//问题来了，如果是跟用户信息进行聚合的话，那么key就不应该是sessionid，而应该是userid
-						//才能够跟<userid, Row>格式的用户信息进行聚合
-						//如果我们这里直接返回<sessionid, partAggrInfo>,还得再做一次mapToPair算子
-						//将RDD映射成<userid,partAggrInfo>的格式，那么就多此一举
-						
-						//所以，我们这里其实可以直接返回数据格式就是<userid,partAggrInfo>
-						//然后在直接将返回的Tuple的key设置成sessionid
-						//最后的数据格式，还是<sessionid,fullAggrInfo>
-						
-						//聚合数据，用什么样的格式进行拼接？
-						//我们这里统一定义，使用key=value|key=vale
-						
-						//在Constants.java中定义spark作业相关的常量
-						//String FIELD_SESSION_ID = "sessionid";
-						//String FIELD_SEARCH_KEYWORDS = "searchKeywords";
-						//String FIELD_CLICK_CATEGORY_IDS = "clickCategoryIds";
-						//String FIELD_VISIT_LENGTH = "visitLength";
-						//String FIELD_STEP_LENGTH = "stepLength";
-						//String FIELD_START_TIME = "starttime";
-						String partAggrInfo = Constants.FIELD_SESSION_ID + "=" + sessionid + "|"
-								+ Constants.FIELD_SEARCH_KEYWORDS + "=" + searchKeywords + "|"
-								+ Constants.FIELD_CLICK_CATEGORY_IDS + "=" + clickCategoryIds + "|"
-								+ Constants.FIELD_VISIT_LENGTH + "=" + visitLength + "|"
-								+ Constants.FIELD_STEP_LENGTH + "=" + stepLength + "|"
-								+ Constants.FIELD_START_TIME + "=" + DateUtils.formatDate(startTime);
-						
-						return new Tuple2<Long, String>(userid, partAggrInfo);
+				});
+	}
+	
+	/**
+	 * 通过shuffle join将session聚合数据与用户信息进行join
+	 * @param sessionid2CombinerRDD session聚合中间结果
+	 * @param userInfoRDD 用户数据
+	 * @return <sessionid,fullAggrInfo>
+	 */
+	private static JavaPairRDD<String, SessionAggr> joinUserInfoByShuffle(
+			JavaPairRDD<String, SessionAggrCombiner> sessionid2CombinerRDD,
+			JavaRDD<Row> userInfoRDD) {
+		//生成最终的session聚合数据
+		//到此为止，获取的数据格式如下：<userid,partAggrInfo(sessionid,searchKeywords,clickCategoryIds)>
+		//这里直接返回<userid,partAggrInfo>，方便后面跟<userid,Row>格式的用户信息进行join
+		JavaPairRDD<Long, SessionAggr> userid2PartAggrInfoRDD = sessionid2CombinerRDD.mapToPair(
+				new PairFunction<Tuple2<String, SessionAggrCombiner>, Long, SessionAggr>() {
+				
+					private static final long serialVersionUID = 1L;
+				
+					public Tuple2<Long, SessionAggr> call(Tuple2<String, SessionAggrCombiner> tuple)
+							throws Exception {
+						SessionAggr partAggrInfo = tuple._2.toSessionAggr(tuple._1);
+						return new Tuple2<Long, SessionAggr>(partAggrInfo.getUserid(), partAggrInfo);
 					}
 			
 				});
 		
-		//查询所有用户数据，并映射成<userid,Row>的格式
-		String sql = "select * from user_info";
-		JavaRDD<Row> userInfoRDD = sqlContext.sql(sql).javaRDD();
-		
-		JavaPairRDD<Long, Row> userid2InfoRDD = userInfoRDD.mapToPair(
-				new PairFunction<Row, Long, Row>(){
+		//将用户数据映射成<userid,UserInfo>的格式
+		JavaPairRDD<Long, UserInfo> userid2InfoRDD = userInfoRDD.mapToPair(
+				new PairFunction<Row, Long, UserInfo>(){
 
 					private static final long serialVersionUID = 1L;
 
-					public Tuple2<Long, Row> call(Row row) throws Exception {
-						return new Tuple2<Long, Row>(row.getLong(0), row);
+					public Tuple2<Long, UserInfo> call(Row row) throws Exception {
+						return new Tuple2<Long, UserInfo>(row.getLong(0), new UserInfo(row));
 					}
 					
 				});
 		
 		//将session粒度聚合数据，与用户信息进行join
-		JavaPairRDD<Long, Tuple2<String, Row>> userid2FullInfoRDD = 
+		JavaPairRDD<Long, Tuple2<SessionAggr, UserInfo>> userid2FullInfoRDD = 
 				userid2PartAggrInfoRDD.join(userid2InfoRDD);
 		
-		//对join起来的数据进行拼接，并且返回<sessionid,fullAggrInfo>格式的数据
-		JavaPairRDD<String, String> sessionid2FullAggrInfoRDD = userid2FullInfoRDD.mapToPair(
+		//对join起来的数据补全用户字段，并且返回<sessionid,fullAggrInfo>格式的数据
+		JavaPairRDD<String, SessionAggr> sessionid2FullAggrInfoRDD = userid2FullInfoRDD.mapToPair(
 				
-				new PairFunction<Tuple2<Long, Tuple2<String, Row>>, String, String>() {
+				new PairFunction<Tuple2<Long, Tuple2<SessionAggr, UserInfo>>, String, SessionAggr>() {
 
 					private static final long serialVersionUID = 1L;
 
-					public Tuple2<String, String> call(
-							Tuple2<Long, Tuple2<String, Row>> tuple) throws Exception {
-						String partAggrInfo = tuple._2._1;
-						Row userInfoRow = tuple._2._2;
-						
-						String sessionid = StringUtils.getFieldFromConcatString(
-								partAggrInfo, "\\|", Constants.FIELD_SESSION_ID);
+					public Tuple2<String, SessionAggr> call(
+							Tuple2<Long, Tuple2<SessionAggr, UserInfo>> tuple) throws Exception {
+						SessionAggr aggrInfo = tuple._2._1;
+						tuple._2._2.fill(aggrInfo);
 						
-						int age = userInfoRow.getInt(3);
-						String professional = userInfoRow.getString(4);
-						String city = userInfoRow.getString(5);
-						String sex = userInfoRow.getString(6);
-						
-						//在Constants.java中添加以下常量
-						//String FIELD_AGE = "age";
-						//String FIELD_PROFESSIONAL = "professional";
-						//String FIELD_CITY = "city";
-						//String FIELD_SEX = "sex";
-						String fullAggrInfo = partAggrInfo + "|"
-								+ Constants.FIELD_AGE + "=" + age + "|"
-								+ Constants.FIELD_PROFESSIONAL + "=" + professional + "|"
-								+ Constants.FIELD_CITY + "=" + city + "|"
-								+ Constants.FIELD_SEX + "=" + sex ;
-						return new Tuple2<String, String>(sessionid, fullAggrInfo);
+						return new Tuple2<String, SessionAggr>(aggrInfo.getSessionid(), aggrInfo);
 					}
 				
 					
@@ -519,160 +675,57 @@ public class UserVisitSessionAnalyzeSpark {
 	
 	/**
 	 * 过滤session数据，并进行聚合统计
+	 * @param sc
 	 * @param sessionid2AggrInfoRDD
 	 * @return
 	 */
-	private static JavaPairRDD<String, String> filterSessionAndAggrStat(
-			JavaPairRDD<String, String> sessionid2AggrInfoRDD, 
-			final JSONObject taskParam, 
-			final Accumulator<String> sessionAggrAccumulator) {
-		//为了使用后面的ValieUtils,所以，首先将所有的筛选参数拼接成一个连接串
-		String startAge = ParamUtils.getParam(taskParam, Constants.PARAM_END_AGE);
-		String endAge = ParamUtils.getParam(taskParam, Constants.PARAM_END_AGE);
-		String professionals = ParamUtils.getParam(taskParam, Constants.PARAM_PROFESSIONALS);
-		String cities = ParamUtils.getParam(taskParam, Constants.PARAM_CITIES);
-		String sex = ParamUtils.getParam(taskParam, Constants.PARAM_SEX);
-		String keywords = ParamUtils.getParam(taskParam, Constants.PARAM_KEYWORDS);
-		String categoryIds = ParamUtils.getParam(taskParam, Constants.PARAM_CATEGORY_IDS);
-		
-		String _parameter = (startAge != null ? Constants.PARAM_START_AGE + "=" + startAge + "|" : "")
-				+ (endAge != null ? Constants.PARAM_END_AGE + "=" + endAge + "|" : "")
-				+ (professionals != null ? Constants.PARAM_PROFESSIONALS + "=" + professionals + "|" : "")
-				+ (cities != null ? Constants.PARAM_CITIES + "=" + cities + "|" : "")
-				+ (sex != null ? Constants.PARAM_SEX + "=" + sex + "|" : "")
-				+ (keywords != null ? Constants.PARAM_KEYWORDS + "=" + keywords + "|" : "")
-				+ (categoryIds != null ? Constants.PARAM_CATEGORY_IDS + "=" + categoryIds : "");
-		
-		if (_parameter.endsWith("\\|")) {
-			_parameter = _parameter.substring(0, _parameter.length() - 1);
-		}
-		
-		final String parameter = _parameter;
+	private static JavaPairRDD<String, SessionAggr> filterSessionAndAggrStat(
+			JavaSparkContext sc,
+			JavaPairRDD<String, SessionAggr> sessionid2AggrInfoRDD, 
+			JSONObject taskParam, 
+			final Accumulable<long[], SessionAggr> sessionAggrAccumulator) {
+		//在Driver端将所有的筛选参数一次性编译成过滤条件
+		//年龄范围、职业、城市、性别、搜索词、点击品类，按照通过率从低到高的顺序判断
+		//然后广播出去，每个executor只保留一份，过滤的时候不再解析任何字符串
+		SessionPredicate predicate = SessionPredicates.compile(taskParam);
+		final Broadcast<SessionPredicate> predicateBroadcast = sc.broadcast(predicate);
 		
 		//根据筛选参数进行过滤
-		JavaPairRDD<String, String> filteredSessionid2AggrInfoRDD = sessionid2AggrInfoRDD.filter(
+		JavaPairRDD<String, SessionAggr> filteredSessionid2AggrInfoRDD = sessionid2AggrInfoRDD.filter(
 				
-				new Function<Tuple2<String, String>, Boolean>() {
+				new Function<Tuple2<String, SessionAggr>, Boolean>() {
 
 				
 					private static final long serialVersionUID = 1L;
 
-					public Boolean call(Tuple2<String, String> tuple) throws Exception {
+					public Boolean call(Tuple2<String, SessionAggr> tuple) throws Exception {
 						//首先，从tuple中，获取聚合数据
-						String aggrInfo = tuple._2;
-						
-						//接着，依次按照筛选条件进行过滤
-						//按照年龄范围进行过滤（startAge、endAge）
-						//先在Constants.java中添加常量
-						//String PARAM_START_AGE = "startAge";
-						//String PARAM_END_AGE = "endage";
-						//String PARAM_PROFESSIONALS = "professionals";
-						//String PARAM_CITIES = "cities";
-						//String PARAM_SEX = "sex";
-						//String PARAM_KEYWORDS = "keywords";
-						//String PARAM_CATEGORY_IDS = "categoryIds";
-						if(!ValidUtils.between(aggrInfo, Constants.FIELD_AGE, 
-								parameter, Constants.PARAM_START_AGE, Constants.PARAM_END_AGE)) {
-							return false;
-						}
-						
-						//按照职业范围进行过滤（professionals）
-						if(!ValidUtils.in(aggrInfo, Constants.FIELD_PROFESSIONAL, 
-								parameter, Constants.PARAM_PROFESSIONALS)) {
-							return false;
-						}
-						
-						//按照城市范围进行过滤（cities）
-						if(!ValidUtils.in(aggrInfo, Constants.FIELD_CITY, 
-								parameter, Constants.PARAM_CATEGORY_IDS)) {
-							return false;
-						}
-						
-						//按照性别过滤
-						if(!ValidUtils.equal(aggrInfo, Constants.FIELD_SEX, 
-								parameter, Constants.PARAM_SEX)) {
-							return false;
-						}
-						
-						//按照搜索词过滤
-						if(!ValidUtils.in(aggrInfo, Constants.FIELD_SEARCH_KEYWORDS, 
-								parameter, Constants.PARAM_KEYWORDS)) {
-							return false;
-							
-						}
-						
-						//按照点击品类id进行搜索
-						if(!ValidUtils.in(aggrInfo, Constants.FIELD_CLICK_CATEGORY_IDS, 
-								parameter, Constants.PARAM_CATEGORY_IDS)) {
-							return false;
-						}
+						SessionAggr aggrInfo = tuple._2;
 						
-						//如果经过了之前的多个过滤条件之后，程序能够走到这里
-						//那么说明该session是通过了用户指定的筛选条件的，也就是需要保留的session
-						//那么就要对session的访问时长和访问步长进行统计，
-						//根据session对应的范围进行相应的累加计数
-						//只要走到这一步，那么就是需要计数的session
-						sessionAggrAccumulator.add(Constants.SESSION_COUNT);
-						
-						//计算出session的访问时长和访问步长的范围，并进行相应的累加
-						long visitLength = Long.valueOf(StringUtils.getFieldFromConcatString(
-								aggrInfo, "\\|", Constants.FIELD_VISIT_LENGTH));
-						long stepLength = Long.valueOf(StringUtils.getFieldFromConcatString(
-								aggrInfo, "\\|", Constants.FIELD_STEP_LENGTH));
-						calculateVisitLength(visitLength);
-						calculateStepLength(stepLength);
-						
-						return true;
-					}
-					
-					/**
-					 * 计算访问时长范围
-					 * @param visitLength
-					 */
-					private void calculateVisitLength(long visitLength) {
-						if(visitLength >= 1 && visitLength <= 3) {
-							sessionAggrAccumulator.add(Constants.TIME_PERIOD_1s_3s);
-						}else if(visitLength >= 4 && visitLength <= 6) {
-							sessionAggrAccumulator.add(Constants.TIME_PERIOD_4s_6s);
-						}else if(visitLength >= 7 && visitLength <= 9) {
-							sessionAggrAccumulator.add(Constants.TIME_PERIOD_7s_9s);
-						}else if(visitLength >= 10 && visitLength <= 30) {
-							sessionAggrAccumulator.add(Constants.TIME_PERIOD_10s_30s);
-						}else if(visitLength > 30 && visitLength <= 60) {
-							sessionAggrAccumulator.add(Constants.TIME_PERIOD_30s_60s);
-						}else if(visitLength > 60 && visitLength <= 180) {
-							sessionAggrAccumulator.add(Constants.TIME_PERIOD_1m_3m);
-						}else if(visitLength > 180 && visitLength <= 600) {
-							sessionAggrAccumulator.add(Constants.TIME_PERIOD_3m_10m);
-						}else if(visitLength > 600 && visitLength <= 1800) {
-							sessionAggrAccumulator.add(Constants.TIME_PERIOD_10m_30m);
-						}else if(visitLength > 1800) {
-							sessionAggrAccumulator.add(Constants.TIME_PERIOD_30m);
-						}
-					}
-					
-					/**
-					 * 计算访问步长范围
-					 * @param stepLength
-					 */
-					private void calculateStepLength(long stepLength) {
-						if(stepLength >= 1 && stepLength <= 3) {
-							sessionAggrAccumulator.add(Constants.STEP_PERIOD_1_3);
-						}else if(stepLength >= 4 && stepLength <= 6) {
-							sessionAggrAccumulator.add(Constants.STEP_PERIOD_4_6);
-						}else if(stepLength >= 7 && stepLength <= 9) {
-							sessionAggrAccumulator.add(Constants.STEP_PERIOD_7_9);
-						}else if(stepLength >= 10 && stepLength <= 30) {
-							sessionAggrAccumulator.add(Constants.STEP_PERIOD_10_30);
-						}else if(stepLength > 30 && stepLength <= 60) {
-							sessionAggrAccumulator.add(Constants.STEP_PERIOD_30_60);
-						}else if(stepLength > 60) {
-							sessionAggrAccumulator.add(Constants.STEP_PERIOD_60);
-						}
+						//依次按照筛选条件进行过滤，任何一个条件不满足就直接返回
+						return predicateBroadcast.value().test(aggrInfo);
 					}
 			
 		});
 		
+		//过滤后的RDD后面会被随机抽取、top10品类等多个job使用，持久化以后只计算一次
+		filteredSessionid2AggrInfoRDD = filteredSessionid2AggrInfoRDD.persist(
+				StorageLevel.MEMORY_AND_DISK());
+		
+		//在单独的action中对通过筛选的session进行统计
+		//如果在filter中累加，每个使用过滤后RDD的job、task重试和推测执行都会重复累加，
+		//action中的累加，每个partition只会被计算一次
+		//Accumulator内部计算出session的访问时长和访问步长的范围，并进行相应的累加
+		filteredSessionid2AggrInfoRDD.foreach(new VoidFunction<Tuple2<String, SessionAggr>>() {
+			
+			private static final long serialVersionUID = 1L;
+			
+			public void call(Tuple2<String, SessionAggr> tuple) throws Exception {
+				sessionAggrAccumulator.add(tuple._2);
+			}
+			
+		});
+		
 		return filteredSessionid2AggrInfoRDD;
 	}
 	
@@ -683,16 +736,16 @@ public class UserVisitSessionAnalyzeSpark {
 	 * @return
 	 */
 	private static JavaPairRDD<String, Row> getSessionid2detailRDD(
-			JavaPairRDD<String, String> sessionid2aggrInfoRDD,
+			JavaPairRDD<String, SessionAggr> sessionid2aggrInfoRDD,
 			JavaPairRDD<String, Row> sessionid2actionRDD) {
 		JavaPairRDD<String, Row> sessionid2detailRDD = sessionid2aggrInfoRDD
 				.join(sessionid2actionRDD)
-				.mapToPair(new PairFunction<Tuple2<String, Tuple2<String, Row>>, String, Row>() {
+				.mapToPair(new PairFunction<Tuple2<String, Tuple2<SessionAggr, Row>>, String, Row>() {
 
 					private static final long serialVersionUID = 1L;
 
 					public Tuple2<String, Row> call(
-							Tuple2<String, Tuple2<String, Row>> tuple) throws Exception {
+							Tuple2<String, Tuple2<SessionAggr, Row>> tuple) throws Exception {
 						return new Tuple2<String, Row>(tuple._1, tuple._2._2);
 					}
 			
@@ -703,28 +756,28 @@ public class UserVisitSessionAnalyzeSpark {
 	/**
 	 * 随机抽取session
 	 * @param sessionid2AggrInfo
+	 * @return 写入session明细数据成功的attempt
 	 */
-	private static void randomExtractSession(
+	private static List<String> randomExtractSession(
 			final long taskid,
-			JavaPairRDD<String, String> sessionid2AggrInfoRDD,
+			JavaPairRDD<String, SessionAggr> sessionid2AggrInfoRDD,
 			JavaPairRDD<String, Row> sessionid2actionRDD) {
 		/**
 		 * 第一步，计算每天每小时的session数量
 		 */
 		
 		//获取<yyyy-mm-dd_hh,aggrinfo>格式的RDD
-		JavaPairRDD<String, String> time2sessionidRDD = sessionid2AggrInfoRDD.mapToPair(
-				new PairFunction<Tuple2<String, String>, String, String>(){
+		JavaPairRDD<String, SessionAggr> time2sessionidRDD = sessionid2AggrInfoRDD.mapToPair(
+				new PairFunction<Tuple2<String, SessionAggr>, String, SessionAggr>(){
 
 					private static final long serialVersionUID = 1L;
 
-					public Tuple2<String, String> call(
-							Tuple2<String, String> tuple) throws Exception {
-						String aggrInfo = tuple._2;
-						String startTime = StringUtils.getFieldFromConcatString(
-								aggrInfo, "\\|", Constants.FIELD_START_TIME);
+					public Tuple2<String, SessionAggr> call(
+							Tuple2<String, SessionAggr> tuple) throws Exception {
+						SessionAggr aggrInfo = tuple._2;
+						String startTime = DateUtils.formatTime(new Date(aggrInfo.getStartTime()));
 						String dateHour = DateUtils.getDateHour(startTime);
-						return new Tuple2<String, String>(dateHour, aggrInfo);
+						return new Tuple2<String, SessionAggr>(dateHour, aggrInfo);
 					}			
 				});
 		
@@ -822,34 +875,69 @@ public class UserVisitSessionAnalyzeSpark {
 		 */
 		
 		//执行groupByKey算子，得到<dateHour,(session aggrInfo)>
-		JavaPairRDD<String, Iterable<String>> time2sessionsRDD = time2sessionidRDD.groupByKey();
+		JavaPairRDD<String, Iterable<SessionAggr>> time2sessionsRDD = time2sessionidRDD.groupByKey();
 		
 		//我们用flatMap算子遍历所有的<dateHour,(session aggrInfo)>格式的数据
 		//然后会遍历每天每小时的session
-		//如果发现某个session恰巧在我们指定的这天这小时的随机抽取索引上
-		//那么抽取该session，直接写入MySQL的random_extract_session表
-		//将抽取出来的session id返回回来，形成一个新的JavaRDD<String>
-		//然后最后一步，用抽取出来的sessionid去join它们的访问行为明细数据写入session表
-		JavaPairRDD<String, String> extractSessionidsRDD = time2sessionsRDD.flatMapToPair(
+		//如果发现某个session恰巧在我们指定的这天这小时的随机抽取索引上，那么抽取该session
+		//这里只负责抽取，写入MySQL放在后面的action中
+		//因为算子中的写操作在task重试、推测执行的时候会重复执行，写入重复的数据
+		JavaPairRDD<String, SessionAggr> extractSessionsRDD = time2sessionsRDD.flatMapToPair(
 				
-				new PairFlatMapFunction<Tuple2<String, Iterable<String>>, String, String>() {
+				new PairFlatMapFunction<Tuple2<String, Iterable<SessionAggr>>, String, SessionAggr>() {
 
 					private static final long serialVersionUID = 1L;
 
-					public Iterable<Tuple2<String, String>> call(
-							Tuple2<String, Iterable<String>> tuple) 
+					public Iterable<Tuple2<String, SessionAggr>> call(
+							Tuple2<String, Iterable<SessionAggr>> tuple) 
 									throws Exception {
-						List<Tuple2<String, String>> extractSessionids = 
-								new ArrayList<Tuple2<String, String>>();
+						List<Tuple2<String, SessionAggr>> extractSessions = 
+								new ArrayList<Tuple2<String, SessionAggr>>();
 						
 						String dateHour = tuple._1;
 						String date = dateHour.split("_")[0];
 						String hour = dateHour.split("_")[1];
-						Iterator<String> iterator = tuple._2.iterator();
 						
 						//拿到这一天这一小时的随机索引
 						List<Integer> extractIndexList = dateHourExtractMap.get(date).get(hour);
 						
+						//groupByKey之后session的顺序是不确定的，task重新计算的时候可能会抽到别的session
+						//所以先按照sessionid排序，保证每次计算抽取的都是同样的session
+						List<SessionAggr> sessions = new ArrayList<SessionAggr>();
+						for(SessionAggr sessionAggrInfo : tuple._2) {
+							sessions.add(sessionAggrInfo);
+						}
+						Collections.sort(sessions, new Comparator<SessionAggr>() {
+							
+							public int compare(SessionAggr o1, SessionAggr o2) {
+								return o1.getSessionid().compareTo(o2.getSessionid());
+							}
+							
+						});
+						
+						for(int index = 0; index < sessions.size(); index++) {
+							if(extractIndexList.contains(index)) {
+								SessionAggr sessionAggrInfo = sessions.get(index);
+								extractSessions.add(new Tuple2<String, SessionAggr>(
+										sessionAggrInfo.getSessionid(), sessionAggrInfo));
+							}
+						}
+						
+						return extractSessions;
+					}
+					
+				});
+		
+		//将抽取出来的session写入MySQL的session_random_extract表
+		List<String> extractAttemptKeys = extractSessionsRDD.mapPartitions(
+				new FlatMapFunction<Iterator<Tuple2<String, SessionAggr>>, String>() {
+
+					private static final long serialVersionUID = 1L;
+
+					public Iterable<String> call(Iterator<Tuple2<String, SessionAggr>> iterator)
+							throws Exception {
+						String attemptKey = getAttemptKey();
+						
 						//先建domain和DAO
 						//先在包com.erik.sparkproject.domain中新建SessionRandomExtract.java
 						//然后在包com.erik.sparkproject.dao中新建ISessionRandomExtractDAO.java
@@ -860,127 +948,83 @@ public class UserVisitSessionAnalyzeSpark {
 					    //}
 						ISessionRandomExtractDAO sessionRandomExtractDAO = 
 								DAOFactory.getSessionRandomExtractDAO();
+						List<SessionRandomExtract> sessionRandomExtracts = 
+								new ArrayList<SessionRandomExtract>();
 						
-						int index = 0;
 						while(iterator.hasNext()) {
-							String sessionAggrInfo = iterator.next();
+							SessionAggr sessionAggrInfo = iterator.next()._2;
 							
-							if(extractIndexList.contains(index)) {
-								String sessionid = StringUtils.getFieldFromConcatString(
-										sessionAggrInfo, "\\|", Constants.FIELD_SESSION_ID);
-								
-								//将数据写入MySQL
-								SessionRandomExtract sessionRandomExtract = new SessionRandomExtract();
-								
-								//增加参数
-								//private static void randomExtractSession(
-								//final long taskid,
-								//JavaPairRDD<String, String> sessionid2AggrInfoRDD)
-								sessionRandomExtract.setTaskid(taskid);
-								sessionRandomExtract.setSessionid(sessionid);
-								sessionRandomExtract.setSessionid(StringUtils.getFieldFromConcatString(
-										sessionAggrInfo, "\\|", Constants.FIELD_SESSION_ID));
-								sessionRandomExtract.setSearchKeywords(StringUtils.getFieldFromConcatString(
-										sessionAggrInfo, "\\|", Constants.FIELD_SEARCH_KEYWORDS));
-								sessionRandomExtract.setClickCategoryIds(StringUtils.getFieldFromConcatString(
-										sessionAggrInfo, "\\|", Constants.FIELD_CLICK_CATEGORY_IDS));
-								
-								sessionRandomExtractDAO.insert(sessionRandomExtract);
-								
-								//将sessionid加入list
-								extractSessionids.add(new Tuple2<String, String>(sessionid, sessionid));
-							}
-							
-							index ++;
+							SessionRandomExtract sessionRandomExtract = new SessionRandomExtract();
+							sessionRandomExtract.setTaskid(taskid);
+							sessionRandomExtract.setSessionid(sessionAggrInfo.getSessionid());
+							sessionRandomExtract.setStartTime(DateUtils.formatTime(
+									new Date(sessionAggrInfo.getStartTime())));
+							sessionRandomExtract.setSearchKeywords(
+									sessionAggrInfo.getSearchKeywordsString());
+							sessionRandomExtract.setClickCategoryIds(
+									sessionAggrInfo.getClickCategoryIdsString());
 							
+							sessionRandomExtracts.add(sessionRandomExtract);
+						}
+						
+						//这个partition抽取出来的session一次批量写入staging表
+						if(!sessionRandomExtracts.isEmpty()) {
+							insertBatchAsync(sessionRandomExtractDAO, sessionRandomExtracts, attemptKey);
 						}
 						
-						return extractSessionids;
+						return Collections.singletonList(attemptKey);
 					}
 					
-				});
+				}).collect();
+		
+		//action执行成功以后，把成功的attempt写入的数据发布到正式表
+		DAOFactory.getStagingDAO().publish(TABLE_SESSION_RANDOM_EXTRACT, taskid, extractAttemptKeys);
 		
 		/**
 		 * 第四步：获取抽取出来的session的明细数据
 		 */
-		JavaPairRDD<String, Tuple2<String, Row>> extractSessionDetailRDD = 
-				extractSessionidsRDD.join(sessionid2actionRDD);
-		extractSessionDetailRDD.foreach(new VoidFunction<Tuple2<String, Tuple2<String, Row>>>() {
+		JavaPairRDD<String, String> extractSessionidsRDD = extractSessionsRDD.mapToPair(
+				new PairFunction<Tuple2<String, SessionAggr>, String, String>() {
 
-		
-			private static final long serialVersionUID = 1L;
+					private static final long serialVersionUID = 1L;
 
-			public void call(Tuple2<String, Tuple2<String, Row>> tuple) throws Exception {
-				//在包com.erik.sparkproject.domain中新建SessionDetail.java
-				//在包com.erik.sparkproject.dao中新建ISessionDetailDAO.java接口
-				//在包com.erik.sparkproject.impl中新建SessionDetailDAOImpl.java
-				//在DAOFactory.java中添加
-				//public static ISessionDetailDAO getSessionDetailDAO() {
-				//return new SessionDetailDAOImpl();
-			    //}
-				Row row = tuple._2._2;
-				
-				//封装sessionDetail的domain
-				SessionDetail sessionDetail = new SessionDetail();
-				sessionDetail.setTaskid(taskid);
-				sessionDetail.setUserid(row.getLong(1));
-				sessionDetail.setSessionid(row.getString(2));
-				sessionDetail.setPageid(row.getLong(3));
-				sessionDetail.setActionTime(row.getString(4));
-				sessionDetail.setSearchKeyword(row.getString(5));
-				sessionDetail.setClickCategoryId(row.getLong(6));
-				sessionDetail.setClickProductId(row.getLong(7));
-				sessionDetail.setOrderCategoryIds(row.getString(8));
-				sessionDetail.setOrderProductIds(row.getString(9));
-				sessionDetail.setPayCategoryIds(row.getString(10));
-				sessionDetail.setPayProductIds(row.getString(11));
-				
-				ISessionDetailDAO sessionDetailDAO = DAOFactory.getSessionDetailDAO();
-				sessionDetailDAO.insert(sessionDetail);
-			}
-			
-		});
+					public Tuple2<String, String> call(
+							Tuple2<String, SessionAggr> tuple) throws Exception {
+						return new Tuple2<String, String>(tuple._1, tuple._1);
+					}
+					
+				});
+		
+		JavaPairRDD<String, Tuple2<String, Row>> extractSessionDetailRDD = 
+				extractSessionidsRDD.join(sessionid2actionRDD);
+		return persistSessionDetail(taskid, extractSessionDetailRDD);
 	}
 	
 	/*
 	 * 计算各session范围占比，并写入MySQL
 	 */
-	private static void calculateAndPersistAggrStat(String value, long taskid) {
-		//从Accumulator统计串中获取值
-		long session_count = Long.valueOf(StringUtils.getFieldFromConcatString(
-				value, "\\|", Constants.SESSION_COUNT));
-		
-		long visit_length_1s_3s = Long.valueOf(StringUtils.getFieldFromConcatString(
-				value, "\\|", Constants.TIME_PERIOD_1s_3s));
-		long visit_length_4s_6s = Long.valueOf(StringUtils.getFieldFromConcatString(
-				value, "\\|", Constants.TIME_PERIOD_4s_6s));
-		long visit_length_7s_9s = Long.valueOf(StringUtils.getFieldFromConcatString(
-				value, "\\|", Constants.TIME_PERIOD_7s_9s));
-		long visit_length_10s_30s = Long.valueOf(StringUtils.getFieldFromConcatString(
-				value, "\\|", Constants.TIME_PERIOD_10s_30s));
-		long visit_length_30s_60s = Long.valueOf(StringUtils.getFieldFromConcatString(
-				value, "\\|", Constants.TIME_PERIOD_30s_60s));
-		long visit_length_1m_3m = Long.valueOf(StringUtils.getFieldFromConcatString(
-				value, "\\|", Constants.TIME_PERIOD_1m_3m));
-		long visit_length_3m_10m = Long.valueOf(StringUtils.getFieldFromConcatString(
-				value, "\\|", Constants.TIME_PERIOD_3m_10m));
-		long visit_length_10m_30m = Long.valueOf(StringUtils.getFieldFromConcatString(
-				value, "\\|", Constants.TIME_PERIOD_10m_30m));
-		long visit_length_30m = Long.valueOf(StringUtils.getFieldFromConcatString(
-				value, "\\|", Constants.TIME_PERIOD_30m));
-		
-		long step_length_1_3 = Long.valueOf(StringUtils.getFieldFromConcatString(
-				value, "\\|", Constants.STEP_PERIOD_1_3));
-		long step_length_4_6 = Long.valueOf(StringUtils.getFieldFromConcatString(
-				value, "\\|", Constants.STEP_PERIOD_4_6));
-		long step_length_7_9 = Long.valueOf(StringUtils.getFieldFromConcatString(
-				value, "\\|", Constants.STEP_PERIOD_7_9));
-		long step_length_10_30 = Long.valueOf(StringUtils.getFieldFromConcatString(
-				value, "\\|", Constants.STEP_PERIOD_10_30));
-		long step_length_30_60 = Long.valueOf(StringUtils.getFieldFromConcatString(
-				value, "\\|", Constants.STEP_PERIOD_30_60));
-		long step_length_60 = Long.valueOf(StringUtils.getFieldFromConcatString(
-				value, "\\|", Constants.STEP_PERIOD_60));
+	private static void calculateAndPersistAggrStat(long[] value, long taskid) {
+		//从Accumulator统计数组中按下标获取值
+		long session_count = value[SesssionAggrStatAccumulator.SESSION_COUNT_INDEX];
+		
+		int visitOffset = SesssionAggrStatAccumulator.VISIT_LENGTH_OFFSET;
+		long visit_length_1s_3s = value[visitOffset];
+		long visit_length_4s_6s = value[visitOffset + 1];
+		long visit_length_7s_9s = value[visitOffset + 2];
+		long visit_length_10s_30s = value[visitOffset + 3];
+		long visit_length_30s_60s = value[visitOffset + 4];
+		long visit_length_1m_3m = value[visitOffset + 5];
+		long visit_length_3m_10m = value[visitOffset + 6];
+		long visit_length_10m_30m = value[visitOffset + 7];
+		long visit_length_30m = value[visitOffset + 8];
+		
+		int stepOffset = SesssionAggrStatAccumulator.STEP_LENGTH_OFFSET;
+		long step_length_1_3 = value[stepOffset];
+		long step_length_4_6 = value[stepOffset + 1];
+		long step_length_7_9 = value[stepOffset + 2];
+		long step_length_10_30 = value[stepOffset + 3];
+		long step_length_30_60 = value[stepOffset + 4];
+		long step_length_60 = value[stepOffset + 5];
 		
 		//计算各个访问时长和访问步长的范围
 		double visit_length_1s_3s_ratio = NumberUtils.formatDouble(
@@ -1036,7 +1080,8 @@ public class UserVisitSessionAnalyzeSpark {
 		sessionAggrStat.setStep_length_30_60_ratio(step_length_30_60_ratio);
 		sessionAggrStat.setStep_length_60_ratio(step_length_60_ratio);
 		
-		//调用对应的DAO插入统计结果
+		//调用对应的DAO插入统计结果，先删除这个任务之前执行时写入的结果
+		DAOFactory.getStagingDAO().clear(TABLE_SESSION_AGGR_STAT, taskid);
 		ISessionAggrStatDAO sessionAggrStatDAO = DAOFactory.getSessionAggrStatDAO();
 		sessionAggrStatDAO.insert(sessionAggrStat);
 	}
@@ -1044,51 +1089,59 @@ public class UserVisitSessionAnalyzeSpark {
 	
 	/**
 	 * 获取Top10热门品类
-	 * @param filteredSessionid2AggrInfoRDD
-	 * @param sessionid2actionRDD
+	 * 取出的品类个数可以通过任务参数topCategoryCount指定，默认为10，
+	 * 参数不是数字或者小于1的时候也使用默认值
+	 * @param taskid
+	 * @param taskParam 任务参数
+	 * @param sessionid2detailRDD
+	 * @return <排序key,品类id>
 	 */
-	private static List<Tuple2<CategorySortKey, String>> getTop10Category(
+	private static List<Tuple2<CategorySortKey, Long>> getTop10Category(
 			long taskid,
+			JSONObject taskParam,
 			JavaPairRDD<String, Row> sessionid2detailRDD) {
 		
 		/**
-		 * 第一步：获取符合条件的session访问过的所有品类
+		 * 第一步：计算各品类的点击、下单和支付的次数
+		 * 
+		 * 原来是先算出所有访问过的品类id并去重，再分别过滤出点击、下单和支付行为各做一次reduceByKey，
+		 * 最后用三次leftOuterJoin把次数拼接成字符串，一共要经过五次shuffle，
+		 * 排序之前还要把字符串再解析回来
+		 * 
+		 * 现在遍历一次访问明细，每个品类输出<categoryid,{点击次数,下单次数,支付次数}>，
+		 * 用一次reduceByKey按位累加，只需要一次shuffle
+		 * 只被点击过、没有下单和支付的品类，对应的次数自然就是0
 		 */
-		
-		//获取session访问过的所有品类id
-		//访问过指的是点击、下单、支付的品类
-		JavaPairRDD<Long, Long> categoryidRDD = sessionid2detailRDD.flatMapToPair(
-				new PairFlatMapFunction<Tuple2<String, Row>, Long, Long>() {
+		JavaPairRDD<Long, long[]> categoryid2countRDD = sessionid2detailRDD.flatMapToPair(
+				new PairFlatMapFunction<Tuple2<String, Row>, Long, long[]>() {
 
-				
 					private static final long serialVersionUID = 1L;
 
-					public Iterable<Tuple2<Long, Long>> call(
+					public Iterable<Tuple2<Long, long[]>> call(
 							Tuple2<String, Row> tuple) throws Exception {
 						
 						Row row = tuple._2;
 						
-						List<Tuple2<Long, Long>> list = new ArrayList<Tuple2<Long, Long>>();
-						Long clickCategoryId = row.getLong(6);
-						if(clickCategoryId != null) {
-							list.add(new Tuple2<Long ,Long>(clickCategoryId, clickCategoryId));
+						List<Tuple2<Long, long[]>> list = new ArrayList<Tuple2<Long, long[]>>();
+						
+						if(!row.isNullAt(6)) {
+							list.add(new Tuple2<Long, long[]>(row.getLong(6), 
+									new long[]{1L, 0L, 0L}));
 						}
 						
 						String orderCategoryIds = row.getString(8);
 						if(orderCategoryIds != null) {
-							String[] orderCategoryIdsSplited = orderCategoryIds.split(",");
-							for(String orderCategoryId : orderCategoryIdsSplited) {
-								list.add(new Tuple2<Long, Long>(Long.valueOf(orderCategoryId), 
-										Long.valueOf(orderCategoryId)));
+							for(String orderCategoryId : orderCategoryIds.split(",")) {
+								list.add(new Tuple2<Long, long[]>(Long.valueOf(orderCategoryId), 
+										new long[]{0L, 1L, 0L}));
 							}
 						}
 						
 						String payCategoryIds = row.getString(10);
 						if(payCategoryIds != null) {
-							String[] payCategoryIdsSplited = payCategoryIds.split(",");
-							for(String payCategoryId : payCategoryIdsSplited) {
-								list.add(new Tuple2<Long, Long>(Long.valueOf(payCategoryId),
-										Long.valueOf(payCategoryId)));
+							for(String payCategoryId : payCategoryIds.split(",")) {
+								list.add(new Tuple2<Long, long[]>(Long.valueOf(payCategoryId), 
+										new long[]{0L, 0L, 1L}));
 							}
 						}
 						
@@ -1097,511 +1150,301 @@ public class UserVisitSessionAnalyzeSpark {
 					
 				});
 		
-		//必须去重
-		//如果不去重的话，会出现重复的categoryid，排序会对重复的categoryid以及countInfo进行排序
-		//最后很可能会拿到重复的数据
-		categoryidRDD = categoryidRDD.distinct();
-		
-		/**
-		 * 第二步：计算各品类的点击、下单和支付的次数
-		 */
-		
-		//访问明细中，其中三种访问行为是点击、下单和支付
-		//分别来计算各品类点击、下单和支付的次数，可以先对访问明细数据进行过滤
-		//分别过滤点击、下单和支付行为，然后通过map、reduceByKey等算子进行计算
-		
-		//计算各个品类点击次数 
-		JavaPairRDD<Long, Long> clickCategoryId2CountRDD = 
-				getClickCategoryId2CountRDD(sessionid2detailRDD);
-		
-		//计算各个品类的下单次数
-		JavaPairRDD<Long, Long> orderCategoryId2CountRDD = 
-				getOrderCategoryId2CountRDD(sessionid2detailRDD);
-		
-		//计算各个品类的支付次数
-		JavaPairRDD<Long, Long> payCategoryId2CountRDD = 
-				getPayCategoryId2CountRDD(sessionid2detailRDD);
-		
-		/**
-		 * 第三步：join各品类与它的点击、下单和支付的次数
-		 * 
-		 * caetoryidRDD中包含了所有符合条件的session访问过的品类id
-		 * 
-		 * 上面分别计算出来的三份各品类的点击、下单和支付的次数，可能不是包含所有品类的，
-		 * 比如，有的品类就只是被点击过，但是没有人下单和支付
-		 * 所以，这里就不能使用join操作，而是要使用leftOutJoin操作，
-		 * 就是说，如果categoryidRDD不能join到自己的某个数据，比如点击、下单或支付数据，
-		 * 那么该categoryidRDD还是要保留下来的
-		 * 只不过，没有join到的那个数据就是0了
-		 * 
-		 */
-		JavaPairRDD<Long, String> categoryid2countRDD = joinCategoryAndData(
-				categoryidRDD, clickCategoryId2CountRDD, orderCategoryId2CountRDD, 
-				payCategoryId2CountRDD);
-		
-		/**
-		 * 第四步：自定义二次排序key
-		 */
-		
+		//个别特别热门的品类会导致数据倾斜，开启倾斜处理以后会对热点品类加盐进行两阶段聚合
+		categoryid2countRDD = SaltedAggregator.reduceByKey(
+				categoryid2countRDD,
+				new Function2<long[], long[], long[]>() {
+
+					private static final long serialVersionUID = 1L;
+
+					//数组都是上游新创建的，直接累加到第一个数组上，不需要再创建新数组
+					public long[] call(long[] v1, long[] v2) throws Exception {
+						v1[0] += v2[0];
+						v1[1] += v2[1];
+						v1[2] += v2[2];
+						return v1;
+					}
+				},
+				"category");
 		
 		/**
-		 * 第五步：将数据映射成<SortKey,info>格式的RDD，然后进行二次排序（降序）
+		 * 第二步：将数据映射成<SortKey,categoryid>格式的RDD
 		 */
-		JavaPairRDD<CategorySortKey, String> sortKey2countRDD = categoryid2countRDD.mapToPair(
-				new PairFunction<Tuple2<Long, String>, CategorySortKey, String>() {
+		JavaRDD<Tuple2<CategorySortKey, Long>> sortKey2categoryidRDD = categoryid2countRDD.map(
+				new Function<Tuple2<Long, long[]>, Tuple2<CategorySortKey, Long>>() {
 
 					private static final long serialVersionUID = 1L;
 
-					public Tuple2<CategorySortKey, String> call(
-							Tuple2<Long, String> tuple) throws Exception {
-						String countInfo = tuple._2;
-						long clickCount = Long.valueOf(StringUtils.getFieldFromConcatString(
-								countInfo, "\\|", Constants.FIELD_CLICK_COUNT));
-						long orderCount = Long.valueOf(StringUtils.getFieldFromConcatString(
-								countInfo, "\\|", Constants.FIELD_ORDER_COUNT));
-						long payCount = Long.valueOf(StringUtils.getFieldFromConcatString(
-								countInfo, "\\|", Constants.FIELD_PAY_COUNT));
-						
-						CategorySortKey sortKey = new CategorySortKey(clickCount, 
-								orderCount, payCount);
-						return new Tuple2<CategorySortKey, String>(sortKey, countInfo);
+					public Tuple2<CategorySortKey, Long> call(
+							Tuple2<Long, long[]> tuple) throws Exception {
+						long[] counts = tuple._2;
+						CategorySortKey sortKey = new CategorySortKey(counts[0], 
+								counts[1], counts[2]);
+						return new Tuple2<CategorySortKey, Long>(sortKey, tuple._1);
 					}
 					
 				});
 		
-		JavaPairRDD<CategorySortKey, String> sortedCategoryCountRDD = 
-				sortKey2countRDD.sortByKey(false);
-		
 		/**
-		 * 第六步：用kake(10)取出top10热门品类，并写入MySQL
+		 * 第三步：用takeOrdered()取出topN热门品类，并写入MySQL
+		 * 
+		 * 原来是先sortByKey(false)再take(10)，sortByKey需要先采样划分范围，
+		 * 再对所有品类进行一次全局排序的shuffle，而我们只需要最前面的几个
+		 * takeOrdered()在每个partition中维护一个有界堆，只把每个partition的topN拉到Driver端合并
 		 */
+		int topCategoryCount = 10;
+		String topCategoryCountParam = ParamUtils.getParam(taskParam, Constants.PARAM_TOP_CATEGORY_COUNT);
+		if(topCategoryCountParam != null) {
+			try {
+				int count = Integer.parseInt(topCategoryCountParam.trim());
+				if(count >= 1) {
+					topCategoryCount = count;
+				} else {
+					System.out.println("topCategoryCount参数" + count + "小于1，使用默认值10");
+				}
+			} catch (NumberFormatException e) {
+				System.out.println("topCategoryCount参数" + topCategoryCountParam + "不是数字，使用默认值10");
+			}
+		}
+		
 		ITop10CategoryDAO top10CategoryDAO = DAOFactory.getTop10CategoryDAO();
 		
-		List<Tuple2<CategorySortKey, String>> top10CategoryList = 
-				sortedCategoryCountRDD.take(10);
-		for(Tuple2<CategorySortKey, String> tuple : top10CategoryList) {
-			String countInfo = tuple._2;
-			long categoryid = Long.valueOf(StringUtils.getFieldFromConcatString(
-					countInfo, "\\|", Constants.FIELD_CATEGORY_ID));
-			long clickCount = Long.valueOf(StringUtils.getFieldFromConcatString(
-					countInfo, "\\|", Constants.FIELD_CLICK_COUNT));
-			long orderCount = Long.valueOf(StringUtils.getFieldFromConcatString(
-					countInfo, "\\|", Constants.FIELD_ORDER_COUNT));
-			long payCount = Long.valueOf(StringUtils.getFieldFromConcatString(
-					countInfo, "\\|", Constants.FIELD_PAY_COUNT));
+		List<Tuple2<CategorySortKey, Long>> top10CategoryList = 
+				sortKey2categoryidRDD.takeOrdered(topCategoryCount, new CategoryTopComparator());
+		List<Top10Category> top10Categories = new ArrayList<Top10Category>();
+		for(Tuple2<CategorySortKey, Long> tuple : top10CategoryList) {
+			CategorySortKey sortKey = tuple._1;
 			
 			//封装domain对象
 			Top10Category category = new Top10Category();
 			category.setTaskid(taskid);
-			category.setCategoryid(categoryid);
-			category.setClickCount(clickCount);
-			category.setOrderCount(orderCount);
-			category.setPayCount(payCount);
+			category.setCategoryid(tuple._2);
+			category.setClickCount(sortKey.getClickCount());
+			category.setOrderCount(sortKey.getOrderCount());
+			category.setPayCount(sortKey.getPayCount());
 			
-			top10CategoryDAO.insert(category);
+			top10Categories.add(category);
+		}
+		//先删除这个任务之前执行时写入的结果
+		DAOFactory.getStagingDAO().clear(TABLE_TOP10_CATEGORY, taskid);
+		if(!top10Categories.isEmpty()) {
+			top10CategoryDAO.insertBatch(top10Categories);
 		}
 		return top10CategoryList;
 	}
 	
-	
 	/**
-	 * 获取各品类点击次数RDD
+	 * 获取top10活跃session
+	 * @param taskid
+	 * @param sessionid2detailRDD
+	 * @return 写入session明细数据成功的attempt
 	 */
-	private static JavaPairRDD<Long, Long> getClickCategoryId2CountRDD(
+	private static List<String> getTop10Session(
+			JavaSparkContext sc,
+			final long taskid, 
+			List<Tuple2<CategorySortKey, Long>> top10CategoryList,
 			JavaPairRDD<String, Row> sessionid2detailRDD) {
-		JavaPairRDD<String, Row> clickActionRDD = sessionid2detailRDD.filter(
-				new Function<Tuple2<String, Row>, Boolean>() {
-
-					private static final long serialVersionUID = 1L;
-
-					public Boolean call(Tuple2<String, Row> tuple) throws Exception {
-						Row row = tuple._2;
-						
-						return row.get(6) != null ? true : false;
-					}
-		});
 		
-		JavaPairRDD<Long, Long> clickCategoryIdRDD = clickActionRDD.mapToPair(
-				new PairFunction<Tuple2<String, Row>, Long, Long>() {
-
-					private static final long serialVersionUID = 1L;
-
-					public Tuple2<Long, Long> call(Tuple2<String, Row> tuple) 
-							throws Exception {
-						long clickCategoryId = tuple._2.getLong(6);
-						
-						return new Tuple2<Long, Long>(clickCategoryId, 1L);
-					}
-				});
+		/**
+		 * 第一步：将top10热门品类的id广播出去
+		 * 
+		 * 原来是用parallelizePairs生成一份RDD，再跟各session的点击次数join，
+		 * 为了过滤出10个品类要多做一次shuffle，而且所有品类的点击次数都要先算出来
+		 * 现在把品类id放到LongHashSet中广播，提取点击行为的时候直接过滤，
+		 * 只有top10品类的点击才会参与后面的计算
+		 */
+		LongHashSet top10CategoryIdSet = new LongHashSet(top10CategoryList.size());
+		for (Tuple2<CategorySortKey, Long> category : top10CategoryList) {
+			top10CategoryIdSet.add(category._2);
+		}
 		
-			JavaPairRDD<Long, Long> clickCategoryId2CountRDD = clickCategoryIdRDD.reduceByKey(
-				
-				new Function2<Long, Long, Long>() {
-
-					private static final long serialVersionUID = 1L;
-
-					public Long call(Long v1, Long v2) throws Exception {
-						return v1 + v2;
-					}
-				});
-			
-		return clickCategoryId2CountRDD;
+		final Broadcast<LongHashSet> top10CategoryIdSetBroadcast = 
+				sc.broadcast(top10CategoryIdSet);
 		
-	}
-	
-	private static JavaPairRDD<Long, Long> getOrderCategoryId2CountRDD(
-			JavaPairRDD<String, Row>sessionid2detailRDD) {
-		JavaPairRDD<String, Row> orderActionRDD = sessionid2detailRDD.filter(
-				new Function<Tuple2<String, Row>, Boolean>() {
-
-					private static final long serialVersionUID = 1L;
-
-					public Boolean call(Tuple2<String, Row> tuple) throws Exception {
-						Row row = tuple._2;
-						return row.getString(8) != null ? true : false;
-					}
-		});
+		/**
+		 * 第二步：计算top10品类被各session点击的次数
+		 */
 		
-		JavaPairRDD<Long, Long> orderCategoryIdRDD = orderActionRDD.flatMapToPair(
-				new PairFlatMapFunction<Tuple2<String, Row>, Long, Long>(){
+		//原来是对sessionid进行groupByKey，把session的所有明细都拉到一起再计数
+		//爬虫session的明细特别多，会导致数据倾斜，这里改成只取出点击的品类id
+		//用combineByKey在map端直接累加出<sessionid,<categoryid,count>>
+		//不是top10品类的点击直接过滤掉
+		JavaPairRDD<String, Long> sessionid2clickCategoryIdRDD = sessionid2detailRDD.flatMapToPair(
+				new PairFlatMapFunction<Tuple2<String, Row>, String, Long>() {
 
 					private static final long serialVersionUID = 1L;
 
-					public Iterable<Tuple2<Long, Long>> call(Tuple2<String, Row> tuple) 
-							throws Exception {
-						
+					public Iterable<Tuple2<String, Long>> call(
+							Tuple2<String, Row> tuple) throws Exception {
 						Row row = tuple._2;
-						String orderCategoryIds = row.getString(8);
-						String[] orderCategoryIdsSplited = orderCategoryIds.split(",");
-						
-						List<Tuple2<Long, Long>> list = new ArrayList<Tuple2<Long, Long>>();
-						for(String orderCategoryId : orderCategoryIdsSplited) {
-							list.add(new Tuple2<Long, Long>(Long.valueOf(orderCategoryId), 1L));
+						if(row.isNullAt(6)) {
+							return Collections.emptyList();
 						}
-						
-						return list;
-					}
-					
-				});
-		
-		JavaPairRDD<Long, Long> orderCategoryId2CountRDD = orderCategoryIdRDD.reduceByKey(
-				new Function2<Long, Long, Long>() {
-
-					private static final long serialVersionUID = 1L;
-
-					public Long call(Long v1, Long v2) throws Exception {
-						return v1 + v2;
-					}
-			
-		});
-		
-		return orderCategoryId2CountRDD;
-	}
-	
-	
-	private static JavaPairRDD<Long, Long> getPayCategoryId2CountRDD(
-			JavaPairRDD<String, Row> sessionid2detailRDD) {
-		JavaPairRDD<String, Row> payActionRDD = sessionid2detailRDD.filter(
-				new Function<Tuple2<String, Row>, Boolean>() {
-
-					private static final long serialVersionUID = 1L;
-
-					public Boolean call(Tuple2<String, Row> tuple) throws Exception {
-						Row row = tuple._2;
-						return row.getString(10) != null ? true : false;
-					}
-					
-				});
-		
-		JavaPairRDD<Long, Long> payCategoryIdRDD = payActionRDD.flatMapToPair(
-				new PairFlatMapFunction<Tuple2<String, Row>, Long, Long>(){
-
-					private static final long serialVersionUID = 1L;
-
-					public Iterable<Tuple2<Long, Long>> call(Tuple2<String, Row> tuple) 
-							throws Exception {
-						
-						Row row = tuple._2;
-						String payCategoryIds = row.getString(10);
-						String[] payCategoryIdsSplited = payCategoryIds.split(",");
-						
-						List<Tuple2<Long, Long>> list = new ArrayList<Tuple2<Long, Long>>();
-						for(String payCategoryId : payCategoryIdsSplited) {
-							list.add(new Tuple2<Long, Long>(Long.valueOf(payCategoryId), 1L));
+						long clickCategoryId = row.getLong(6);
+						if(!top10CategoryIdSetBroadcast.value().contains(clickCategoryId)) {
+							return Collections.emptyList();
 						}
-						return list;
+						return Collections.singletonList(
+								new Tuple2<String, Long>(tuple._1, clickCategoryId));
 					}
 					
 				});
 		
-		JavaPairRDD<Long, Long> payCategoryId2CountRDD = payCategoryIdRDD.reduceByKey(
-				new Function2<Long, Long, Long>(){
+		JavaPairRDD<String, HashMap<Long, Long>> sessionid2categoryCountRDD = 
+				SaltedAggregator.combineByKey(sessionid2clickCategoryIdRDD,
+						
+						new Function<Long, HashMap<Long, Long>>() {
 
-					private static final long serialVersionUID = 1L;
+							private static final long serialVersionUID = 1L;
 
-					public Long call(Long v1, Long v2) throws Exception {
-						return v1 + v2;
-					}
-		});
-		
-		return payCategoryId2CountRDD;
-	}
-	
-	
-	private static JavaPairRDD<Long, String> joinCategoryAndData(
-			JavaPairRDD<Long, Long> categoryidRDD,
-			JavaPairRDD<Long, Long> clickCategoryId2CountRDD,
-			JavaPairRDD<Long, Long> orderCategoryId2CountRDD,
-			JavaPairRDD<Long, Long> payCategoryId2CountRDD) {
-		
-		//如果使用leftOuterJoin就有可能出现右边那个RDD中join过来时没有值
-		//所以Tuple2中的第二个值用Optional<Long>类型就代表可能有值也可能没有值
-		JavaPairRDD<Long, Tuple2<Long, Optional<Long>>> tmpJoinRDD = 
-				categoryidRDD.leftOuterJoin(clickCategoryId2CountRDD);
-		
-		JavaPairRDD<Long, String> tmpMapRDD = tmpJoinRDD.mapToPair(
-				
-				new PairFunction<Tuple2<Long,Tuple2<Long,Optional<Long>>>, Long, String>() {
+							public HashMap<Long, Long> call(Long categoryid) throws Exception {
+								HashMap<Long, Long> categoryCountMap = new HashMap<Long, Long>();
+								categoryCountMap.put(categoryid, 1L);
+								return categoryCountMap;
+							}
+							
+						},
+						
+						new Function2<HashMap<Long, Long>, Long, HashMap<Long, Long>>() {
 
-					private static final long serialVersionUID = 1L;
+							private static final long serialVersionUID = 1L;
 
-					public Tuple2<Long, String> call(
-							Tuple2<Long, Tuple2<Long, Optional<Long>>> tuple)
-							throws Exception {
-						long categoryid = tuple._1;
-						Optional<Long> optional = tuple._2._2;
-						long clickCount = 0L;
-						
-						if(optional.isPresent()) {
-							clickCount = optional.get();
-						}
-						
-						String value = Constants.FIELD_CATEGORY_ID + "=" + categoryid + "|" + 
-								Constants.FIELD_CLICK_COUNT + "=" + clickCount;
+							public HashMap<Long, Long> call(HashMap<Long, Long> categoryCountMap,
+									Long categoryid) throws Exception {
+								Long count = categoryCountMap.get(categoryid);
+								categoryCountMap.put(categoryid, count == null ? 1L : count + 1);
+								return categoryCountMap;
+							}
+							
+						},
 						
-						return new Tuple2<Long, String>(categoryid, value);  
-					}
-					
-				});
-		
-		tmpMapRDD = tmpMapRDD.leftOuterJoin(orderCategoryId2CountRDD).mapToPair(
-				
-				new PairFunction<Tuple2<Long,Tuple2<String,Optional<Long>>>, Long, String>() {
+						new Function2<HashMap<Long, Long>, HashMap<Long, Long>, HashMap<Long, Long>>() {
 
-					private static final long serialVersionUID = 1L;
+							private static final long serialVersionUID = 1L;
 
-					public Tuple2<Long, String> call(
-							Tuple2<Long, Tuple2<String, Optional<Long>>> tuple)
-							throws Exception {
-						long categoryid = tuple._1;
-						String value = tuple._2._1;
-						
-						Optional<Long> optional = tuple._2._2;
-						long orderCount = 0L;
-						
-						if(optional.isPresent()) {
-							orderCount = optional.get();
-						}
-						
-						value = value + "|" + Constants.FIELD_ORDER_COUNT + "=" + orderCount;  
-						
-						return new Tuple2<Long, String>(categoryid, value);  
-					}
-				
-				});
+							public HashMap<Long, Long> call(HashMap<Long, Long> categoryCountMap1,
+									HashMap<Long, Long> categoryCountMap2) throws Exception {
+								for(Map.Entry<Long, Long> entry : categoryCountMap2.entrySet()) {
+									Long count = categoryCountMap1.get(entry.getKey());
+									categoryCountMap1.put(entry.getKey(), 
+											count == null ? entry.getValue() : count + entry.getValue());
+								}
+								return categoryCountMap1;
+							}
+							
+						},
+						"sessionClick");
 		
-		tmpMapRDD = tmpMapRDD.leftOuterJoin(payCategoryId2CountRDD).mapToPair(
-				
-				new PairFunction<Tuple2<Long,Tuple2<String,Optional<Long>>>, Long, String>() {
+		//获取到top10热门品类被各个session点击的次数
+		JavaPairRDD<Long, Tuple2<String, Long>> top10CategorySessionCountRDD = sessionid2categoryCountRDD.flatMapToPair(
+				new PairFlatMapFunction<Tuple2<String, HashMap<Long, Long>>, Long, Tuple2<String, Long>>() {
 
 					private static final long serialVersionUID = 1L;
 
-					
-					public Tuple2<Long, String> call(
-							Tuple2<Long, Tuple2<String, Optional<Long>>> tuple)
-							throws Exception {
-						long categoryid = tuple._1;
-						String value = tuple._2._1;
+					public Iterable<Tuple2<Long, Tuple2<String, Long>>> call(
+							Tuple2<String, HashMap<Long, Long>> tuple) throws Exception {
 						
-						Optional<Long> optional = tuple._2._2;
-						long payCount = 0L;
+						String sessionid = tuple._1;
 						
-						if(optional.isPresent()) {
-							payCount = optional.get();
+						//返回结果为<categoryid,<sessionid,count>>格式
+						List<Tuple2<Long, Tuple2<String, Long>>> list = 
+								new ArrayList<Tuple2<Long, Tuple2<String, Long>>>();
+						for(Map.Entry<Long, Long> categoryCountEntry : tuple._2.entrySet()) {
+							list.add(new Tuple2<Long, Tuple2<String, Long>>(categoryCountEntry.getKey(), 
+									new Tuple2<String, Long>(sessionid, categoryCountEntry.getValue())));
 						}
 						
-						value = value + "|" + Constants.FIELD_PAY_COUNT + "=" + payCount;  
-						
-						return new Tuple2<Long, String>(categoryid, value);  
+						return list;
 					}
-				
-				});
-		
-		return tmpMapRDD;
-	}
-	
-	/**
-	 * 获取top10活跃session
-	 * @param taskid
-	 * @param sessionid2detailRDD
-	 */
-	private static void getTop10Session(
-			JavaSparkContext sc,
-			final long taskid, 
-			List<Tuple2<CategorySortKey, String>> top10CategoryList,
-			JavaPairRDD<String, Row> sessionid2detailRDD) {
+		});
 		
 		/**
-		 * 第一步：将top10热门品类的id生成一份RDD
+		 * 第三步：分组取topN算法实现，获取每个品类的top10活跃session
+		 * 
+		 * 原来是groupByKey把每个品类所有的session都拉到一起，再用插入排序取出前10个，
+		 * 热门品类的session很多的时候，一个品类的数据全部放在内存里，排序时还要反复切分字符串
+		 * 
+		 * 现在用aggregateByKey，每个品类只维护一个最多N个元素的小顶堆，
+		 * map端就完成裁剪，shuffle的数据量和每个品类占用的内存都是固定的
 		 */
+		int topSessionCount = ConfigurationManager.getInteger(Constants.TOP_SESSION_COUNT);
 		
-		//处理List
-		List<Tuple2<Long, Long>> top10CategoryIdList = 
-				new ArrayList<Tuple2<Long, Long>>();
-		
-		for (Tuple2<CategorySortKey, String> category : top10CategoryList) {
-			long categoryid = Long.valueOf(StringUtils.getFieldFromConcatString(
-					category._2, "\\|", Constants.FIELD_CATEGORY_ID));
-			top10CategoryIdList.add(new Tuple2<Long, Long>(categoryid, categoryid));
-		}
-		
-		JavaPairRDD<Long, Long> top10CategoryIdRDD = 
-				sc.parallelizePairs(top10CategoryIdList);
-		
-		/**
-		 * 第二步：计算top10品类被各session点击的次数
-		 */
-		JavaPairRDD<String, Iterable<Row>> sessionid2detailsRDD = 
-				sessionid2detailRDD.groupByKey();
+		JavaPairRDD<Long, TopNSessionHeap> top10CategorySessionHeapRDD = 
+				top10CategorySessionCountRDD.aggregateByKey(
+						new TopNSessionHeap(topSessionCount), 
+						
+						new Function2<TopNSessionHeap, Tuple2<String, Long>, TopNSessionHeap>() {
+
+							private static final long serialVersionUID = 1L;
+
+							public TopNSessionHeap call(TopNSessionHeap heap,
+									Tuple2<String, Long> sessionCount) throws Exception {
+								return heap.add(sessionCount._1, sessionCount._2);
+							}
+							
+						},
+						
+						new Function2<TopNSessionHeap, TopNSessionHeap, TopNSessionHeap>() {
+
+							private static final long serialVersionUID = 1L;
+
+							public TopNSessionHeap call(TopNSessionHeap heap1,
+									TopNSessionHeap heap2) throws Exception {
+								return heap1.merge(heap2);
+							}
+							
+						});
 		
-		JavaPairRDD<Long, String> categoryid2sessionCountRDD = sessionid2detailsRDD.flatMapToPair(
-				new PairFlatMapFunction<Tuple2<String, Iterable<Row>>, Long, String>() {
+		//将每个品类的top10session写入MySQL表
+		List<String> top10SessionAttemptKeys = top10CategorySessionHeapRDD.mapPartitions(
+				new FlatMapFunction<Iterator<Tuple2<Long, TopNSessionHeap>>, String>() {
 
 					private static final long serialVersionUID = 1L;
 
-					public Iterable<Tuple2<Long, String>> call(
-							Tuple2<String, Iterable<Row>> tuple) throws Exception {
-						
-						String sessionid = tuple._1;
-						Iterator<Row> iterator = tuple._2.iterator();
-						
-						Map<Long, Long> categoryCountMap = new HashMap<Long, Long>();
+					public Iterable<String> call(Iterator<Tuple2<Long, TopNSessionHeap>> iterator)
+							throws Exception {
+						String attemptKey = getAttemptKey();
+						ITop10SessionDAO top10SessionDAO = DAOFactory.getTop10SessionDAO();
+						List<Top10Session> top10Sessions = new ArrayList<Top10Session>();
 						
-						//计算出该session对每个品类的点击次数
 						while(iterator.hasNext()) {
-							Row row = iterator.next();
+							Tuple2<Long, TopNSessionHeap> tuple = iterator.next();
+							long categoryid = tuple._1;
 							
-							if(row.get(6) != null) {
-								long categoryid = row.getLong(6);
-								
-								Long count = categoryCountMap.get(categoryid);
-								if(count == null) {
-									count = 0L;
-								}
-								count ++;
+							for(Tuple2<String, Long> sessionCount : tuple._2.toSortedList()) {
+								Top10Session top10Session = new Top10Session();
+								top10Session.setTaskid(taskid);
+								top10Session.setCategoryid(categoryid);
+								top10Session.setSessionid(sessionCount._1);
+								top10Session.setClickCount(sessionCount._2);
 								
-								categoryCountMap.put(categoryid, count);
+								top10Sessions.add(top10Session);
 							}
 						}
 						
-						//返回结果为<categoryid,session:count>格式
-						List<Tuple2<Long, String>> list = new ArrayList<Tuple2<Long, String>>();
-						for(Map.Entry<Long, Long> categoryCountEntry : categoryCountMap.entrySet()) {
-							long categoryid = categoryCountEntry.getKey();
-							long count = categoryCountEntry.getValue();
-							String value = sessionid + "," + count;
-							list.add(new Tuple2<Long, String>(categoryid, value));
+						//这个partition的top10session一次批量插入staging表
+						if(!top10Sessions.isEmpty()) {
+							insertBatchAsync(top10SessionDAO, top10Sessions, attemptKey);
 						}
 						
-						return list;
-					}
-		});
-		
-		//获取到top10热门品类被各个session点击的次数
-		JavaPairRDD<Long, String> top10CategorySessionCountRDD = 
-				top10CategoryIdRDD.join(categoryid2sessionCountRDD)
-				.mapToPair(new PairFunction<Tuple2<Long, Tuple2<Long, String>>, Long, String>() {
-
-					private static final long serialVersionUID = 1L;
-
-					public Tuple2<Long, String> call(
-							Tuple2<Long, Tuple2<Long, String>> tuple) throws Exception {
-						return new Tuple2<Long, String>(tuple._1, tuple._2._2);
+						return Collections.singletonList(attemptKey);
 					}
 					
-				});
+				}).collect();
 		
-		/**
-		 * 第三步：分组取topN算法实现，获取每个品类的top10活跃用户
-		 */
-		JavaPairRDD<Long, Iterable<String>> top10CategorySessionCountsRDD =
-				top10CategorySessionCountRDD.groupByKey();
+		DAOFactory.getStagingDAO().publish(TABLE_TOP10_SESSION, taskid, top10SessionAttemptKeys);
 		
-		JavaPairRDD<String, String> top10SessionRDD = top10CategorySessionCountsRDD.flatMapToPair(
-				new PairFlatMapFunction<Tuple2<Long, Iterable<String>>, String, String>() {
+		JavaPairRDD<String, String> top10SessionRDD = top10CategorySessionHeapRDD.flatMapToPair(
+				new PairFlatMapFunction<Tuple2<Long, TopNSessionHeap>, String, String>() {
 
 					private static final long serialVersionUID = 1L;
 
 					public Iterable<Tuple2<String, String>> call(
-							Tuple2<Long, Iterable<String>> tuple) throws Exception {
-						
-						long categoryid = tuple._1;
-						Iterator<String> iterator = tuple._2.iterator();
-						
-						//定义取TopN的排序数组
-						String[] top10Sessions = new String[10];
-						
-						while(iterator.hasNext()) {
-							String sessionCount = iterator.next();
-							long count = Long.valueOf(sessionCount.split(",")[1]);
-							
-							//遍历排序数组
-							for(int i = 0; i < top10Sessions.length; i++) {
-								//如果当前位没有数据，直接将i位数据赋值为当前sessioncount
-								if(top10Sessions[i] == null) {
-									top10Sessions[i] = sessionCount;
-									break;
-								}else {
-									long _count = Long.valueOf(top10Sessions[i].split(",")[1]);
-									
-									//如果sessionCount比i位的sessionCount大
-									if(count > _count) {
-										//从排序数组最后一位开始，到i位所有数据往后挪一位
-										for(int j = 9; j > i; j--) {
-											top10Sessions[j] = top10Sessions[j - 1];
-										}
-										//将i位赋值为sessionCount
-										top10Sessions[i] = sessionCount;
-										break;
-									}
-									
-									//如果sessionCount比i位的sessionCount要小，继续外层for循环
-								}
-							}
-						}
-						
-						//将数据写入MySQL表
+							Tuple2<Long, TopNSessionHeap> tuple) throws Exception {
 						List<Tuple2<String, String>> list = new ArrayList<Tuple2<String, String>>();
-						
-						for(String sessionCount : top10Sessions) {
-							if(sessionCount != null) {
-								String sessionid = sessionCount.split(",")[0];
-								long count = Long.valueOf(sessionCount.split(",")[1]);
-								
-								//将top10session插入MySQL表
-								Top10Session top10Session = new Top10Session();
-								top10Session.setTaskid(taskid);
-								top10Session.setCategoryid(categoryid);
-								top10Session.setSessionid(sessionid);
-								top10Session.setClickCount(count);
-								
-								ITop10SessionDAO top10SessionDAO = DAOFactory.getTop10SessionDAO();
-								top10SessionDAO.insert(top10Session);
-								
-								list.add(new Tuple2<String, String>(sessionid, sessionid));
-							}
+						for(Tuple2<String, Long> sessionCount : tuple._2.toSortedList()) {
+							list.add(new Tuple2<String, String>(sessionCount._1, sessionCount._1));
 						}
-						
 						return list;
 					}
 			
@@ -1612,32 +1455,154 @@ public class UserVisitSessionAnalyzeSpark {
 		 */
 		JavaPairRDD<String, Tuple2<String, Row>> sessionDetailRDD =
 				top10SessionRDD.join(sessionid2detailRDD);  
-		sessionDetailRDD.foreach(new VoidFunction<Tuple2<String,Tuple2<String,Row>>>() {  
-			
+		return persistSessionDetail(taskid, sessionDetailRDD);
+	}
+	
+	/**
+	 * 将session的明细数据写入MySQL
+	 * 
+	 * 原来是在foreach中每条明细插入一次，每次都要从连接池拿连接、向MySQL发送一次请求
+	 * 现在遍历每个partition，批量insert的时候每攒够jdbc.batch.size条明细批量插入一次；
+	 * LOAD DATA和Parquet整个partition一边遍历一边写入一个文件，每个partition只导入一次
+	 * 
+	 * 数据先写入staging表，返回每个partition执行成功的attempt，由调用方发布到正式表
+	 * @param taskid
+	 * @param sessionDetailRDD <sessionid,<sessionid,明细>>
+	 * @return 执行成功的attempt
+	 */
+	private static List<String> persistSessionDetail(
+			final long taskid,
+			JavaPairRDD<String, Tuple2<String, Row>> sessionDetailRDD) {
+		//没有开启session明细的时候不写入，行为数据中也没有读取明细需要的列
+		if(!ConfigurationManager.getBoolean(Constants.SESSION_DETAIL_ENABLED)) {
+			return new ArrayList<String>();
+		}
+		
+		final int batchSize = ConfigurationManager.getInteger(Constants.JDBC_BATCH_SIZE);
+		
+		return sessionDetailRDD.mapPartitions(new FlatMapFunction<Iterator<Tuple2<String, Tuple2<String, Row>>>, String>() {
+
 			private static final long serialVersionUID = 1L;
 
-			public void call(Tuple2<String, Tuple2<String, Row>> tuple) throws Exception {
-				Row row = tuple._2._2;
+			public Iterable<String> call(final Iterator<Tuple2<String, Tuple2<String, Row>>> iterator) throws Exception {
+				String attemptKey = getAttemptKey();
+				ISessionDetailDAO sessionDetailDAO = DAOFactory.getSessionDetailDAO();
+				
+				if(!DAOFactory.isSessionDetailBatchInsert()) {
+					sessionDetailDAO.insertStagingPartition(taskid, new Iterator<SessionDetail>() {
+
+						public boolean hasNext() {
+							return iterator.hasNext();
+						}
+
+						public SessionDetail next() {
+							return toSessionDetail(taskid, iterator.next()._2._2);
+						}
+
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+						
+					}, attemptKey);
+					return Collections.singletonList(attemptKey);
+				}
 				
-				SessionDetail sessionDetail = new SessionDetail();
-				sessionDetail.setTaskid(taskid);  
-				sessionDetail.setUserid(row.getLong(1));  
-				sessionDetail.setSessionid(row.getString(2));  
-				sessionDetail.setPageid(row.getLong(3));  
-				sessionDetail.setActionTime(row.getString(4));
-				sessionDetail.setSearchKeyword(row.getString(5));  
-				sessionDetail.setClickCategoryId(row.getLong(6));  
-				sessionDetail.setClickProductId(row.getLong(7));   
-				sessionDetail.setOrderCategoryIds(row.getString(8));  
-				sessionDetail.setOrderProductIds(row.getString(9));  
-				sessionDetail.setPayCategoryIds(row.getString(10)); 
-				sessionDetail.setPayProductIds(row.getString(11));  
+				List<SessionDetail> sessionDetails = new ArrayList<SessionDetail>(batchSize);
 				
-				ISessionDetailDAO sessionDetailDAO = DAOFactory.getSessionDetailDAO();
-				sessionDetailDAO.insert(sessionDetail);  
+				while(iterator.hasNext()) {
+					sessionDetails.add(toSessionDetail(taskid, iterator.next()._2._2));
+					
+					if(sessionDetails.size() >= batchSize) {
+						//异步写入的时候list会交给写线程，所以不能clear，要重新创建一个
+						insertBatchAsync(sessionDetailDAO, sessionDetails, attemptKey);
+						sessionDetails = new ArrayList<SessionDetail>(batchSize);
+					}
+				}
+				
+				if(!sessionDetails.isEmpty()) {
+					insertBatchAsync(sessionDetailDAO, sessionDetails, attemptKey);
+				}
+				
+				return Collections.singletonList(attemptKey);
 			}
+			
+		}).collect();
+	}
+	
+	/**
+	 * 封装sessionDetail的domain
+	 * @param taskid
+	 * @param row 行为数据
+	 * @return session明细
+	 */
+	private static SessionDetail toSessionDetail(long taskid, Row row) {
+		SessionDetail sessionDetail = new SessionDetail();
+		sessionDetail.setTaskid(taskid);
+		sessionDetail.setUserid(row.getLong(1));
+		sessionDetail.setSessionid(row.getString(2));
+		sessionDetail.setPageid(row.getLong(3));
+		sessionDetail.setActionTime(row.getString(4));
+		sessionDetail.setSearchKeyword(row.getString(5));
+		sessionDetail.setClickCategoryId(row.getLong(6));
+		sessionDetail.setClickProductId(row.getLong(7));
+		sessionDetail.setOrderCategoryIds(row.getString(8));
+		sessionDetail.setOrderProductIds(row.getString(9));
+		sessionDetail.setPayCategoryIds(row.getString(10));
+		sessionDetail.setPayProductIds(row.getString(11));
+		return sessionDetail;
+	}
+	
+	/**
+	 * 当前task attempt的标识：partition编号_taskAttemptId
+	 * 同一个partition重试或者推测执行的时候，taskAttemptId是不同的
+	 * @return attempt标识
+	 */
+	private static String getAttemptKey() {
+		TaskContext context = TaskContext.get();
+		return context.partitionId() + "_" + context.taskAttemptId();
+	}
+	
+	/**
+	 * 通过AsyncResultWriter批量写入session明细到staging表
+	 * 开启async.writer.enabled的时候由写线程异步写入，task可以继续计算
+	 */
+	private static void insertBatchAsync(final ISessionDetailDAO sessionDetailDAO,
+			final List<SessionDetail> sessionDetails, final String attemptKey) throws Exception {
+		AsyncResultWriter.execute(new AsyncResultWriter.Flush() {
+			
+			public void flush() throws Exception {
+				sessionDetailDAO.insertStagingBatch(sessionDetails, attemptKey);
+			}
+			
+		});
+	}
+	
+	/**
+	 * 通过AsyncResultWriter批量写入随机抽取的session到staging表
+	 */
+	private static void insertBatchAsync(final ISessionRandomExtractDAO sessionRandomExtractDAO,
+			final List<SessionRandomExtract> sessionRandomExtracts, final String attemptKey) throws Exception {
+		AsyncResultWriter.execute(new AsyncResultWriter.Flush() {
+			
+			public void flush() throws Exception {
+				sessionRandomExtractDAO.insertStagingBatch(sessionRandomExtracts, attemptKey);
+			}
+			
+		});
+	}
+	
+	/**
+	 * 通过AsyncResultWriter批量写入top10活跃session到staging表
+	 */
+	private static void insertBatchAsync(final ITop10SessionDAO top10SessionDAO,
+			final List<Top10Session> top10Sessions, final String attemptKey) throws Exception {
+		AsyncResultWriter.execute(new AsyncResultWriter.Flush() {
+			
+			public void flush() throws Exception {
+				top10SessionDAO.insertStagingBatch(top10Sessions, attemptKey);
+			}
+			
 		});
 	}
 	
 }
-
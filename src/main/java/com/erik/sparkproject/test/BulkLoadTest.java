@@ -0,0 +1,371 @@
+package com.erik.sparkproject.test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.erik.sparkproject.conf.ConfigurationManager;
+import com.erik.sparkproject.constant.Constants;
+import com.erik.sparkproject.domain.SessionDetail;
+import com.erik.sparkproject.impl.SessionDetailBulkLoadDAOImpl;
+import com.erik.sparkproject.jdbc.JDBCHelper;
+import com.erik.sparkproject.jdbc.TsvSpoolFile;
+
+/**
+ * LOAD DATA批量导入测试类
+ *
+ * 不需要MySQL：
+ * 1.用一个按照LOAD DATA默认规则解析文件的方法代替MySQL，
+ *   检查写到文件中的数据解析出来以后和原来的数据一致
+ * 2.注册一个代替MySQL驱动的StubDriver，它的Statement收到LOAD DATA语句时，
+ *   解析语句中的文件并返回解析出来的行数，可以指定前几次执行失败、返回错误的行数，
+ *   检查JDBCHelper.executeLoadData生成的语句、重试、行数检查和临时文件的删除
+ * @author Erik
+ *
+ */
+public class BulkLoadTest {
+	
+	private static final Pattern LOAD_DATA_PATTERN = Pattern.compile(
+			"load data local infile '(.+)' into table (\\S+) character set utf8 "
+			+ "fields terminated by '\\\\t' escaped by '\\\\\\\\' "
+			+ "lines terminated by '\\\\n'");
+	
+	public static void main(String[] args) throws Exception {
+		testSpoolFile();
+		testLoadData();
+		System.out.println("LOAD DATA测试通过");
+	}
+	
+	/**
+	 * 数据文件的格式
+	 */
+	private static void testSpoolFile() throws Exception {
+		List<Object[]> rows = new ArrayList<Object[]>();
+		rows.add(new Object[]{1L, 10L, "session-1", 3L, "2017-01-01 10:00:00", 
+				"火锅", null, null, "1,2", "3,4", null, null});
+		rows.add(new Object[]{1L, 11L, "session-2", 5L, "2017-01-01 11:00:00", 
+				"tab\there", 7L, 8L, "line\nbreak", "back\\slash", "cr\rlf", "\\N"});
+		rows.add(new Object[]{1L, 12L, "", 0L, null, "", null, null, null, null, null, null});
+		
+		File file = File.createTempFile("session_detail-", ".tsv");
+		try {
+			int count = TsvSpoolFile.write(file, rows);
+			System.out.println("写入" + count + "行，" + file.length() + "字节");
+			if(count != rows.size()) {
+				throw new RuntimeException("写入的行数不一致：" + count);
+			}
+			
+			List<String[]> loadedRows = load(file);
+			if(loadedRows.size() != rows.size()) {
+				throw new RuntimeException("行数不一致：" + loadedRows.size());
+			}
+			for(int i = 0; i < rows.size(); i++) {
+				String[] expected = toStrings(rows.get(i));
+				if(!Arrays.equals(expected, loadedRows.get(i))) {
+					throw new RuntimeException("第" + (i + 1) + "行不一致：" 
+							+ Arrays.toString(expected) + " != " + Arrays.toString(loadedRows.get(i)));
+				}
+			}
+			System.out.println("解析结果和原来的数据一致");
+		} finally {
+			file.delete();
+		}
+	}
+	
+	/**
+	 * 通过StubDriver执行JDBCHelper.executeLoadData
+	 */
+	private static void testLoadData() throws Exception {
+		//去掉已经注册的驱动（包括MySQL驱动），JDBCHelper获取的连接都来自StubDriver
+		Enumeration<Driver> drivers = DriverManager.getDrivers();
+		while(drivers.hasMoreElements()) {
+			DriverManager.deregisterDriver(drivers.nextElement());
+		}
+		StubDriver driver = new StubDriver();
+		DriverManager.registerDriver(driver);
+		
+		JDBCHelper jdbcHelper = JDBCHelper.getInstance();
+		int retries = ConfigurationManager.getInteger(Constants.JDBC_BULK_LOAD_RETRIES);
+		List<Object[]> rows = new ArrayList<Object[]>();
+		rows.add(new Object[]{2L, 20L, "session-1", 1L, "2017-01-01 10:00:00", 
+				"火锅", null, null, null, null, null, null});
+		rows.add(new Object[]{2L, 21L, "session-2", 2L, "2017-01-01 11:00:00", 
+				null, 7L, 8L, "1,2", "3,4", null, null});
+		
+		//前两次失败，第三次导入成功
+		driver.reset(2, 0);
+		int rtn = jdbcHelper.executeLoadData("session_detail", rows);
+		check("重试以后导入", rtn == rows.size() && driver.attempts == 3);
+		check("表名", "session_detail".equals(driver.table));
+		check("导入的数据", Arrays.equals(toStrings(rows.get(1)), driver.loadedRows.get(1)));
+		check("删除临时文件", !driver.file.exists());
+		
+		//一直失败，重试retries次以后抛出异常
+		driver.reset(retries + 1, 0);
+		boolean failed = false;
+		try {
+			jdbcHelper.executeLoadData("session_detail", rows);
+		} catch (RuntimeException e) {
+			failed = true;
+		}
+		check("重试次数用完以后失败", failed && driver.attempts == retries + 1);
+		check("失败以后删除临时文件", !driver.file.exists());
+		
+		//导入的行数不一致，直接失败，不重试
+		driver.reset(0, 1);
+		failed = false;
+		try {
+			jdbcHelper.executeLoadData("session_detail", rows);
+		} catch (RuntimeException e) {
+			failed = e.getMessage().contains("行数不一致");
+		}
+		check("行数不一致时失败", failed && driver.attempts == 1);
+		check("行数不一致时删除临时文件", !driver.file.exists());
+		
+		//通过DAO写staging表，第一列是attempt_key
+		SessionDetail sessionDetail = new SessionDetail();
+		sessionDetail.setTaskid(3L);
+		sessionDetail.setSessionid("session-3");
+		sessionDetail.setActionTime("2017-01-01 12:00:00");
+		driver.reset(0, 0);
+		new SessionDetailBulkLoadDAOImpl().insertStagingBatch(
+				Collections.singletonList(sessionDetail), "attempt-1");
+		check("staging表", "session_detail_staging".equals(driver.table) 
+				&& driver.loadedRows.size() == 1);
+		check("attempt_key", "attempt-1".equals(driver.loadedRows.get(0)[0]) 
+				&& "3".equals(driver.loadedRows.get(0)[1]));
+		check("DAO删除临时文件", !driver.file.exists());
+		
+		//整个partition只写一个文件、执行一条LOAD DATA，不按jdbc.batch.size分批
+		int batchSize = ConfigurationManager.getInteger(Constants.JDBC_BATCH_SIZE);
+		List<SessionDetail> partition = new ArrayList<SessionDetail>();
+		for(int i = 0; i < batchSize * 2 + 1; i++) {
+			SessionDetail detail = new SessionDetail();
+			detail.setTaskid(4L);
+			detail.setSessionid("session-" + i);
+			partition.add(detail);
+		}
+		driver.reset(0, 0);
+		new SessionDetailBulkLoadDAOImpl().insertStagingPartition(4L, partition.iterator(), "attempt-2");
+		check("partition一次导入", driver.attempts == 1 
+				&& driver.loadedRows.size() == partition.size());
+		check("partition的attempt_key", "attempt-2".equals(
+				driver.loadedRows.get(partition.size() - 1)[0]));
+		check("partition删除临时文件", !driver.file.exists());
+		
+		//空的partition不导入
+		driver.reset(0, 0);
+		new SessionDetailBulkLoadDAOImpl().insertStagingPartition(4L, 
+				new ArrayList<SessionDetail>().iterator(), "attempt-3");
+		check("空partition不导入", driver.attempts == 0);
+	}
+	
+	private static void check(String name, boolean passed) {
+		if(!passed) {
+			throw new RuntimeException(name + "：检查失败");
+		}
+		System.out.println(name + "：通过");
+	}
+	
+	/**
+	 * 代替MySQL驱动，接受任何url
+	 * Statement执行LOAD DATA语句的时候，解析语句中的文件代替MySQL导入
+	 */
+	private static class StubDriver implements Driver {
+		
+		//前几次执行失败
+		private int failures;
+		//返回的行数比文件中的行数少多少
+		private int missingRows;
+		
+		//最近一次执行的情况
+		private int attempts;
+		private String table;
+		private File file;
+		private List<String[]> loadedRows;
+		
+		void reset(int failures, int missingRows) {
+			this.failures = failures;
+			this.missingRows = missingRows;
+			this.attempts = 0;
+			this.table = null;
+			this.file = null;
+			this.loadedRows = null;
+		}
+		
+		int executeUpdate(String sql) throws SQLException {
+			attempts++;
+			Matcher matcher = LOAD_DATA_PATTERN.matcher(sql);
+			if(!matcher.matches()) {
+				throw new RuntimeException("不是LOAD DATA语句：" + sql);
+			}
+			file = new File(matcher.group(1));
+			table = matcher.group(2);
+			if(attempts <= failures) {
+				throw new SQLException("模拟LOAD DATA失败，第" + attempts + "次");
+			}
+			try {
+				loadedRows = load(file);
+			} catch (Exception e) {
+				throw new SQLException("读取数据文件失败：" + file, e);
+			}
+			return loadedRows.size() - missingRows;
+		}
+		
+		public Connection connect(String url, Properties info) throws SQLException {
+			final Statement statement = (Statement) stub(Statement.class, new InvocationHandler() {
+				
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if("executeUpdate".equals(method.getName())) {
+						return executeUpdate((String) args[0]);
+					}
+					return defaultValue(method);
+				}
+				
+			});
+			
+			return (Connection) stub(Connection.class, new InvocationHandler() {
+				
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if("isValid".equals(method.getName())) {
+						return true;
+					}
+					if("createStatement".equals(method.getName())) {
+						return statement;
+					}
+					return defaultValue(method);
+				}
+				
+			});
+		}
+		
+		public boolean acceptsURL(String url) throws SQLException {
+			return true;
+		}
+		
+		public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
+			return new DriverPropertyInfo[0];
+		}
+		
+		public int getMajorVersion() {
+			return 1;
+		}
+		
+		public int getMinorVersion() {
+			return 0;
+		}
+		
+		public boolean jdbcCompliant() {
+			return false;
+		}
+		
+		public Logger getParentLogger() {
+			return Logger.getLogger("stub");
+		}
+		
+		private static Object stub(Class<?> type, InvocationHandler handler) {
+			return Proxy.newProxyInstance(BulkLoadTest.class.getClassLoader(), 
+					new Class<?>[]{type}, handler);
+		}
+		
+		//没有用到的方法返回默认值
+		private static Object defaultValue(Method method) {
+			Class<?> type = method.getReturnType();
+			if(type == boolean.class) {
+				return false;
+			}
+			if(type == int.class) {
+				return 0;
+			}
+			if(type == long.class) {
+				return 0L;
+			}
+			return null;
+		}
+		
+	}
+	
+	/**
+	 * 按照LOAD DATA默认的规则解析文件：
+	 * fields terminated by '\t' escaped by '\\' lines terminated by '\n'
+	 */
+	private static List<String[]> load(File file) throws Exception {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		byte[] data = new byte[(int) randomAccessFile.length()];
+		try {
+			randomAccessFile.readFully(data);
+		} finally {
+			randomAccessFile.close();
+		}
+		String content = new String(data, TsvSpoolFile.CHARSET);
+		
+		List<String[]> rows = new ArrayList<String[]>();
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean isNull = false;
+		
+		for(int i = 0; i < content.length(); i++) {
+			char c = content.charAt(i);
+			if(c == '\\') {
+				char next = content.charAt(++i);
+				switch(next) {
+				case 'N':
+					isNull = true;
+					break;
+				case 't':
+					field.append('\t');
+					break;
+				case 'n':
+					field.append('\n');
+					break;
+				case 'r':
+					field.append('\r');
+					break;
+				case '0':
+					field.append('\0');
+					break;
+				default:
+					field.append(next);
+				}
+			} else if(c == '\t' || c == '\n') {
+				fields.add(isNull ? null : field.toString());
+				field.setLength(0);
+				isNull = false;
+				if(c == '\n') {
+					rows.add(fields.toArray(new String[fields.size()]));
+					fields.clear();
+				}
+			} else {
+				field.append(c);
+			}
+		}
+		
+		return rows;
+	}
+	
+	private static String[] toStrings(Object[] row) {
+		String[] strings = new String[row.length];
+		for(int i = 0; i < row.length; i++) {
+			strings[i] = row[i] == null ? null : row[i].toString();
+		}
+		return strings;
+	}
+
+}
@@ -0,0 +1,65 @@
+package com.erik.sparkproject.test;
+
+import java.util.List;
+
+import com.erik.sparkproject.spark.session.TopNSessionHeap;
+
+import scala.Tuple2;
+
+/**
+ * 分组取topN的小顶堆测试类
+ * 检查堆中保留的是点击次数最大的N个session，并且按点击次数降序返回
+ * @author Erik
+ *
+ */
+public class TopNSessionHeapTest {
+	
+	public static void main(String[] args) {
+		//容量为3，依次加入点击次数5,1,9,7,3,8,2,6，应该保留9,8,7
+		TopNSessionHeap heap = new TopNSessionHeap(3);
+		long[] counts = new long[]{5, 1, 9, 7, 3, 8, 2, 6};
+		for(int i = 0; i < counts.length; i++) {
+			heap.add("s" + i, counts[i]);
+		}
+		check("add", heap, new String[]{"s2", "s5", "s3"}, new long[]{9, 8, 7});
+		
+		//合并两个分别只看到一部分session的堆，结果和一个堆看到全部session相同
+		TopNSessionHeap left = new TopNSessionHeap(3);
+		TopNSessionHeap right = new TopNSessionHeap(3);
+		for(int i = 0; i < counts.length; i++) {
+			if(i % 2 == 0) {
+				left.add("s" + i, counts[i]);
+			} else {
+				right.add("s" + i, counts[i]);
+			}
+		}
+		check("merge", left.merge(right), new String[]{"s2", "s5", "s3"}, new long[]{9, 8, 7});
+		
+		//点击次数相同时，sessionid较小的排在前面
+		TopNSessionHeap tie = new TopNSessionHeap(2);
+		tie.add("s3", 4).add("s1", 4).add("s2", 4).add("s0", 1);
+		check("tie", tie, new String[]{"s1", "s2"}, new long[]{4, 4});
+		
+		//session个数小于容量的时候全部保留
+		TopNSessionHeap small = new TopNSessionHeap(10);
+		small.add("s0", 2).add("s1", 3);
+		check("small", small, new String[]{"s1", "s0"}, new long[]{3, 2});
+		
+		System.out.println("TopNSessionHeap测试通过");
+	}
+	
+	private static void check(String name, TopNSessionHeap heap, 
+			String[] sessionids, long[] counts) {
+		List<Tuple2<String, Long>> list = heap.toSortedList();
+		if(heap.size() != sessionids.length || list.size() != sessionids.length) {
+			throw new RuntimeException(name + "：个数不一致，" + list);
+		}
+		for(int i = 0; i < sessionids.length; i++) {
+			if(!list.get(i)._1.equals(sessionids[i]) || list.get(i)._2 != counts[i]) {
+				throw new RuntimeException(name + "：第" + (i + 1) + "个不一致，" + list);
+			}
+		}
+		System.out.println(name + "：" + list);
+	}
+
+}
@@ -0,0 +1,120 @@
+package com.erik.sparkproject.util;
+
+import java.io.Serializable;
+
+/**
+ * key为long类型的HashMap
+ *
+ * key直接使用long[]开放寻址存储，不需要像HashMap<Long, V>那样为每个key装箱，
+ * 也没有Entry对象，内存占用小很多，适合作为广播变量在各个executor上保存维度数据
+ * @author Erik
+ *
+ */
+public class LongHashMap<V> implements Serializable {
+
+	private static final long serialVersionUID = -4021349318870342650L;
+
+	//0作为空槽位的标记，所以key为0的value单独记录
+	private long[] keys;
+	private Object[] values;
+	private boolean containsZeroKey;
+	private Object zeroValue;
+	private int size;
+
+	public LongHashMap() {
+		this(16);
+	}
+
+	public LongHashMap(int expectedSize) {
+		int capacity = 16;
+		while(capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		keys = new long[capacity];
+		values = new Object[capacity];
+	}
+
+	/**
+	 * 放入key-value，key已经存在则覆盖
+	 * @param key key
+	 * @param value value
+	 */
+	public void put(long key, V value) {
+		if(key == 0) {
+			if(!containsZeroKey) {
+				containsZeroKey = true;
+				size++;
+			}
+			zeroValue = value;
+			return;
+		}
+
+		int mask = keys.length - 1;
+		int index = hash(key) & mask;
+		while(keys[index] != 0) {
+			if(keys[index] == key) {
+				values[index] = value;
+				return;
+			}
+			index = (index + 1) & mask;
+		}
+		keys[index] = key;
+		values[index] = value;
+		size++;
+
+		//装载因子超过0.5就扩容
+		if(size * 2 > keys.length) {
+			rehash(keys.length << 1);
+		}
+	}
+
+	/**
+	 * 获取key对应的value
+	 * @param key key
+	 * @return value，不存在时返回null
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		if(key == 0) {
+			return (V) zeroValue;
+		}
+
+		int mask = keys.length - 1;
+		int index = hash(key) & mask;
+		while(keys[index] != 0) {
+			if(keys[index] == key) {
+				return (V) values[index];
+			}
+			index = (index + 1) & mask;
+		}
+		return null;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private void rehash(int newCapacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[newCapacity];
+		values = new Object[newCapacity];
+		int mask = newCapacity - 1;
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i] != 0) {
+				int index = hash(oldKeys[i]) & mask;
+				while(keys[index] != 0) {
+					index = (index + 1) & mask;
+				}
+				keys[index] = oldKeys[i];
+				values[index] = oldValues[i];
+			}
+		}
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+}
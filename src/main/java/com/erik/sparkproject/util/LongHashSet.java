@@ -0,0 +1,116 @@
+package com.erik.sparkproject.util;
+
+import java.io.Serializable;
+
+/**
+ * long类型的HashSet
+ *
+ * 直接使用long[]开放寻址存储，不需要像HashSet<Long>那样为每个元素装箱，
+ * 判断是否包含某个值时也不会创建任何对象，适合在算子中频繁调用，以及作为广播变量
+ * @author Erik
+ *
+ */
+public class LongHashSet implements Serializable {
+
+	private static final long serialVersionUID = 6721409213839740317L;
+
+	//0作为空槽位的标记，所以0单独记录
+	private long[] table;
+	private boolean containsZero;
+	private int size;
+
+	public LongHashSet() {
+		this(16);
+	}
+
+	public LongHashSet(int expectedSize) {
+		int capacity = 16;
+		while(capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		table = new long[capacity];
+	}
+
+	/**
+	 * 添加一个值
+	 * @param value 值
+	 * @return 添加之前是否不存在
+	 */
+	public boolean add(long value) {
+		if(value == 0) {
+			if(containsZero) {
+				return false;
+			}
+			containsZero = true;
+			size++;
+			return true;
+		}
+
+		int mask = table.length - 1;
+		int index = hash(value) & mask;
+		while(table[index] != 0) {
+			if(table[index] == value) {
+				return false;
+			}
+			index = (index + 1) & mask;
+		}
+		table[index] = value;
+		size++;
+
+		//装载因子超过0.5就扩容
+		if(size * 2 > table.length) {
+			rehash(table.length << 1);
+		}
+		return true;
+	}
+
+	/**
+	 * 判断是否包含某个值
+	 * @param value 值
+	 * @return 是否包含
+	 */
+	public boolean contains(long value) {
+		if(value == 0) {
+			return containsZero;
+		}
+
+		int mask = table.length - 1;
+		int index = hash(value) & mask;
+		while(table[index] != 0) {
+			if(table[index] == value) {
+				return true;
+			}
+			index = (index + 1) & mask;
+		}
+		return false;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	private void rehash(int newCapacity) {
+		long[] oldTable = table;
+		table = new long[newCapacity];
+		int mask = newCapacity - 1;
+		for(long value : oldTable) {
+			if(value != 0) {
+				int index = hash(value) & mask;
+				while(table[index] != 0) {
+					index = (index + 1) & mask;
+				}
+				table[index] = value;
+			}
+		}
+	}
+
+	private static int hash(long value) {
+		long h = value * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+}